@@ -6,6 +6,8 @@ import com.insight.usercenter.common.entity.Function;
 import com.insight.usercenter.common.entity.Navigator;
 import com.insight.util.pojo.Reply;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 /**
@@ -220,4 +222,34 @@ public class AppController {
 
         return service.updateFunction(function);
     }
+
+    /**
+     * 获取应用的鉴权清单(功能表及角色授权位图),供网关本地鉴权。
+     * 调用方的角色ID集合由签名访问令牌的声明(roleIds)或令牌验证接口(/authapi/v1.1/tokens/secret)的返回数据提供
+     *
+     * @param token       访问令牌
+     * @param appId       应用ID
+     * @param since       网关持有的清单版本,指定时返回增量清单
+     * @param ifNoneMatch 网关持有的清单ETag
+     * @return Reply
+     * 正常：返回接口调用成功,通过data返回鉴权清单;清单未变化时返回304
+     */
+    @GetMapping("/v1.1/apps/{id}/manifest")
+    public ResponseEntity<Reply> getManifest(@RequestHeader("Authorization") String token, @PathVariable("id") String appId,
+                                             @RequestParam(required = false) Long since,
+                                             @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
+        Verify verify = new Verify(token);
+        Reply result = verify.compare("getApps");
+        if (!result.getSuccess()) {
+            return ResponseEntity.ok(result);
+        }
+
+        long version = service.getCatalogVersion();
+        String etag = "\"" + version + "\"";
+        if (etag.equals(ifNoneMatch)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+
+        return ResponseEntity.ok().eTag(etag).body(service.getManifest(appId, since, version));
+    }
 }
@@ -103,4 +103,21 @@ public interface AppService {
      * @return Reply
      */
     Reply updateFunction(Function function);
+
+    /**
+     * 获取当前鉴权目录版本
+     *
+     * @return 鉴权目录版本
+     */
+    long getCatalogVersion();
+
+    /**
+     * 获取应用的鉴权清单
+     *
+     * @param appId   应用ID
+     * @param since   网关持有的清单版本(为空时返回全量清单)
+     * @param version 当前鉴权目录版本
+     * @return Reply
+     */
+    Reply getManifest(String appId, Long since, long version);
 }
@@ -1,9 +1,16 @@
 package com.insight.usercenter.app;
 
+import com.insight.usercenter.app.dto.Manifest;
+import com.insight.usercenter.app.dto.ManifestFunction;
+import com.insight.usercenter.app.dto.ManifestRole;
+import com.insight.usercenter.common.AppCatalog;
+import com.insight.usercenter.common.CatalogVersion;
+import com.insight.usercenter.common.PermitEngine;
 import com.insight.usercenter.common.Token;
 import com.insight.usercenter.common.entity.App;
 import com.insight.usercenter.common.entity.Function;
 import com.insight.usercenter.common.entity.Navigator;
+import com.insight.usercenter.common.entity.RoleAction;
 import com.insight.usercenter.common.mapper.AppMapper;
 import com.insight.util.Generator;
 import com.insight.util.ReplyHelper;
@@ -12,7 +19,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author 宣炳刚
@@ -22,15 +30,31 @@ import java.util.List;
 @Service
 public class AppServiceImpl implements AppService {
     private final AppMapper mapper;
+    private final PermitEngine permitEngine;
+    private final AppCatalog appCatalog;
+    private final CatalogVersion catalogVersion;
+
+    /**
+     * 应用ID-全量鉴权清单映射
+     */
+    private final Map<String, Snapshot> manifests;
 
     /**
      * 构造函数
      *
-     * @param mapper 自动注入的AppMapper
+     * @param mapper         自动注入的AppMapper
+     * @param permitEngine   自动注入的PermitEngine
+     * @param appCatalog     自动注入的AppCatalog
+     * @param catalogVersion 自动注入的CatalogVersion
      */
     @Autowired
-    public AppServiceImpl(AppMapper mapper) {
+    public AppServiceImpl(AppMapper mapper, PermitEngine permitEngine, AppCatalog appCatalog, CatalogVersion catalogVersion) {
         this.mapper = mapper;
+        this.permitEngine = permitEngine;
+        this.appCatalog = appCatalog;
+        this.catalogVersion = catalogVersion;
+
+        manifests = new ConcurrentHashMap<>(16);
     }
 
     /**
@@ -53,7 +77,7 @@ public class AppServiceImpl implements AppService {
      */
     @Override
     public Reply getApp(String appId) {
-        List<Function> list = mapper.getNavigators(appId);
+        List<Function> list = appCatalog.getNodes(appId);
 
         return ReplyHelper.success(list);
     }
@@ -90,6 +114,7 @@ public class AppServiceImpl implements AppService {
 
         // 持久化数据
         Integer count = mapper.addNavigator(navigator);
+        appCatalog.onAppChanged(navigator.getApplicationId());
 
         return count > 0 ? ReplyHelper.success() : ReplyHelper.fail("未能将数据写入数据库!");
     }
@@ -109,6 +134,9 @@ public class AppServiceImpl implements AppService {
 
         // 持久化数据
         Integer count = mapper.addFunction(function);
+        permitEngine.onFunctionChanged();
+        appCatalog.onAppChanged(function.getApplicationId());
+        catalogVersion.onAppChanged(function.getApplicationId());
 
         return count > 0 ? ReplyHelper.success() : ReplyHelper.fail("未能将数据写入数据库!");
     }
@@ -124,6 +152,9 @@ public class AppServiceImpl implements AppService {
 
         // 删除数据
         Integer count = mapper.deleteAppById(appId);
+        permitEngine.onFunctionChanged();
+        appCatalog.onAppChanged(appId);
+        catalogVersion.onAppChanged(appId);
 
         return count > 0 ? ReplyHelper.success() : ReplyHelper.fail("未能删除指定的应用!");
     }
@@ -139,6 +170,9 @@ public class AppServiceImpl implements AppService {
 
         // 删除数据
         Integer count = mapper.deleteNavigatorById(navigatorId);
+        permitEngine.onFunctionChanged();
+        appCatalog.onAppChanged(null);
+        catalogVersion.onAppChanged(null);
 
         return count > 0 ? ReplyHelper.success() : ReplyHelper.fail("未能删除指定的模块组!");
     }
@@ -154,6 +188,9 @@ public class AppServiceImpl implements AppService {
 
         // 删除数据
         Integer count = mapper.deleteFunctionById(functionId);
+        permitEngine.onFunctionChanged();
+        appCatalog.onAppChanged(null);
+        catalogVersion.onAppChanged(null);
 
         return count > 0 ? ReplyHelper.success() : ReplyHelper.fail("未能删除指定的功能!");
     }
@@ -184,6 +221,7 @@ public class AppServiceImpl implements AppService {
 
         // 持久化数据
         Integer count = mapper.updateNavigator(navigator);
+        appCatalog.onAppChanged(null);
 
         return count > 0 ? ReplyHelper.success() : ReplyHelper.fail("未能更新指定的模块组!");
     }
@@ -200,7 +238,137 @@ public class AppServiceImpl implements AppService {
 
         // 持久化数据
         Integer count = mapper.updateFunction(function);
+        permitEngine.onFunctionChanged();
+        appCatalog.onAppChanged(null);
+        catalogVersion.onAppChanged(null);
 
         return count > 0 ? ReplyHelper.success() : ReplyHelper.fail("未能更新指定的模块功能!");
     }
+
+    /**
+     * 获取当前鉴权目录版本
+     *
+     * @return 鉴权目录版本
+     */
+    @Override
+    public long getCatalogVersion() {
+        return catalogVersion.getVersion();
+    }
+
+    /**
+     * 获取应用的鉴权清单
+     *
+     * @param appId   应用ID
+     * @param since   网关持有的清单版本(为空时返回全量清单)
+     * @param version 当前鉴权目录版本
+     * @return Reply
+     */
+    @Override
+    public Reply getManifest(String appId, Long since, long version) {
+        Snapshot snapshot = getSnapshot(appId, version);
+        if (since == null || since > version) {
+            return ReplyHelper.success(snapshot.manifest);
+        }
+
+        Set<String> roleIds = since == version ? Collections.emptySet() : catalogVersion.getChangedRoles(appId, since, version);
+        if (roleIds == null) {
+            return ReplyHelper.success(snapshot.manifest);
+        }
+
+        // 增量清单,仅包含版本区间内授权发生变化的角色
+        Manifest delta = new Manifest();
+        delta.setAppId(appId);
+        delta.setVersion(version);
+        delta.setFull(false);
+        delta.setRoles(new ArrayList<>());
+        if (!roleIds.isEmpty()) {
+            List<RoleAction> actions = mapper.getManifestActionsByRoles(appId, new ArrayList<>(roleIds));
+            Map<String, ManifestRole> roles = buildRoles(actions, snapshot.ordinals);
+            for (String roleId : roleIds) {
+                ManifestRole role = roles.get(roleId);
+                delta.getRoles().add(role == null ? buildRole(roleId, new BitSet(), new BitSet()) : role);
+            }
+        }
+
+        return ReplyHelper.success(delta);
+    }
+
+    /**
+     * 获取指定版本的全量鉴权清单,未缓存时从数据库构建
+     *
+     * @param appId   应用ID
+     * @param version 鉴权目录版本
+     * @return 全量鉴权清单
+     */
+    private Snapshot getSnapshot(String appId, long version) {
+        Snapshot snapshot = manifests.get(appId);
+        if (snapshot != null && snapshot.manifest.getVersion() == version) {
+            return snapshot;
+        }
+
+        List<ManifestFunction> functions = mapper.getManifestFunctions(appId);
+        Map<String, Integer> ordinals = new HashMap<>(functions.size() * 2);
+        for (int i = 0; i < functions.size(); i++) {
+            ordinals.put(functions.get(i).getId(), i);
+        }
+
+        Manifest manifest = new Manifest();
+        manifest.setAppId(appId);
+        manifest.setVersion(version);
+        manifest.setFull(true);
+        manifest.setFunctions(functions);
+        manifest.setRoles(new ArrayList<>(buildRoles(mapper.getManifestActions(appId), ordinals).values()));
+
+        snapshot = new Snapshot(manifest, ordinals);
+        manifests.put(appId, snapshot);
+
+        return snapshot;
+    }
+
+    /**
+     * 根据授权记录构建角色授权位图
+     *
+     * @param actions  授权记录集合
+     * @param ordinals 功能ID-序号映射
+     * @return 角色ID-角色授权位图映射(按角色ID排序)
+     */
+    private static Map<String, ManifestRole> buildRoles(List<RoleAction> actions, Map<String, Integer> ordinals) {
+        Map<String, BitSet[]> bits = new TreeMap<>();
+        for (RoleAction action : actions) {
+            Integer ordinal = ordinals.get(action.getFunctionId());
+            if (ordinal == null) {
+                continue;
+            }
+
+            BitSet[] pair = bits.computeIfAbsent(action.getRoleId(), k -> new BitSet[]{new BitSet(), new BitSet()});
+            pair[Boolean.TRUE.equals(action.getAction()) ? 0 : 1].set(ordinal);
+        }
+
+        Map<String, ManifestRole> roles = new LinkedHashMap<>(bits.size());
+        bits.forEach((k, v) -> roles.put(k, buildRole(k, v[0], v[1])));
+
+        return roles;
+    }
+
+    private static ManifestRole buildRole(String roleId, BitSet allow, BitSet deny) {
+        ManifestRole role = new ManifestRole();
+        role.setId(roleId);
+        role.setAllow(Base64.getEncoder().encodeToString(allow.toByteArray()));
+        role.setDeny(Base64.getEncoder().encodeToString(deny.toByteArray()));
+
+        return role;
+    }
+
+    /**
+     * 全量鉴权清单及其功能序号
+     */
+    private static class Snapshot {
+        private final Manifest manifest;
+        private final Map<String, Integer> ordinals;
+
+        private Snapshot(Manifest manifest, Map<String, Integer> ordinals) {
+            this.manifest = manifest;
+            this.ordinals = ordinals;
+        }
+    }
 }
@@ -0,0 +1,78 @@
+package com.insight.usercenter.app.dto;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/3/28
+ * @remark 应用鉴权清单,供网关本地鉴权使用
+ */
+public class Manifest implements Serializable {
+    private static final long serialVersionUID = -1L;
+
+    /**
+     * 应用ID
+     */
+    private String appId;
+
+    /**
+     * 鉴权目录版本
+     */
+    private Long version;
+
+    /**
+     * 是否全量清单(false时仅包含变更的角色,功能表沿用上一版本)
+     */
+    private Boolean full;
+
+    /**
+     * 功能表(按功能ID排序,位置即为角色位图中的序号)
+     */
+    private List<ManifestFunction> functions;
+
+    /**
+     * 角色授权位图
+     */
+    private List<ManifestRole> roles;
+
+    public String getAppId() {
+        return appId;
+    }
+
+    public void setAppId(String appId) {
+        this.appId = appId;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    public Boolean getFull() {
+        return full;
+    }
+
+    public void setFull(Boolean full) {
+        this.full = full;
+    }
+
+    public List<ManifestFunction> getFunctions() {
+        return functions;
+    }
+
+    public void setFunctions(List<ManifestFunction> functions) {
+        this.functions = functions;
+    }
+
+    public List<ManifestRole> getRoles() {
+        return roles;
+    }
+
+    public void setRoles(List<ManifestRole> roles) {
+        this.roles = roles;
+    }
+}
@@ -0,0 +1,51 @@
+package com.insight.usercenter.app.dto;
+
+import java.io.Serializable;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/3/28
+ * @remark 鉴权清单中的功能
+ */
+public class ManifestFunction implements Serializable {
+    private static final long serialVersionUID = -1L;
+
+    /**
+     * 功能ID
+     */
+    private String id;
+
+    /**
+     * 功能别名
+     */
+    private String alias;
+
+    /**
+     * 功能对应接口URL,多个接口URL以逗号分隔
+     */
+    private String interfaces;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getAlias() {
+        return alias;
+    }
+
+    public void setAlias(String alias) {
+        this.alias = alias;
+    }
+
+    public String getInterfaces() {
+        return interfaces;
+    }
+
+    public void setInterfaces(String interfaces) {
+        this.interfaces = interfaces;
+    }
+}
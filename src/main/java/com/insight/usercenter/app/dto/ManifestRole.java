@@ -0,0 +1,53 @@
+package com.insight.usercenter.app.dto;
+
+import java.io.Serializable;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/3/28
+ * @remark 鉴权清单中的角色授权位图
+ * 位图为Base64编码的字节数组,第n个功能对应第n/8个字节的第n%8位(低位在前)
+ * 有效授权为各角色允许位图的并集去除拒绝位图的并集
+ */
+public class ManifestRole implements Serializable {
+    private static final long serialVersionUID = -1L;
+
+    /**
+     * 角色ID
+     */
+    private String id;
+
+    /**
+     * 允许位图
+     */
+    private String allow;
+
+    /**
+     * 拒绝位图
+     */
+    private String deny;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getAllow() {
+        return allow;
+    }
+
+    public void setAllow(String allow) {
+        this.allow = allow;
+    }
+
+    public String getDeny() {
+        return deny;
+    }
+
+    public void setDeny(String deny) {
+        this.deny = deny;
+    }
+}
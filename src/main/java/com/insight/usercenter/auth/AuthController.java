@@ -3,13 +3,19 @@ package com.insight.usercenter.auth;
 import com.insight.usercenter.common.Verify;
 import com.insight.usercenter.common.dto.RefreshToken;
 import com.insight.usercenter.common.dto.UserInfo;
+import com.insight.usercenter.common.dto.VerifyItem;
 import com.insight.usercenter.common.entity.Device;
 import com.insight.util.Json;
+import com.insight.util.ReplyHelper;
+import com.insight.util.Util;
 import com.insight.util.pojo.Reply;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * @author 宣炳刚
@@ -60,6 +66,31 @@ public class AuthController {
         return service.getToken(account, signature, appId, deviceId, deviceModel);
     }
 
+    /**
+     * 以一次性登录签名获取Token,签名为MD5(MD5(账号+密码)+随机数+客户端时间),无需先获取Code
+     *
+     * @param account     登录账号
+     * @param nonce       客户端随机数
+     * @param timestamp   客户端时间(毫秒数)
+     * @param signature   签名
+     * @param appId       应用ID
+     * @param deviceId    设备ID
+     * @param deviceModel 设备型号
+     * @return Reply
+     * 正常：返回接口调用成功,通过data返回Token数据
+     * 异常：查找不到用户时返回用户账号不存在的错误
+     * 异常：用户被禁止登录或已锁定时返回用户被禁止登录的错误(不验证签名)
+     * 异常：访问过于频繁时返回访问过于频繁的错误
+     * 异常：客户端时间超出时间窗口或签名已使用时返回参数无效的错误(不计入失败次数)
+     * 异常：签名不正确时返回用户名或密码错误的错误
+     */
+    @GetMapping("/v1.1/tokens/challenge")
+    public Reply getTokenWithChallenge(@RequestParam String account, @RequestParam String nonce, @RequestParam long timestamp,
+                                       @RequestParam String signature, @RequestParam(required = false) String appId,
+                                       @RequestParam(required = false) String deviceId, @RequestParam(required = false) String deviceModel) {
+        return service.getTokenWithChallenge(account, nonce, timestamp, signature, appId, deviceId, deviceModel);
+    }
+
     /**
      * 通过微信授权码获取访问令牌
      *
@@ -119,6 +150,82 @@ public class AuthController {
         return service.deleteToken(verify.getBasis(), verify.getTokenId());
     }
 
+    /**
+     * 获取用户或租户的在线会话(限当前租户,授权注销全部会话的用户不限)
+     *
+     * @param token    访问令牌
+     * @param userId   用户ID
+     * @param tenantId 租户ID
+     * @param page     分页页码
+     * @param size     每页记录数
+     * @return Reply
+     */
+    @GetMapping("/v1.1/sessions")
+    public Reply getSessions(@RequestHeader("Authorization") String token, @RequestParam(value = "userid", required = false) String userId,
+                             @RequestParam(value = "tenantid", required = false) String tenantId,
+                             @RequestParam(defaultValue = "1") int page, @RequestParam(defaultValue = "20") int size) {
+        Verify verify = new Verify(token);
+        Reply reply = verify.compare("getSessions");
+        if (!reply.getSuccess()) {
+            return reply;
+        }
+
+        return service.getSessions(verify.getBasis(), userId, tenantId, page, size);
+    }
+
+    /**
+     * 注销用户的全部会话
+     *
+     * @param token 访问令牌
+     * @param id    用户ID
+     * @return Reply
+     */
+    @DeleteMapping("/v1.1/sessions/users/{id}")
+    public Reply revokeUserSessions(@RequestHeader("Authorization") String token, @PathVariable("id") String id) {
+        Verify verify = new Verify(token);
+        Reply reply = verify.compare("revokeSessions");
+        if (!reply.getSuccess()) {
+            return reply;
+        }
+
+        return service.revokeUserSessions(verify.getBasis(), id);
+    }
+
+    /**
+     * 注销租户的全部会话
+     *
+     * @param token 访问令牌
+     * @param id    租户ID
+     * @return Reply
+     */
+    @DeleteMapping("/v1.1/sessions/tenants/{id}")
+    public Reply revokeTenantSessions(@RequestHeader("Authorization") String token, @PathVariable("id") String id) {
+        Verify verify = new Verify(token);
+        Reply reply = verify.compare("revokeSessions");
+        if (!reply.getSuccess()) {
+            return reply;
+        }
+
+        return service.revokeTenantSessions(verify.getBasis(), id);
+    }
+
+    /**
+     * 注销全部会话
+     *
+     * @param token 访问令牌
+     * @return Reply
+     */
+    @DeleteMapping("/v1.1/sessions")
+    public Reply revokeAllSessions(@RequestHeader("Authorization") String token) {
+        Verify verify = new Verify(token);
+        Reply reply = verify.compare("revokeAllSessions");
+        if (!reply.getSuccess()) {
+            return reply;
+        }
+
+        return service.revokeAllSessions();
+    }
+
     /**
      * 为当前用户绑定当前使用的设备信息
      *
@@ -161,15 +268,57 @@ public class AuthController {
      * @param token    访问令牌
      * @param function 功能ID或URL
      * @return Reply
-     * 正常：返回接口调用成功
+     * 正常：返回接口调用成功,通过data返回用户当前的角色ID集合(供网关对照应用鉴权清单在本地鉴权)
      * 异常：无法解析访问令牌、用户不存在、用户失效或令牌失效时返回令牌非法的错误
      * 异常：令牌过期时返回令牌过期的错误
      */
     @GetMapping("/v1.1/tokens/secret")
     public Reply verifyToken(@RequestHeader("Authorization") String token, @RequestParam(value = "function", required = false) String function) {
         Verify verify = new Verify(token);
+        Reply reply = verify.compare(function);
+        if (!reply.getSuccess()) {
+            return reply;
+        }
+
+        return ReplyHelper.success(verify.getRoleIds());
+    }
+
+    /**
+     * 批量验证访问令牌
+     *
+     * @param items 令牌及功能集合
+     * @return Reply
+     */
+    @PostMapping("/v1.1/tokens/secret/batch")
+    public Reply verifyTokens(@RequestBody List<VerifyItem> items) {
+        return service.verifyTokens(items);
+    }
+
+    /**
+     * 获取当前会话已授权的全部功能ID及别名
+     *
+     * @param token       访问令牌
+     * @param ifNoneMatch 客户端缓存的ETag
+     * @return Reply
+     * 正常：返回接口调用成功,通过data返回功能ID及别名集合;授权未变化时返回304
+     * 异常：无法解析访问令牌、用户不存在、用户失效或令牌失效时返回令牌非法的错误
+     */
+    @GetMapping("/v1.1/tokens/permissions")
+    public ResponseEntity<Reply> getPermissions(@RequestHeader("Authorization") String token,
+                                                @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
+        Verify verify = new Verify(token);
+        Reply result = verify.compare();
+        if (!result.getSuccess()) {
+            return ResponseEntity.ok(result);
+        }
+
+        Reply reply = service.getPermissions(verify.getBasis());
+        String etag = "\"" + Util.md5(Json.toJson(reply.getData())) + "\"";
+        if (etag.equals(ifNoneMatch)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
 
-        return verify.compare(function);
+        return ResponseEntity.ok().eTag(etag).body(reply);
     }
 
     /**
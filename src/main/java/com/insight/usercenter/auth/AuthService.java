@@ -4,10 +4,12 @@ package com.insight.usercenter.auth;
 import com.insight.usercenter.common.Token;
 import com.insight.usercenter.common.dto.RefreshToken;
 import com.insight.usercenter.common.dto.UserInfo;
+import com.insight.usercenter.common.dto.VerifyItem;
 import com.insight.usercenter.common.entity.Device;
 import com.insight.util.pojo.Reply;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * @author 宣炳刚
@@ -37,6 +39,21 @@ public interface AuthService {
      */
     Reply getToken(String account, String signature, String appId, String deviceId, String deviceModel);
 
+    /**
+     * 以一次性登录签名获取Token数据(无需先获取Code)
+     *
+     * @param account     登录账号
+     * @param nonce       客户端随机数
+     * @param timestamp   客户端时间(毫秒数)
+     * @param signature   签名
+     * @param appId       应用ID
+     * @param deviceId    设备ID
+     * @param deviceModel 设备型号
+     * @return Reply
+     */
+    Reply getTokenWithChallenge(String account, String nonce, long timestamp, String signature, String appId, String deviceId,
+                                String deviceModel);
+
     /**
      * 通过微信授权码获取访问令牌
      *
@@ -65,6 +82,14 @@ public interface AuthService {
      */
     Reply refreshToken(RefreshToken token);
 
+    /**
+     * 批量验证令牌
+     *
+     * @param items 令牌及功能集合
+     * @return Reply
+     */
+    Reply verifyTokens(List<VerifyItem> items);
+
     /**
      * 用户账号离线
      *
@@ -102,6 +127,51 @@ public interface AuthService {
      */
     Reply verifyPayPassword(Token token, String payPassword);
 
+    /**
+     * 获取用户当前会话已授权的全部功能ID及别名
+     *
+     * @param token Token
+     * @return Reply
+     */
+    Reply getPermissions(Token token);
+
+    /**
+     * 获取用户或租户的在线会话
+     *
+     * @param token    令牌
+     * @param userId   用户ID
+     * @param tenantId 租户ID(用户ID为空时使用)
+     * @param page     分页页码
+     * @param size     每页记录数
+     * @return Reply
+     */
+    Reply getSessions(Token token, String userId, String tenantId, int page, int size);
+
+    /**
+     * 注销用户的全部会话
+     *
+     * @param token  令牌
+     * @param userId 用户ID
+     * @return Reply
+     */
+    Reply revokeUserSessions(Token token, String userId);
+
+    /**
+     * 注销租户的全部会话
+     *
+     * @param token    令牌
+     * @param tenantId 租户ID
+     * @return Reply
+     */
+    Reply revokeTenantSessions(Token token, String tenantId);
+
+    /**
+     * 注销全部会话
+     *
+     * @return Reply
+     */
+    Reply revokeAllSessions();
+
     /**
      * 获取用户导航栏
      *
@@ -1,16 +1,22 @@
 package com.insight.usercenter.auth;
 
+import com.insight.usercenter.common.AppCatalog;
 import com.insight.usercenter.common.Core;
+import com.insight.usercenter.common.KeyPolicy;
 import com.insight.usercenter.common.PicCode;
+import com.insight.usercenter.common.SessionIndex;
 import com.insight.usercenter.common.Token;
+import com.insight.usercenter.common.Verify;
 import com.insight.usercenter.common.dto.RefreshToken;
+import com.insight.usercenter.common.dto.SessionInfo;
 import com.insight.usercenter.common.dto.TokenPackage;
 import com.insight.usercenter.common.dto.UserDTO;
 import com.insight.usercenter.common.dto.UserInfo;
+import com.insight.usercenter.common.dto.VerifyItem;
 import com.insight.usercenter.common.entity.Device;
 import com.insight.usercenter.common.entity.Function;
 import com.insight.usercenter.common.entity.Navigator;
-import com.insight.usercenter.common.mapper.AuthMapper;
+import com.insight.usercenter.common.mapper.TenantMapper;
 import com.insight.util.Generator;
 import com.insight.util.Json;
 import com.insight.util.ReplyHelper;
@@ -36,29 +42,38 @@ import java.util.Map;
  */
 @Service
 public class AuthServiceImpl implements AuthService {
+    private static final int MAX_VERIFY_ITEMS = 500;
+
     private final HttpServletRequest request;
     private final Core core;
     private final CallManage callManage;
     private final PicCode picCode;
-    private final AuthMapper authMapper;
+    private final AppCatalog appCatalog;
+    private final SessionIndex sessionIndex;
+    private final TenantMapper tenantMapper;
     private final Logger logger;
 
     /**
      * 构造函数
      *
-     * @param request    自动注入的HttpServletRequest
-     * @param core       自动注入的Core
-     * @param callManage 自动注入的CallManage
-     * @param picCode    自动注入的PicCode
-     * @param authMapper 自动注入的AuthMapper
+     * @param request      自动注入的HttpServletRequest
+     * @param core         自动注入的Core
+     * @param callManage   自动注入的CallManage
+     * @param picCode      自动注入的PicCode
+     * @param appCatalog   自动注入的AppCatalog
+     * @param sessionIndex 自动注入的SessionIndex
+     * @param tenantMapper 自动注入的TenantMapper
      */
     @Autowired
-    public AuthServiceImpl(HttpServletRequest request, Core core, CallManage callManage, PicCode picCode, AuthMapper authMapper) {
+    public AuthServiceImpl(HttpServletRequest request, Core core, CallManage callManage, PicCode picCode, AppCatalog appCatalog,
+                           SessionIndex sessionIndex, TenantMapper tenantMapper) {
         this.request = request;
         this.core = core;
         this.callManage = callManage;
-        this.authMapper = authMapper;
         this.picCode = picCode;
+        this.appCatalog = appCatalog;
+        this.sessionIndex = sessionIndex;
+        this.tenantMapper = tenantMapper;
 
         logger = LoggerFactory.getLogger(this.getClass());
     }
@@ -80,7 +95,7 @@ public class AuthServiceImpl implements AuthService {
 
         Token token = core.getToken(userId);
         if (token == null) {
-            core.deleteFromRedis(account);
+            core.deleteUserIdCache(account);
             return ReplyHelper.notExist();
         }
 
@@ -100,15 +115,15 @@ public class AuthServiceImpl implements AuthService {
     /**
      * 获取Token数据
      *
-     * @param appId       应用ID
      * @param account     登录账号
      * @param signature   签名
+     * @param appId       应用ID
      * @param deviceId    设备ID
      * @param deviceModel 设备型号
      * @return Reply
      */
     @Override
-    public Reply getToken(String appId, String account, String signature, String deviceId, String deviceModel) {
+    public Reply getToken(String account, String signature, String appId, String deviceId, String deviceModel) {
         String code = core.getCode(signature);
         if (code == null) {
             String userId = core.getUserId(account);
@@ -122,15 +137,14 @@ public class AuthServiceImpl implements AuthService {
             return ReplyHelper.invalidPassword("验证码或密码错误！");
         }
 
-        String userId = core.getFromRedis(code);
+        String userId = core.getUserIdByCode(code);
         if (userId == null || userId.isEmpty()) {
             return ReplyHelper.fail("缓存异常");
         }
 
-        core.deleteFromRedis(code);
         Token token = core.getToken(userId);
         if (token == null) {
-            core.deleteFromRedis(account);
+            core.deleteUserIdCache(account);
             return ReplyHelper.fail("缓存异常");
         }
 
@@ -145,6 +159,73 @@ public class AuthServiceImpl implements AuthService {
 
         // 创建令牌数据并返回
         TokenPackage tokens = token.creatorKey(code, appId, core.getTokenLife(appId));
+        core.signToken(token, tokens);
+        core.setTokenCache(token);
+
+        return ReplyHelper.success(tokens);
+    }
+
+    /**
+     * 以一次性登录签名获取Token数据(无需先获取Code)
+     *
+     * @param account     登录账号
+     * @param nonce       客户端随机数
+     * @param timestamp   客户端时间(毫秒数)
+     * @param signature   签名
+     * @param appId       应用ID
+     * @param deviceId    设备ID
+     * @param deviceModel 设备型号
+     * @return Reply
+     */
+    @Override
+    public Reply getTokenWithChallenge(String account, String nonce, long timestamp, String signature, String appId, String deviceId,
+                                       String deviceModel) {
+        String userId = core.getUserId(account);
+        if (userId == null) {
+            return ReplyHelper.notExist();
+        }
+
+        Token token = core.getToken(userId);
+        if (token == null) {
+            core.deleteUserIdCache(account);
+            return ReplyHelper.notExist();
+        }
+
+        // 被禁止或已锁定的用户在验证签名前拒绝,避免通过不同的返回结果判断密码是否正确
+        if (token.userIsInvalid()) {
+            return ReplyHelper.fail("用户被禁止登录");
+        }
+
+        // 限流,与获取Code共用每用户的访问额度
+        String limitKey = Util.md5("getCode" + userId + 0);
+        Integer surplus = callManage.getSurplus(limitKey, 5);
+        if (surplus > 0) {
+            return ReplyHelper.tooOften();
+        }
+
+        // 只有签名错误计入失败次数,时间超出窗口或签名重放不影响账号
+        switch (core.verifyChallenge(token, account, nonce, timestamp, signature)) {
+            case EXPIRED:
+                return ReplyHelper.invalidParam("请求时间超出有效范围,请校准设备时间后重试");
+            case REPLAYED:
+                return ReplyHelper.invalidParam("签名已使用,请重新生成签名");
+            case SIGNATURE_MISMATCH:
+                token.addFailureCount();
+                core.setTokenCache(token);
+                logger.warn("账号[" + account + "]正在尝试使用错误的签名请求令牌!");
+
+                return ReplyHelper.invalidPassword("验证码或密码错误！");
+            default:
+                break;
+        }
+
+        // 绑定设备ID到用户,并更新设备激活信息,设置租户ID和部门ID
+        core.bindDeviceToUser(userId, deviceId, deviceModel);
+        core.setTenantIdAndDeptId(token);
+
+        // 创建令牌数据并返回
+        TokenPackage tokens = token.creatorKey(Generator.uuid(), appId, core.getTokenLife(appId));
+        core.signToken(token, tokens);
         core.setTokenCache(token);
 
         return ReplyHelper.success(tokens);
@@ -175,14 +256,14 @@ public class AuthServiceImpl implements AuthService {
         // 使用微信UnionID读取缓存,如用户不存在,则返回微信用户信息
         String userId = core.getUserId(unionId);
         if (userId == null || userId.isEmpty()) {
-            String key = "we" + unionId;
+            String key = KeyPolicy.WECHAT_PREFIX + unionId;
             core.setToRedis(key, Json.toJson(weChatUser));
             return ReplyHelper.success(weChatUser, false);
         }
 
         Token token = core.getToken(userId);
         if (token == null) {
-            core.deleteFromRedis(unionId);
+            core.deleteUserIdCache(unionId);
             return ReplyHelper.fail("缓存异常");
         }
 
@@ -192,7 +273,7 @@ public class AuthServiceImpl implements AuthService {
         }
 
         if (!unionId.equals(token.getUnionId())) {
-            String key = "we" + unionId;
+            String key = KeyPolicy.WECHAT_PREFIX + unionId;
             core.setToRedis(key, Json.toJson(weChatUser));
             return ReplyHelper.success(weChatUser, false);
         }
@@ -203,6 +284,7 @@ public class AuthServiceImpl implements AuthService {
 
         // 创建令牌数据并返回
         TokenPackage tokens = token.creatorKey(Util.md5(code), appId, core.getTokenLife(appId), weChatUser.getOpenid());
+        core.signToken(token, tokens);
         core.setTokenCache(token);
 
         return ReplyHelper.success(tokens);
@@ -223,7 +305,7 @@ public class AuthServiceImpl implements AuthService {
 
         // 从缓存读取微信用户信息
         String unionId = info.getWeChatUser().getUnionid();
-        String key = "we" + unionId;
+        String key = KeyPolicy.WECHAT_PREFIX + unionId;
         WeChatUser weChatUser = Json.toBean(core.getFromRedis(key), WeChatUser.class);
         if (weChatUser == null) {
             return ReplyHelper.invalidParam();
@@ -247,7 +329,7 @@ public class AuthServiceImpl implements AuthService {
         String userId = core.getUserId(mobile);
         Token token = core.getToken(userId);
         if (token == null) {
-            core.deleteFromRedis(mobile);
+            core.deleteUserIdCache(mobile);
             return ReplyHelper.fail("缓存异常");
         }
 
@@ -270,9 +352,9 @@ public class AuthServiceImpl implements AuthService {
             core.updateUser(user);
 
             // 更新用户ID缓存
-            core.setToRedis(unionId, userId);
+            core.setUserIdCache(unionId, userId);
             if (info.getReplace()) {
-                core.deleteFromRedis(token.getUnionId());
+                core.deleteUserIdCache(token.getUnionId());
             }
 
             // 更新Token数据
@@ -288,6 +370,7 @@ public class AuthServiceImpl implements AuthService {
         // 创建令牌数据并返回
         String appId = info.getAppId();
         TokenPackage tokens = token.creatorKey(Util.md5(Generator.uuid()), appId, core.getTokenLife(appId), weChatUser.getOpenid());
+        core.signToken(token, tokens);
         core.setTokenCache(token);
 
         return ReplyHelper.success(tokens);
@@ -325,11 +408,27 @@ public class AuthServiceImpl implements AuthService {
 
         // 刷新令牌
         TokenPackage tokens = basis.refreshToken(token.getId());
+        core.signToken(basis, tokens);
         core.setTokenCache(basis);
 
         return ReplyHelper.success(tokens);
     }
 
+    /**
+     * 批量验证令牌
+     *
+     * @param items 令牌及功能集合
+     * @return Reply
+     */
+    @Override
+    public Reply verifyTokens(List<VerifyItem> items) {
+        if (items == null || items.isEmpty() || items.size() > MAX_VERIFY_ITEMS) {
+            return ReplyHelper.invalidParam();
+        }
+
+        return ReplyHelper.success(Verify.compareAll(items));
+    }
+
     /**
      * 用户账号离线
      *
@@ -342,6 +441,7 @@ public class AuthServiceImpl implements AuthService {
         token.deleteKeys(tokenId);
         core.logOffUser(token.getUserId());
         core.setTokenCache(token);
+        core.revokeToken(tokenId);
 
         return ReplyHelper.success();
     }
@@ -414,6 +514,126 @@ public class AuthServiceImpl implements AuthService {
         return success ? ReplyHelper.success() : ReplyHelper.invalidParam("密码错误！");
     }
 
+    /**
+     * 获取用户当前会话已授权的全部功能ID及别名
+     *
+     * @param token Token
+     * @return Reply
+     */
+    @Override
+    public Reply getPermissions(Token token) {
+        return ReplyHelper.success(core.getPermissions(token));
+    }
+
+    /**
+     * 获取用户或租户的在线会话
+     *
+     * @param token    令牌
+     * @param userId   用户ID
+     * @param tenantId 租户ID(用户ID为空时使用)
+     * @param page     分页页码
+     * @param size     每页记录数
+     * @return Reply
+     */
+    @Override
+    public Reply getSessions(Token token, String userId, String tenantId, int page, int size) {
+        if (page < 1 || size < 1) {
+            return ReplyHelper.invalidParam();
+        }
+
+        if (!isInScope(token, tenantId, userId)) {
+            return ReplyHelper.noAuth();
+        }
+
+        List<SessionInfo> sessions;
+        if (userId != null && !userId.isEmpty()) {
+            sessions = sessionIndex.getUserSessions(userId, page, size);
+        } else if (tenantId != null && !tenantId.isEmpty()) {
+            sessions = sessionIndex.getTenantSessions(tenantId, page, size);
+        } else {
+            return ReplyHelper.invalidParam();
+        }
+
+        return ReplyHelper.success(sessions);
+    }
+
+    /**
+     * 注销用户的全部会话
+     *
+     * @param token  令牌
+     * @param userId 用户ID
+     * @return Reply
+     */
+    @Override
+    public Reply revokeUserSessions(Token token, String userId) {
+        if (!isInScope(token, null, userId)) {
+            return ReplyHelper.noAuth();
+        }
+
+        int count = sessionIndex.revokeUser(userId);
+        logger.info("已注销用户『" + userId + "』的" + count + "个会话");
+
+        return ReplyHelper.success(count);
+    }
+
+    /**
+     * 注销租户的全部会话
+     *
+     * @param token    令牌
+     * @param tenantId 租户ID
+     * @return Reply
+     */
+    @Override
+    public Reply revokeTenantSessions(Token token, String tenantId) {
+        if (!isInScope(token, tenantId, null)) {
+            return ReplyHelper.noAuth();
+        }
+
+        int count = sessionIndex.revokeTenant(tenantId);
+        logger.info("已注销租户『" + tenantId + "』的" + count + "个会话");
+
+        return ReplyHelper.success(count);
+    }
+
+    /**
+     * 注销全部会话
+     *
+     * @return Reply
+     */
+    @Override
+    public Reply revokeAllSessions() {
+        int count = sessionIndex.revokeAll();
+        logger.warn("已注销全部" + count + "个会话");
+
+        return ReplyHelper.success(count);
+    }
+
+    /**
+     * 会话管理的目标是否在当前用户的管理范围内:只能管理当前登录租户及其用户的会话,
+     * 授权注销全部会话(revokeAllSessions)的用户可跨租户管理
+     *
+     * @param token    令牌
+     * @param tenantId 目标租户ID(可为空)
+     * @param userId   目标用户ID(可为空)
+     * @return 是否在管理范围内
+     */
+    private boolean isInScope(Token token, String tenantId, String userId) {
+        if (core.isPermit(token, "revokeAllSessions")) {
+            return true;
+        }
+
+        String ownTenantId = token.getTenantId();
+        if (ownTenantId == null || ownTenantId.isEmpty()) {
+            return false;
+        }
+
+        if (tenantId != null && !tenantId.isEmpty() && !ownTenantId.equals(tenantId)) {
+            return false;
+        }
+
+        return userId == null || userId.isEmpty() || tenantMapper.getTenantUser(ownTenantId, userId) > 0;
+    }
+
     /**
      * 获取用户导航栏
      *
@@ -427,7 +647,7 @@ public class AuthServiceImpl implements AuthService {
             return ReplyHelper.invalidParam();
         }
 
-        List<Navigator> navigators = authMapper.getNavigators(token.getTenantId(), appId, token.getUserId(), token.getDeptId());
+        List<Navigator> navigators = appCatalog.getNavigators(appId, core.getRoleIds(token));
 
         return ReplyHelper.success(navigators);
     }
@@ -441,7 +661,7 @@ public class AuthServiceImpl implements AuthService {
      */
     @Override
     public Reply getModuleFunctions(Token token, String navigatorId) {
-        List<Function> functions = authMapper.getModuleFunctions(token.getTenantId(), navigatorId, token.getUserId(), token.getDeptId());
+        List<Function> functions = appCatalog.getModuleFunctions(navigatorId, core.getRoleIds(token));
 
         return ReplyHelper.success(functions);
     }
@@ -471,12 +691,10 @@ public class AuthServiceImpl implements AuthService {
         limitKey = Util.md5(fingerprint + type + "5/Day");
         Boolean isLimited = callManage.isLimited(limitKey, 3600 * 24, 5);
         if (isLimited) {
-            mobile = core.getFromRedis(key);
+            mobile = picCode.consume(key);
             if ((mobile == null || mobile.isEmpty())) {
                 return ReplyHelper.fail("验证码次数超过限制！");
             }
-
-            core.deleteFromRedis(key);
         }
 
         // 生成短信验证码,如类型为0-5,则直接发送短信.否则返回验证码
@@ -551,6 +769,6 @@ public class AuthServiceImpl implements AuthService {
      */
     @Override
     public Reply verifyPicCode(String key) {
-        return core.redisHasKey(key) ? ReplyHelper.success() : ReplyHelper.invalidParam();
+        return picCode.verify(key) ? ReplyHelper.success() : ReplyHelper.invalidParam();
     }
 }
@@ -0,0 +1,109 @@
+package com.insight.usercenter.common;
+
+import com.insight.util.Json;
+import com.insight.util.pojo.AccessToken;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/4/7
+ * @remark 访问令牌解析缓存,以Authorization请求头原文为键缓存解码后的AccessToken。
+ * LogFilter与Verify共用,客户端在令牌有效期内重复发送相同的请求头,每个请求最多解析一次
+ */
+@Component
+public class AccessTokenCache {
+    private final Map<String, Entry> cache;
+    private final Counter hits;
+    private final Counter misses;
+    private final int maxSize;
+    private final long ttl;
+
+    /**
+     * 构造方法
+     *
+     * @param registry 自动注入的MeterRegistry
+     * @param maxSize  缓存的最大条目数
+     * @param seconds  缓存条目的有效秒数
+     */
+    @Autowired
+    public AccessTokenCache(MeterRegistry registry, @Value("${token.parse-cache.max-size:10000}") int maxSize,
+                            @Value("${token.parse-cache.ttl-seconds:300}") int seconds) {
+        this.maxSize = maxSize;
+
+        ttl = seconds * 1000L;
+        cache = new ConcurrentHashMap<>(maxSize > 16 ? maxSize : 16);
+        hits = registry.counter("usercenter.token.parse", "result", "hit");
+        misses = registry.counter("usercenter.token.parse", "result", "miss");
+        registry.gaugeMapSize("usercenter.token.parse.size", Tags.empty(), cache);
+    }
+
+    /**
+     * 获取解码后的访问令牌,返回的对象为各请求共享,不可修改
+     *
+     * @param token Authorization请求头
+     * @return 访问令牌(解析失败时为null)
+     */
+    public AccessToken get(String token) {
+        long now = System.currentTimeMillis();
+        Entry entry = cache.get(token);
+        if (entry != null && !entry.isExpired(now)) {
+            hits.increment();
+            return entry.accessToken;
+        }
+
+        misses.increment();
+        AccessToken accessToken = Json.toAccessToken(token);
+        if (accessToken == null || maxSize <= 0) {
+            return accessToken;
+        }
+
+        if (cache.size() >= maxSize) {
+            evict(now);
+        }
+
+        cache.put(token, new Entry(accessToken, now + ttl));
+        return accessToken;
+    }
+
+    /**
+     * 清理过期的缓存,如仍超出容量则随机淘汰至容量的3/4
+     *
+     * @param now 当前时间
+     */
+    private void evict(long now) {
+        cache.entrySet().removeIf(i -> i.getValue().isExpired(now));
+
+        Iterator<String> iterator = cache.keySet().iterator();
+        int surplus = cache.size() - maxSize * 3 / 4;
+        while (surplus-- > 0 && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * 缓存条目
+     */
+    private static class Entry {
+        private final AccessToken accessToken;
+        private final long expireTime;
+
+        private Entry(AccessToken accessToken, long expireTime) {
+            this.accessToken = accessToken;
+            this.expireTime = expireTime;
+        }
+
+        private boolean isExpired(long now) {
+            return now > expireTime;
+        }
+    }
+}
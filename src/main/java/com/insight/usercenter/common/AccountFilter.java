@@ -0,0 +1,383 @@
+package com.insight.usercenter.common;
+
+import com.insight.usercenter.common.entity.User;
+import com.insight.usercenter.common.mapper.UserMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/4/10
+ * @remark 已知登录标识(账号、手机号、E-mail、微信UnionID)的布隆过滤器,各节点在本地保存。
+ * 启动后分批读取用户表生成,新增或修改的标识通过Redis消息同步到各节点;
+ * 布隆过滤器不支持删除,已删除的标识在定期重建时清除。过滤器判定不存在的标识无需查询数据库。
+ * 新增的标识在事务提交后同时记入Redis有序集合Identifiers:Recent(保留recent-hours小时),过滤器判定不存在时再查询该集合,
+ * 订阅断开期间漏收的消息及重建期间提交的标识因此不会被误判为不存在
+ */
+@Component
+public class AccountFilter implements MessageListener {
+    private static final String CHANNEL = "usercenter:account:add";
+    private static final String DELIMITER = "\n";
+    static final String RECENT_KEY = "Identifiers:Recent";
+    private static final int BATCH_SIZE = 5000;
+
+    private final Logger logger;
+    private final StringRedisTemplate redis;
+    private final UserMapper mapper;
+    private final Counter rejects;
+    private final Counter passes;
+    private final Counter recents;
+    private final long expectedSize;
+    private final long recentMillis;
+    private final double fpp;
+    private volatile Bits current;
+    private volatile Bits building;
+
+    /**
+     * 构造方法
+     *
+     * @param redis        自动注入的StringRedisTemplate
+     * @param container    自动注入的RedisMessageListenerContainer
+     * @param mapper       自动注入的UserMapper
+     * @param registry     自动注入的MeterRegistry
+     * @param expectedSize 预计的登录标识数量
+     * @param fpp          期望的误判率
+     * @param recentHours  新增标识在Identifiers:Recent中的保留时间(小时),应大于重建间隔
+     */
+    @Autowired
+    public AccountFilter(StringRedisTemplate redis, RedisMessageListenerContainer container, UserMapper mapper, MeterRegistry registry,
+                         @Value("${account-filter.expected-size:1000000}") long expectedSize, @Value("${account-filter.fpp:0.01}") double fpp,
+                         @Value("${account-filter.recent-hours:48}") int recentHours) {
+        this.redis = redis;
+        this.mapper = mapper;
+        this.expectedSize = expectedSize;
+        this.fpp = fpp;
+
+        recentMillis = recentHours * 3600 * 1000L;
+        rejects = registry.counter("usercenter.account.filter", "result", "reject");
+        passes = registry.counter("usercenter.account.filter", "result", "pass");
+        recents = registry.counter("usercenter.account.filter", "result", "recent");
+        registry.gauge("usercenter.account.filter.bytes", this, i -> i.current == null ? 0 : i.current.getBytes());
+        registry.gauge("usercenter.account.filter.entries", this, i -> i.current == null ? 0 : i.current.count.get());
+        registry.gauge("usercenter.account.filter.fpp", this, i -> i.current == null ? 1 : i.current.getFpp());
+        logger = LoggerFactory.getLogger(this.getClass());
+
+        container.addMessageListener(this, new ChannelTopic(CHANNEL));
+    }
+
+    /**
+     * 登录标识是否可能存在(过滤器未生成时总是返回true)
+     *
+     * @param identifier 登录标识
+     * @return 是否可能存在
+     */
+    public boolean mightContain(String identifier) {
+        Bits bits = current;
+        if (bits == null || identifier == null) {
+            return true;
+        }
+
+        String value = normalize(identifier);
+        if (bits.mightContain(value)) {
+            passes.increment();
+            return true;
+        }
+
+        if (isRecent(value)) {
+            recents.increment();
+            return true;
+        }
+
+        rejects.increment();
+        return false;
+    }
+
+    /**
+     * 登记新增或修改的登录标识,在事务提交后记入近期新增集合并通知其他节点
+     *
+     * @param identifiers 登录标识集合(可包含null)
+     */
+    public void add(String... identifiers) {
+        List<String> list = new ArrayList<>(identifiers.length);
+        for (String identifier : identifiers) {
+            if (identifier != null && !identifier.trim().isEmpty()) {
+                String value = normalize(identifier);
+                put(value);
+                list.add(value);
+            }
+        }
+
+        if (list.isEmpty()) {
+            return;
+        }
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            publish(list);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                publish(list);
+            }
+        });
+    }
+
+    /**
+     * 将登录标识记入近期新增集合(清除超出保留时间的标识),并通知其他节点
+     *
+     * @param identifiers 规范化的登录标识集合
+     */
+    private void publish(List<String> identifiers) {
+        long now = System.currentTimeMillis();
+        try {
+            redis.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                identifiers.forEach(i -> conn.zAdd(RECENT_KEY, now, i));
+                conn.zRemRangeByScore(RECENT_KEY, 0, now - recentMillis);
+                conn.pExpire(RECENT_KEY, recentMillis);
+                return null;
+            });
+        } catch (Exception ex) {
+            logger.error("记录近期新增的登录标识失败:" + ex.getMessage());
+        }
+
+        try {
+            redis.convertAndSend(CHANNEL, String.join(DELIMITER, identifiers));
+        } catch (Exception ex) {
+            logger.error("发布登录标识通知失败:" + ex.getMessage());
+        }
+    }
+
+    /**
+     * 登录标识是否为近期新增(Redis不可用时视为可能存在)
+     *
+     * @param identifier 规范化的登录标识
+     * @return 是否近期新增
+     */
+    private boolean isRecent(String identifier) {
+        try {
+            Double score = redis.opsForZSet().score(RECENT_KEY, identifier);
+            return score != null && score > System.currentTimeMillis() - recentMillis;
+        } catch (Exception ex) {
+            logger.error("读取近期新增的登录标识失败:" + ex.getMessage());
+            return true;
+        }
+    }
+
+    /**
+     * 接收其他节点登记的登录标识
+     *
+     * @param message 消息
+     * @param pattern 订阅模式
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        for (String identifier : body.split(DELIMITER)) {
+            put(identifier);
+        }
+    }
+
+    /**
+     * 应用启动后生成过滤器
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        Thread thread = new Thread(this::rebuild, "AccountFilter-Build");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 按计划重建过滤器,清除已删除的标识并按实际数量调整容量
+     */
+    @Scheduled(cron = "${account-filter.rebuild.cron:0 30 3 * * ?}")
+    public void schedule() {
+        rebuild();
+    }
+
+    /**
+     * 分批读取用户表重建过滤器,重建期间登记的标识同时写入新旧过滤器
+     */
+    public synchronized void rebuild() {
+        long start = System.currentTimeMillis();
+        Bits old = current;
+        long size = Math.max(expectedSize, old == null ? 0 : old.count.get() * 2);
+        Bits bits = new Bits(size, fpp);
+        building = bits;
+        try {
+            String lastId = "";
+            while (true) {
+                List<User> users = mapper.getUserIdentifiers(lastId, BATCH_SIZE);
+                if (users == null || users.isEmpty()) {
+                    break;
+                }
+
+                for (User user : users) {
+                    for (String identifier : getIdentifiers(user)) {
+                        bits.put(normalize(identifier));
+                    }
+                }
+
+                lastId = users.get(users.size() - 1).getId();
+            }
+
+            current = bits;
+            logger.info("已生成登录标识过滤器," + bits.count.get() + "个标识," + bits.getBytes() / 1024 + "KB,耗时" +
+                    (System.currentTimeMillis() - start) + "毫秒");
+        } catch (Exception ex) {
+            logger.error("生成登录标识过滤器失败:" + ex.getMessage());
+        } finally {
+            building = null;
+        }
+    }
+
+    /**
+     * 写入本地过滤器(重建期间同时写入新过滤器)
+     *
+     * @param identifier 规范化的登录标识
+     */
+    private void put(String identifier) {
+        // 先读取重建中的过滤器,保证重建完成切换时不会遗漏
+        Bits bits = building;
+        if (bits != null) {
+            bits.put(identifier);
+        }
+
+        Bits active = current;
+        if (active != null && active != bits) {
+            active.put(identifier);
+        }
+    }
+
+    private static List<String> getIdentifiers(User user) {
+        List<String> list = new ArrayList<>(4);
+        for (String identifier : new String[]{user.getAccount(), user.getMobile(), user.getEmail(), user.getOpenId()}) {
+            if (identifier != null && !identifier.trim().isEmpty()) {
+                list.add(identifier);
+            }
+        }
+
+        return list;
+    }
+
+    /**
+     * 规范化登录标识,与ucb_user_identifier一致(去除首尾空格并转为小写)
+     *
+     * @param identifier 登录标识
+     * @return 规范化的登录标识
+     */
+    private static String normalize(String identifier) {
+        return identifier.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 位数组,以两个哈希值组合出k个位置,可并发写入
+     */
+    private static class Bits {
+        private final AtomicLongArray words;
+        private final AtomicLong count;
+        private final long size;
+        private final int hashes;
+
+        private Bits(long expected, double fpp) {
+            long bits = (long) Math.ceil(-expected * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+            size = Math.max(64, bits);
+            hashes = Math.max(1, (int) Math.round((double) size / expected * Math.log(2)));
+            words = new AtomicLongArray((int) ((size + 63) / 64));
+            count = new AtomicLong();
+        }
+
+        private void put(String value) {
+            long hash = hash(value);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 1; i <= hashes; i++) {
+                long index = ((h1 + (long) i * h2) & Long.MAX_VALUE) % size;
+                long mask = 1L << index;
+                int word = (int) (index >>> 6);
+                long old;
+                do {
+                    old = words.get(word);
+                } while ((old & mask) == 0 && !words.compareAndSet(word, old, old | mask));
+            }
+
+            count.incrementAndGet();
+        }
+
+        private boolean mightContain(String value) {
+            long hash = hash(value);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 1; i <= hashes; i++) {
+                long index = ((h1 + (long) i * h2) & Long.MAX_VALUE) % size;
+                if ((words.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        private long getBytes() {
+            return words.length() * 8L;
+        }
+
+        /**
+         * 按已写入数量估算当前误判率
+         *
+         * @return 估算的误判率
+         */
+        private double getFpp() {
+            return Math.pow(1 - Math.exp(-(double) hashes * count.get() / size), hashes);
+        }
+
+        /**
+         * 64位FNV-1a哈希,再以MurmurHash3的fmix64混合高低位
+         *
+         * @param value 字符串
+         * @return 哈希值
+         */
+        private static long hash(String value) {
+            long hash = 0xcbf29ce484222325L;
+            for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+                hash ^= b & 0xff;
+                hash *= 0x100000001b3L;
+            }
+
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 33;
+            hash *= 0xc4ceb9fe1a85ec53L;
+            hash ^= hash >>> 33;
+
+            return hash;
+        }
+    }
+}
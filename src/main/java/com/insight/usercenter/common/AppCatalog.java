@@ -0,0 +1,502 @@
+package com.insight.usercenter.common;
+
+import com.insight.usercenter.common.entity.Function;
+import com.insight.usercenter.common.entity.Navigator;
+import com.insight.usercenter.common.entity.RoleAction;
+import com.insight.usercenter.common.mapper.AppMapper;
+import com.insight.usercenter.common.mapper.AuthMapper;
+import com.insight.util.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/3/27
+ * @remark 应用目录(导航及功能树)进程内缓存,按角色集合指纹缓存用户菜单
+ */
+@Component
+public class AppCatalog implements MessageListener {
+    private static final String CHANNEL = "usercenter:catalog:refresh";
+    private static final String APP_PREFIX = "app:";
+    private static final String TENANT_PREFIX = "tenant:";
+    private static final String ALL = "*";
+    private static final int MAX_MENUS = 4096;
+
+    private final Logger logger;
+    private final StringRedisTemplate redis;
+    private final AppMapper appMapper;
+    private final AuthMapper authMapper;
+    private final PermitEngine permitEngine;
+
+    /**
+     * 应用ID-应用目录映射
+     */
+    private final Map<String, AppTree> trees;
+
+    /**
+     * 租户ID-绑定的应用ID集合映射
+     */
+    private final Map<String, Set<String>> tenantApps;
+
+    /**
+     * 按角色集合指纹缓存的菜单
+     */
+    private final Map<String, List<?>> menus;
+
+    /**
+     * 目录版本,应用目录变化时递增
+     */
+    private final AtomicLong version;
+
+    /**
+     * 构造方法
+     *
+     * @param redis        自动注入的StringRedisTemplate
+     * @param container    自动注入的RedisMessageListenerContainer
+     * @param appMapper    自动注入的AppMapper
+     * @param authMapper   自动注入的AuthMapper
+     * @param permitEngine 自动注入的PermitEngine
+     */
+    @Autowired
+    public AppCatalog(StringRedisTemplate redis, RedisMessageListenerContainer container, AppMapper appMapper, AuthMapper authMapper,
+                      PermitEngine permitEngine) {
+        this.redis = redis;
+        this.appMapper = appMapper;
+        this.authMapper = authMapper;
+        this.permitEngine = permitEngine;
+
+        trees = new ConcurrentHashMap<>(16);
+        tenantApps = new ConcurrentHashMap<>(256);
+        menus = new ConcurrentHashMap<>(MAX_MENUS);
+        version = new AtomicLong();
+        logger = LoggerFactory.getLogger(this.getClass());
+
+        container.addMessageListener(this, new ChannelTopic(CHANNEL));
+    }
+
+    /**
+     * 指定的租户是否绑定了指定的应用
+     *
+     * @param tenantId 租户ID
+     * @param appId    应用ID
+     * @return 是否绑定了指定的应用
+     */
+    public Boolean containsApp(String tenantId, String appId) {
+        if (tenantId == null || appId == null) {
+            return false;
+        }
+
+        Set<String> apps = tenantApps.computeIfAbsent(tenantId, k -> new HashSet<>(authMapper.getTenantAppIds(k)));
+        return apps.contains(appId);
+    }
+
+    /**
+     * 获取指定应用的全部导航及功能(与AppMapper.getNavigators结果一致)
+     *
+     * @param appId 应用ID
+     * @return 导航及功能集合
+     */
+    public List<Function> getNodes(String appId) {
+        return getTree(appId).nodes;
+    }
+
+    /**
+     * 获取角色集合可用的导航栏(与AuthMapper.getNavigators结果一致)
+     *
+     * @param appId   应用ID
+     * @param roleIds 角色ID集合
+     * @return 导航集合
+     */
+    @SuppressWarnings("unchecked")
+    public List<Navigator> getNavigators(String appId, Collection<String> roleIds) {
+        String key = "navigators:" + appId + ":" + fingerprint(roleIds);
+        List<?> cached = menus.get(key);
+        if (cached != null) {
+            return (List<Navigator>) cached;
+        }
+
+        AppTree tree = getTree(appId);
+        PermitEngine.Grant grant = permitEngine.getGrant(roleIds);
+
+        // 有可见且已授权功能的模块,及其上级模块组
+        Set<String> ids = new HashSet<>();
+        for (Function function : tree.functions) {
+            if (Boolean.TRUE.equals(function.getInvisible()) || !Boolean.TRUE.equals(permitEngine.getAction(grant, function.getId()))) {
+                continue;
+            }
+
+            Function module = tree.navigators.get(function.getParentId());
+            if (module == null) {
+                continue;
+            }
+
+            ids.add(module.getId());
+            if (module.getParentId() != null && tree.navigators.containsKey(module.getParentId())) {
+                ids.add(module.getParentId());
+            }
+        }
+
+        List<Navigator> list = new ArrayList<>(ids.size());
+        tree.navigators.values().stream().filter(i -> ids.contains(i.getId())).sorted(ORDER).forEach(i -> list.add(toNavigator(i)));
+
+        List<Navigator> result = Collections.unmodifiableList(list);
+        cache(key, result);
+
+        return result;
+    }
+
+    /**
+     * 获取模块的可见功能及对角色集合的授权情况(与AuthMapper.getModuleFunctions结果一致)
+     *
+     * @param moduleId 模块ID
+     * @param roleIds  角色ID集合
+     * @return 功能集合
+     */
+    @SuppressWarnings("unchecked")
+    public List<Function> getModuleFunctions(String moduleId, Collection<String> roleIds) {
+        String key = "functions:" + moduleId + ":" + fingerprint(roleIds);
+        List<?> cached = menus.get(key);
+        if (cached != null) {
+            return (List<Function>) cached;
+        }
+
+        List<Function> functions = getModule(moduleId);
+        PermitEngine.Grant grant = permitEngine.getGrant(roleIds);
+
+        List<Function> list = new ArrayList<>(functions.size());
+        for (Function function : functions) {
+            if (Boolean.TRUE.equals(function.getInvisible())) {
+                continue;
+            }
+
+            Function item = new Function();
+            item.setId(function.getId());
+            item.setParentId(function.getParentId());
+            item.setIndex(function.getIndex());
+            item.setName(function.getName());
+            item.setIcon(function.getIcon());
+            item.setUrl(function.getUrl());
+            item.setAction(permitEngine.getAction(grant, function.getId()));
+            list.add(item);
+        }
+
+        List<Function> result = Collections.unmodifiableList(list);
+        cache(key, result);
+
+        return result;
+    }
+
+    /**
+     * 获取应用的全部导航及功能对指定角色的授权情况(与RoleMapper.getRoleFunction结果一致)
+     * 模块组及模块的授权情况由下级功能汇总:全部允许为1,无授权记录为null,其他为0
+     *
+     * @param appId  应用ID
+     * @param roleId 角色ID
+     * @return 功能集合(按类型、上级ID、索引排序)
+     */
+    public List<Function> getRoleFunctions(String appId, String roleId) {
+        AppTree tree = getTree(appId);
+        Map<String, List<Boolean>> actions = new HashMap<>(64);
+        for (RoleAction action : authMapper.getRoleActionsByRoleId(roleId)) {
+            actions.computeIfAbsent(action.getFunctionId(), k -> new ArrayList<>()).add(action.getAction());
+        }
+
+        // 按模块及模块组汇总授权记录
+        Map<String, Rollup> modules = new LinkedHashMap<>(tree.modules.size());
+        Map<String, Rollup> groups = new LinkedHashMap<>(tree.modules.size());
+        List<Function> list = new ArrayList<>(tree.nodes.size());
+        for (Function function : tree.functions) {
+            List<Boolean> values = actions.get(function.getId());
+            Function module = tree.navigators.get(function.getParentId());
+            if (module != null) {
+                modules.computeIfAbsent(module.getId(), k -> new Rollup()).add(values);
+                if (module.getParentId() != null) {
+                    groups.computeIfAbsent(module.getParentId(), k -> new Rollup()).add(values);
+                }
+            }
+
+            // 每条授权记录对应一行,重复记录合并
+            if (values == null) {
+                list.add(toRoleFunction(function, 3, null));
+                continue;
+            }
+
+            new LinkedHashSet<>(values).forEach(i -> list.add(toRoleFunction(function, 3, i)));
+        }
+
+        groups.forEach((k, v) -> {
+            Function group = tree.navigators.get(k);
+            if (group != null) {
+                list.add(toRoleFunction(group, 1, v.getAction()));
+            }
+        });
+        modules.forEach((k, v) -> list.add(toRoleFunction(tree.navigators.get(k), 2, v.getAction())));
+        list.sort(Comparator.comparing(Function::getType).thenComparing(ORDER));
+
+        return list;
+    }
+
+    /**
+     * 应用目录变更后刷新缓存(事务提交后执行,并通知其他节点)
+     *
+     * @param appId 应用ID(为空时刷新全部应用)
+     */
+    public void onAppChanged(String appId) {
+        String body = APP_PREFIX + (appId == null ? ALL : appId);
+        TransactionHelper.afterCommit(() -> {
+            apply(body);
+            publish(body);
+        });
+    }
+
+    /**
+     * 租户绑定的应用变更后刷新缓存(事务提交后执行,并通知其他节点)
+     *
+     * @param tenantId 租户ID
+     */
+    public void onTenantChanged(String tenantId) {
+        String body = TENANT_PREFIX + tenantId;
+        TransactionHelper.afterCommit(() -> {
+            apply(body);
+            publish(body);
+        });
+    }
+
+    /**
+     * 接收其他节点的刷新通知
+     *
+     * @param message 消息
+     * @param pattern 订阅模式
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        apply(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 执行刷新
+     *
+     * @param body 消息内容
+     */
+    private void apply(String body) {
+        if (body.startsWith(TENANT_PREFIX)) {
+            tenantApps.remove(body.substring(TENANT_PREFIX.length()));
+            return;
+        }
+
+        if (!body.startsWith(APP_PREFIX)) {
+            return;
+        }
+
+        String appId = body.substring(APP_PREFIX.length());
+        if (ALL.equals(appId)) {
+            trees.clear();
+        } else {
+            trees.remove(appId);
+        }
+
+        version.incrementAndGet();
+        menus.clear();
+    }
+
+    /**
+     * 获取应用目录,未缓存时从数据库加载
+     *
+     * @param appId 应用ID
+     * @return 应用目录
+     */
+    private AppTree getTree(String appId) {
+        return trees.computeIfAbsent(appId, k -> new AppTree(appMapper.getNavigators(k)));
+    }
+
+    /**
+     * 获取指定模块的全部功能
+     *
+     * @param moduleId 模块ID
+     * @return 功能集合(按索引排序)
+     */
+    private List<Function> getModule(String moduleId) {
+        for (AppTree tree : trees.values()) {
+            List<Function> functions = tree.modules.get(moduleId);
+            if (functions != null) {
+                return functions;
+            }
+        }
+
+        // 模块所属应用尚未加载
+        String appId = authMapper.getModuleAppId(moduleId);
+        if (appId == null) {
+            return Collections.emptyList();
+        }
+
+        List<Function> list = getTree(appId).modules.get(moduleId);
+
+        return list == null ? Collections.emptyList() : list;
+    }
+
+    /**
+     * 生成角色集合指纹(包含目录及授权数据版本)
+     *
+     * @param roleIds 角色ID集合
+     * @return 指纹
+     */
+    private String fingerprint(Collection<String> roleIds) {
+        List<String> list = roleIds == null ? new ArrayList<>() : new ArrayList<>(new TreeSet<>(roleIds));
+        return Util.md5(String.join(",", list)) + ":" + version.get() + "." + permitEngine.getVersion();
+    }
+
+    /**
+     * 缓存菜单,超出容量时清空
+     *
+     * @param key  键
+     * @param list 菜单
+     */
+    private void cache(String key, List<?> list) {
+        if (menus.size() >= MAX_MENUS) {
+            menus.clear();
+        }
+
+        menus.put(key, list);
+    }
+
+    /**
+     * 发布刷新通知
+     *
+     * @param body 消息内容
+     */
+    private void publish(String body) {
+        try {
+            redis.convertAndSend(CHANNEL, body);
+        } catch (Exception ex) {
+            logger.error("发布应用目录刷新通知失败:" + ex.getMessage());
+        }
+    }
+
+    private static Navigator toNavigator(Function node) {
+        Navigator navigator = new Navigator();
+        navigator.setId(node.getId());
+        navigator.setParentId(node.getParentId());
+        navigator.setIndex(node.getIndex());
+        navigator.setName(node.getName());
+        navigator.setIcon(node.getIcon());
+        navigator.setUrl(node.getUrl());
+
+        return navigator;
+    }
+
+    private static Function toRoleFunction(Function node, int type, Boolean action) {
+        Function function = new Function();
+        function.setId(node.getId());
+        function.setParentId(node.getParentId());
+        function.setType(type);
+        function.setIndex(node.getIndex());
+        function.setName(node.getName());
+        function.setIcon(node.getIcon());
+        function.setUrl(node.getUrl());
+        function.setAction(action);
+
+        return function;
+    }
+
+    /**
+     * 按上级ID、索引排序(空值在前,与MySQL排序一致)
+     */
+    private static final Comparator<Function> ORDER = Comparator
+            .comparing(Function::getParentId, Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+            .thenComparing(Function::getIndex, Comparator.nullsFirst(Comparator.<Integer>naturalOrder()));
+
+    /**
+     * 授权记录汇总,与SQL中sum(action)、count(*)的语义一致
+     */
+    private static class Rollup {
+
+        /**
+         * 行数(无授权记录的功能计为一行)
+         */
+        private int count;
+
+        /**
+         * 允许的行数
+         */
+        private int allowed;
+
+        /**
+         * 是否存在授权记录
+         */
+        private boolean granted;
+
+        private void add(List<Boolean> actions) {
+            if (actions == null) {
+                count++;
+                return;
+            }
+
+            count += actions.size();
+            for (Boolean action : actions) {
+                granted |= action != null;
+                if (Boolean.TRUE.equals(action)) {
+                    allowed++;
+                }
+            }
+        }
+
+        private Boolean getAction() {
+            return granted ? allowed == count : null;
+        }
+    }
+
+    /**
+     * 应用目录
+     */
+    private static class AppTree {
+
+        /**
+         * 全部导航及功能(按类型、上级ID、索引排序)
+         */
+        private final List<Function> nodes;
+
+        /**
+         * 导航ID-导航映射
+         */
+        private final Map<String, Function> navigators;
+
+        /**
+         * 全部功能
+         */
+        private final List<Function> functions;
+
+        /**
+         * 模块ID-功能集合映射
+         */
+        private final Map<String, List<Function>> modules;
+
+        private AppTree(List<Function> list) {
+            nodes = Collections.unmodifiableList(list);
+            navigators = new HashMap<>(64);
+            functions = new ArrayList<>(list.size());
+            modules = new HashMap<>(64);
+            for (Function node : list) {
+                if (Integer.valueOf(3).equals(node.getType())) {
+                    functions.add(node);
+                    modules.computeIfAbsent(node.getParentId(), k -> new ArrayList<>()).add(node);
+                } else {
+                    navigators.put(node.getId(), node);
+                }
+            }
+
+            modules.values().forEach(i -> i.sort(Comparator.comparing(Function::getIndex, Comparator.nullsFirst(Comparator.<Integer>naturalOrder()))));
+        }
+    }
+}
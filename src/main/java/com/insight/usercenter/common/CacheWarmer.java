@@ -0,0 +1,313 @@
+package com.insight.usercenter.common;
+
+import com.insight.usercenter.common.entity.User;
+import com.insight.usercenter.common.mapper.UserMapper;
+import com.insight.util.Generator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/4/13
+ * @remark Redis数据丢失后的缓存预热任务,从用户表重建ID:{登录标识}及Token:{userId}。
+ * 预热完成后写入标记键Warm:Sentinel,定期检查标记键,不存在时(Redis被清空或切换到空库)自动预热,也可通过/actuator/cachewarmer手动启动。
+ * 各节点先预热本节点近期通过令牌验证的用户(最多max-recent-users个),再由持有租约(Lease:CacheWarmer)的节点按用户ID顺序分批预热全部用户,已有用户资料的用户跳过
+ */
+@Component
+public class CacheWarmer {
+    static final String SENTINEL_KEY = "Warm:Sentinel";
+    private static final String LEASE_KEY = "Lease:CacheWarmer";
+
+    /**
+     * 租约的最长持有时间(毫秒),节点异常退出后租约自动释放
+     */
+    private static final long LEASE_MILLIS = 1000 * 3600;
+
+    private final Logger logger;
+    private final StringRedisTemplate redis;
+    private final TokenStore tokenStore;
+    private final KeyPolicy keyPolicy;
+    private final UserMapper mapper;
+    private final Map<String, Long> recent;
+    private final AtomicBoolean isRunning;
+    private final AtomicLong scanned;
+    private final AtomicLong warmed;
+    private final AtomicLong failed;
+    private final boolean isAuto;
+    private final int batchSize;
+    private final long pauseMillis;
+    private final long recentMillis;
+    private final int maxRecent;
+    private volatile String status;
+    private volatile String lastId;
+    private volatile long startTime;
+    private volatile long endTime;
+
+    /**
+     * 构造方法
+     *
+     * @param redis       自动注入的StringRedisTemplate
+     * @param tokenStore  自动注入的TokenStore
+     * @param keyPolicy   自动注入的KeyPolicy
+     * @param mapper      自动注入的UserMapper
+     * @param isAuto      标记键不存在时是否自动预热
+     * @param batchSize   每批预热的用户数量
+     * @param pauseMillis 每批之间暂停的毫秒数
+     * @param recentHours 优先预热的近期访问用户的时间范围(小时)
+     * @param maxRecent   记录的近期访问用户的最大数量
+     */
+    @Autowired
+    public CacheWarmer(StringRedisTemplate redis, TokenStore tokenStore, KeyPolicy keyPolicy, UserMapper mapper,
+                       @Value("${cache-warmer.auto:true}") boolean isAuto, @Value("${cache-warmer.batch-size:1000}") int batchSize,
+                       @Value("${cache-warmer.pause-millis:50}") long pauseMillis, @Value("${cache-warmer.recent-hours:24}") int recentHours,
+                       @Value("${cache-warmer.max-recent-users:100000}") int maxRecent) {
+        this.redis = redis;
+        this.tokenStore = tokenStore;
+        this.keyPolicy = keyPolicy;
+        this.mapper = mapper;
+        this.isAuto = isAuto;
+        this.batchSize = batchSize;
+        this.pauseMillis = pauseMillis;
+        this.maxRecent = maxRecent;
+
+        recentMillis = recentHours * 3600 * 1000L;
+        recent = new ConcurrentHashMap<>(16);
+        isRunning = new AtomicBoolean();
+        scanned = new AtomicLong();
+        warmed = new AtomicLong();
+        failed = new AtomicLong();
+        status = "idle";
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    /**
+     * 记录近期访问的用户(令牌验证通过后调用),达到最大数量后不再记录新的用户,过期的记录按计划清理
+     *
+     * @param userId 用户ID
+     */
+    public void touch(String userId) {
+        if (userId == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if (recent.size() < maxRecent) {
+            recent.put(userId, now);
+        } else {
+            recent.computeIfPresent(userId, (k, v) -> now);
+        }
+    }
+
+    /**
+     * 应用启动后检查是否需要预热
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        check();
+    }
+
+    /**
+     * 按计划清理过期的近期访问记录,标记键不存在时自动预热
+     */
+    @Scheduled(fixedDelayString = "${cache-warmer.check-millis:60000}")
+    public void check() {
+        long expired = System.currentTimeMillis() - recentMillis;
+        recent.values().removeIf(i -> i < expired);
+        if (!isAuto) {
+            return;
+        }
+
+        try {
+            if (!Boolean.TRUE.equals(redis.hasKey(SENTINEL_KEY)) && start()) {
+                logger.warn("未找到缓存预热标记,开始预热缓存");
+            }
+        } catch (Exception ex) {
+            logger.error("检查缓存预热标记失败:" + ex.getMessage());
+        }
+    }
+
+    /**
+     * 在独立线程中启动预热
+     *
+     * @return 是否已启动(预热进行中时返回false)
+     */
+    public boolean start() {
+        if (!isRunning.compareAndSet(false, true)) {
+            return false;
+        }
+
+        scanned.set(0);
+        warmed.set(0);
+        failed.set(0);
+        lastId = null;
+        startTime = System.currentTimeMillis();
+        endTime = 0;
+        status = "running";
+
+        Thread thread = new Thread(() -> {
+            try {
+                warm();
+            } finally {
+                endTime = System.currentTimeMillis();
+                isRunning.set(false);
+            }
+        }, "Cache-Warmer");
+        thread.setDaemon(true);
+        thread.start();
+
+        return true;
+    }
+
+    /**
+     * 获取预热进度
+     *
+     * @return 状态、已读取/已预热/失败的用户数量、当前用户ID位置及耗时
+     */
+    public Map<String, Object> getProgress() {
+        long end = endTime == 0 ? System.currentTimeMillis() : endTime;
+        Map<String, Object> map = new LinkedHashMap<>(16);
+        map.put("status", status);
+        map.put("scanned", scanned.get());
+        map.put("warmed", warmed.get());
+        map.put("failed", failed.get());
+        map.put("lastId", lastId);
+        map.put("recentUsers", recent.size());
+        map.put("elapsedMillis", startTime == 0 ? 0 : end - startTime);
+
+        return map;
+    }
+
+    /**
+     * 先预热近期访问的用户,再在获得租约时预热全部用户
+     */
+    private void warm() {
+        String owner = Generator.uuid();
+        try {
+            List<String> userIds = recent.entrySet().stream().sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                    .map(Map.Entry::getKey).collect(Collectors.toList());
+            for (int i = 0; i < userIds.size(); i += batchSize) {
+                warmUsers(mapper.getUsersByIds(userIds.subList(i, Math.min(i + batchSize, userIds.size()))));
+            }
+
+            Boolean acquired = redis.execute((RedisCallback<Boolean>) connection -> ((StringRedisConnection) connection)
+                    .set(LEASE_KEY, owner, Expiration.milliseconds(LEASE_MILLIS), RedisStringCommands.SetOption.ifAbsent()));
+            if (!Boolean.TRUE.equals(acquired)) {
+                status = "completed";
+                logger.info("已预热" + warmed.get() + "个近期访问的用户,全部用户由其他节点预热");
+                return;
+            }
+
+            String id = "";
+            while (true) {
+                List<User> users = mapper.getUsersAfter(id, batchSize);
+                if (users == null || users.isEmpty()) {
+                    break;
+                }
+
+                warmUsers(users);
+                id = users.get(users.size() - 1).getId();
+                lastId = id;
+                if (!pause()) {
+                    status = "stopped";
+                    return;
+                }
+            }
+
+            redis.opsForValue().set(SENTINEL_KEY, String.valueOf(System.currentTimeMillis()));
+            status = "completed";
+            logger.info("缓存预热完成,读取" + scanned.get() + "个用户,预热" + warmed.get() + "个用户,耗时" + (System.currentTimeMillis() - startTime) + "毫秒");
+        } catch (Exception ex) {
+            status = "failed";
+            logger.error("缓存预热失败:" + ex.getMessage());
+        } finally {
+            if (owner.equals(redis.opsForValue().get(LEASE_KEY))) {
+                redis.delete(LEASE_KEY);
+            }
+        }
+    }
+
+    /**
+     * 为一批用户中没有用户资料的用户并行生成Token,以管道操作写入Token及登录标识-用户ID缓存
+     *
+     * @param users 用户集合
+     */
+    private void warmUsers(List<User> users) {
+        if (users == null || users.isEmpty()) {
+            return;
+        }
+
+        scanned.addAndGet(users.size());
+        Set<String> missing = new HashSet<>(tokenStore.getMissing(users.stream().map(User::getId).collect(Collectors.toList())));
+        List<User> list = users.stream().filter(i -> missing.contains(i.getId())).collect(Collectors.toList());
+        if (list.isEmpty()) {
+            return;
+        }
+
+        List<Token> tokens = list.parallelStream().map(this::newToken).filter(Objects::nonNull).collect(Collectors.toList());
+        tokenStore.saveAll(tokens);
+
+        long seconds = keyPolicy.getSeconds(KeyPolicy.ID_PREFIX);
+        redis.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (User user : list) {
+                for (String identifier : new String[]{user.getAccount(), user.getMobile(), user.getOpenId(), user.getEmail()}) {
+                    if (identifier != null && !identifier.isEmpty()) {
+                        conn.setEx(KeyPolicy.ID_PREFIX + identifier, seconds, user.getId());
+                    }
+                }
+            }
+
+            return null;
+        });
+
+        warmed.addAndGet(tokens.size());
+    }
+
+    /**
+     * 由用户数据生成Token
+     *
+     * @param user 用户实体
+     * @return Token(用户数据无效时为null)
+     */
+    private Token newToken(User user) {
+        try {
+            return new Token(user);
+        } catch (Exception ex) {
+            failed.incrementAndGet();
+            logger.error("用户[" + user.getId() + "]的Token生成失败:" + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 每批之间暂停
+     *
+     * @return 是否继续预热
+     */
+    private boolean pause() {
+        try {
+            Thread.sleep(pauseMillis);
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
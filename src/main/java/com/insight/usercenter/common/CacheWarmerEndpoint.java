@@ -0,0 +1,53 @@
+package com.insight.usercenter.common;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/4/13
+ * @remark 缓存预热端点(/actuator/cachewarmer,管理端口),GET查询预热进度,POST启动预热
+ */
+@Component
+@Endpoint(id = "cachewarmer")
+public class CacheWarmerEndpoint {
+    private final CacheWarmer warmer;
+
+    /**
+     * 构造方法
+     *
+     * @param warmer 自动注入的CacheWarmer
+     */
+    @Autowired
+    public CacheWarmerEndpoint(CacheWarmer warmer) {
+        this.warmer = warmer;
+    }
+
+    /**
+     * 查询预热进度
+     *
+     * @return 预热进度
+     */
+    @ReadOperation
+    public Map<String, Object> progress() {
+        return warmer.getProgress();
+    }
+
+    /**
+     * 启动预热
+     *
+     * @return 预热进度
+     */
+    @WriteOperation
+    public Map<String, Object> start() {
+        Map<String, Object> map = warmer.getProgress();
+        map.put("started", warmer.start());
+
+        return map;
+    }
+}
@@ -0,0 +1,116 @@
+package com.insight.usercenter.common;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/3/28
+ * @remark 鉴权目录版本,功能或角色授权变化时递增,并记录变更日志供增量同步使用
+ */
+@Component
+public class CatalogVersion {
+    private static final String VERSION_KEY = "Catalog:Version";
+    private static final String CHANGES_KEY = "Catalog:Changes";
+    private static final String APP_PREFIX = "app:";
+    private static final String ROLE_PREFIX = "role:";
+    private static final String ALL = "*";
+    private static final int MAX_CHANGES = 1000;
+
+    /**
+     * 递增版本并记录变更(原子执行,保证版本与变更日志一致)
+     */
+    private static final String BUMP_SCRIPT = "local v = redis.call('INCR', KEYS[1]) " +
+            "redis.call('ZADD', KEYS[2], v, ARGV[1] .. '|' .. v) " +
+            "redis.call('ZREMRANGEBYRANK', KEYS[2], 0, -tonumber(ARGV[2]) - 1) " +
+            "return v";
+
+    private final StringRedisTemplate redis;
+    private final DefaultRedisScript<Long> script;
+
+    /**
+     * 构造方法
+     *
+     * @param redis 自动注入的StringRedisTemplate
+     */
+    @Autowired
+    public CatalogVersion(StringRedisTemplate redis) {
+        this.redis = redis;
+
+        script = new DefaultRedisScript<>(BUMP_SCRIPT, Long.class);
+    }
+
+    /**
+     * 获取当前版本
+     *
+     * @return 当前版本
+     */
+    public long getVersion() {
+        String value = redis.opsForValue().get(VERSION_KEY);
+        return value == null ? 0 : Long.valueOf(value);
+    }
+
+    /**
+     * 应用功能变更后递增版本(事务提交后执行)
+     *
+     * @param appId 应用ID(为空时表示全部应用)
+     */
+    public void onAppChanged(String appId) {
+        String change = APP_PREFIX + (appId == null ? ALL : appId);
+        TransactionHelper.afterCommit(() -> bump(change));
+    }
+
+    /**
+     * 角色授权变更后递增版本(事务提交后执行)
+     *
+     * @param roleId 角色ID
+     */
+    public void onRoleChanged(String roleId) {
+        String change = ROLE_PREFIX + roleId;
+        TransactionHelper.afterCommit(() -> bump(change));
+    }
+
+    /**
+     * 获取指定版本之后发生变更的角色ID集合
+     *
+     * @param appId 应用ID
+     * @param since 起始版本(不含)
+     * @param until 截止版本(含)
+     * @return 角色ID集合,变更日志已不完整或应用功能发生变化时返回null
+     */
+    public Set<String> getChangedRoles(String appId, long since, long until) {
+        Set<ZSetOperations.TypedTuple<String>> first = redis.opsForZSet().rangeWithScores(CHANGES_KEY, 0, 0);
+        if (first == null || first.isEmpty() || first.iterator().next().getScore() > since + 1) {
+            return null;
+        }
+
+        Set<String> changes = redis.opsForZSet().rangeByScore(CHANGES_KEY, since + 1, until);
+        Set<String> roles = new LinkedHashSet<>();
+        for (String change : changes == null ? Arrays.<String>asList() : changes) {
+            String body = change.substring(0, change.lastIndexOf('|'));
+            if (body.startsWith(ROLE_PREFIX)) {
+                roles.add(body.substring(ROLE_PREFIX.length()));
+            } else if (body.equals(APP_PREFIX + ALL) || body.equals(APP_PREFIX + appId)) {
+                return null;
+            }
+        }
+
+        return roles;
+    }
+
+    /**
+     * 递增版本并记录变更
+     *
+     * @param change 变更内容
+     */
+    private void bump(String change) {
+        redis.execute(script, Arrays.asList(VERSION_KEY, CHANGES_KEY), change, String.valueOf(MAX_CHANGES));
+    }
+}
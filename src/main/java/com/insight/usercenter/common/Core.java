@@ -1,26 +1,31 @@
 package com.insight.usercenter.common;
 
+import com.insight.usercenter.common.dto.TokenClaims;
+import com.insight.usercenter.common.dto.TokenPackage;
 import com.insight.usercenter.common.dto.UserDTO;
 import com.insight.usercenter.common.entity.Function;
+import com.insight.usercenter.common.entity.Keys;
 import com.insight.usercenter.common.entity.User;
 import com.insight.usercenter.common.mapper.AuthMapper;
 import com.insight.usercenter.common.mapper.UserMapper;
 import com.insight.util.Generator;
-import com.insight.util.Json;
 import com.insight.util.Util;
+import com.insight.util.pojo.AccessToken;
 import com.insight.utils.message.Message;
 import com.insight.utils.wechat.WeChatHelper;
 import com.insight.utils.wechat.WeChatUser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Random;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -31,29 +36,105 @@ import java.util.concurrent.TimeUnit;
  */
 @Component
 public class Core {
+    /**
+     * 一次性登录签名的时间窗口(毫秒)
+     */
+    private static final long CHALLENGE_MILLIS = 1000 * 60;
+
+    /**
+     * 一次性登录签名的验证结果
+     */
+    public enum ChallengeResult {
+        /**
+         * 通过验证
+         */
+        PASSED,
+
+        /**
+         * 客户端时间超出时间窗口(时钟偏差或请求过旧)
+         */
+        EXPIRED,
+
+        /**
+         * 签名正确但已被使用(重放或客户端重试)
+         */
+        REPLAYED,
+
+        /**
+         * 签名错误(密码错误)
+         */
+        SIGNATURE_MISMATCH
+    }
+
     private final Logger logger;
     private final StringRedisTemplate redis;
     private final ThreadPool pool;
+    private final TokenCache tokenCache;
+    private final TokenStore tokenStore;
+    private final TokenSigner signer;
+    private final AccessTokenCache accessTokenCache;
+    private final SingleFlight singleFlight;
+    private final UserIdentifierJob identifierJob;
+    private final AccountFilter accountFilter;
+    private final OneTimeStore oneTimeStore;
+    private final KeyPolicy keyPolicy;
+    private final RevocationList revocationList;
+    private final PermitEngine permitEngine;
+    private final AppCatalog appCatalog;
+    private final CacheWarmer cacheWarmer;
     private final AuthMapper authMapper;
     private final UserMapper userMapper;
     private final WeChatHelper weChatHelper;
+    private final boolean isEngine;
 
     /**
      * 构造方法
      *
-     * @param redis        自动注入的StringRedisTemplate
-     * @param pool         自动注入的ThreadPool
-     * @param authMapper   自动注入的AuthMapper
-     * @param userMapper   自动注入的UserMapper
-     * @param weChatHelper 自动注入的WeChatHelper
+     * @param redis            自动注入的StringRedisTemplate
+     * @param pool             自动注入的ThreadPool
+     * @param tokenCache       自动注入的TokenCache
+     * @param tokenStore       自动注入的TokenStore
+     * @param signer           自动注入的TokenSigner
+     * @param accessTokenCache 自动注入的AccessTokenCache
+     * @param singleFlight     自动注入的SingleFlight
+     * @param identifierJob    自动注入的UserIdentifierJob
+     * @param accountFilter    自动注入的AccountFilter
+     * @param oneTimeStore     自动注入的OneTimeStore
+     * @param keyPolicy        自动注入的KeyPolicy
+     * @param revocationList   自动注入的RevocationList
+     * @param permitEngine     自动注入的PermitEngine
+     * @param appCatalog       自动注入的AppCatalog
+     * @param cacheWarmer      自动注入的CacheWarmer
+     * @param authMapper       自动注入的AuthMapper
+     * @param userMapper       自动注入的UserMapper
+     * @param weChatHelper     自动注入的WeChatHelper
+     * @param isEngine         是否使用内存鉴权引擎(false时按用户当前租户及部门查询数据库)
      */
     @Autowired
-    public Core(StringRedisTemplate redis, ThreadPool pool, AuthMapper authMapper, UserMapper userMapper, WeChatHelper weChatHelper) {
+    public Core(StringRedisTemplate redis, ThreadPool pool, TokenCache tokenCache, TokenStore tokenStore, TokenSigner signer,
+                AccessTokenCache accessTokenCache, SingleFlight singleFlight, UserIdentifierJob identifierJob,
+                AccountFilter accountFilter, OneTimeStore oneTimeStore, KeyPolicy keyPolicy, RevocationList revocationList,
+                PermitEngine permitEngine, AppCatalog appCatalog, CacheWarmer cacheWarmer, AuthMapper authMapper,
+                UserMapper userMapper, WeChatHelper weChatHelper, @Value("${permit.engine.enabled:true}") boolean isEngine) {
         this.redis = redis;
         this.pool = pool;
+        this.tokenCache = tokenCache;
+        this.tokenStore = tokenStore;
+        this.signer = signer;
+        this.accessTokenCache = accessTokenCache;
+        this.singleFlight = singleFlight;
+        this.identifierJob = identifierJob;
+        this.accountFilter = accountFilter;
+        this.oneTimeStore = oneTimeStore;
+        this.keyPolicy = keyPolicy;
+        this.revocationList = revocationList;
+        this.permitEngine = permitEngine;
+        this.appCatalog = appCatalog;
+        this.cacheWarmer = cacheWarmer;
         this.authMapper = authMapper;
         this.userMapper = userMapper;
         this.weChatHelper = weChatHelper;
+        this.isEngine = isEngine;
 
         logger = LoggerFactory.getLogger(this.getClass());
     }
@@ -65,51 +146,68 @@ public class Core {
      * @return 用户ID
      */
     public String getUserId(String account) {
-        String key = "ID:" + account;
+        String key = KeyPolicy.ID_PREFIX + account;
         String userId = getFromRedis(key);
         if (userId != null && !userId.isEmpty()) {
             return userId;
         }
 
-        synchronized ( this ) {
-            userId = getFromRedis(account);
-            if (userId != null && !userId.isEmpty()) {
-                return userId;
-            }
+        // 过滤器判定不存在的账号直接返回
+        if (!accountFilter.mightContain(account)) {
+            return null;
+        }
 
-            User user = userMapper.getUser(account);
-            if (user == null) {
-                return null;
-            }
+        // 同一账号的并发请求只查询一次数据库,不同账号互不阻塞
+        return singleFlight.load(key, () -> {
+            String value = getFromRedis(key);
+            return value == null || value.isEmpty() ? null : value;
+        }, () -> loadUserId(account));
+    }
 
-            // 缓存用户ID到Redis
-            userId = user.getId();
-            key = "ID:" + user.getAccount();
-            setToRedis(key, userId);
+    /**
+     * 从数据库读取用户,缓存用户ID并初始化Token
+     *
+     * @param account 登录账号(账号、手机号、E-mail、openId)
+     * @return 用户ID
+     */
+    private String loadUserId(String account) {
+        String userId = getFromRedis(KeyPolicy.ID_PREFIX + account);
+        if (userId != null && !userId.isEmpty()) {
+            return userId;
+        }
 
-            String mobile = user.getMobile();
-            if (mobile != null && !mobile.isEmpty()) {
-                key = "ID:" + mobile;
-                setToRedis(key, userId);
-            }
+        User user = userMapper.getUser(account);
+        if (user == null && !identifierJob.isCompleted()) {
+            user = userMapper.getUserByColumns(account);
+        }
 
-            String openId = user.getOpenId();
-            if (openId != null && !openId.isEmpty()) {
-                key = "ID:" + openId;
-                setToRedis(key, userId);
-            }
+        if (user == null) {
+            return null;
+        }
 
-            String mail = user.getEmail();
-            if (mail != null && !mail.isEmpty()) {
-                key = "ID:" + mail;
-                setToRedis(key, userId);
-            }
+        // 缓存用户ID到Redis
+        userId = user.getId();
+        setUserIdCache(user.getAccount(), userId);
 
-            Token token = new Token(user);
-            setTokenCache(token);
+        String mobile = user.getMobile();
+        if (mobile != null && !mobile.isEmpty()) {
+            setUserIdCache(mobile, userId);
+        }
 
-            return userId;
+        String openId = user.getOpenId();
+        if (openId != null && !openId.isEmpty()) {
+            setUserIdCache(openId, userId);
         }
+
+        String mail = user.getEmail();
+        if (mail != null && !mail.isEmpty()) {
+            setUserIdCache(mail, userId);
+        }
+
+        Token token = new Token(user);
+        setTokenCache(token);
+
+        return userId;
     }
 
     /**
@@ -152,9 +250,9 @@ public class Core {
         String code = Generator.uuid();
         String signature = Util.md5(key + code);
 
-        // 缓存签名-Code,以及Code-用户ID.
-        setToRedis(signature, code, seconds, TimeUnit.SECONDS);
-        setToRedis(code, token.getUserId());
+        // 缓存签名-Code,以及Code-用户ID(签名使用后立即使用Code,多保留1分钟)
+        oneTimeStore.issue(OneTimeStore.Purpose.SIGNATURE, signature, code, seconds, TimeUnit.SECONDS);
+        oneTimeStore.issue(OneTimeStore.Purpose.CODE, code, token.getUserId(), seconds + 60, TimeUnit.SECONDS);
 
         return code;
     }
@@ -176,7 +274,7 @@ public class Core {
             return code;
         }
 
-        setToRedis(key, code, minutes, TimeUnit.MINUTES);
+        oneTimeStore.issue(OneTimeStore.Purpose.SMS, key, code, minutes, TimeUnit.MINUTES);
         return code;
     }
 
@@ -218,13 +316,11 @@ public class Core {
      */
     public Boolean verifySmsCode(int type, String mobile, String code, Boolean isCheck) {
         String key = Util.md5(type + mobile + code);
-        Boolean isExisted = redisHasKey(key);
-        if (!isExisted || isCheck) {
-            return isExisted;
+        if (isCheck) {
+            return oneTimeStore.peek(OneTimeStore.Purpose.SMS, key) != null;
         }
 
-        deleteFromRedis(key);
-        return true;
+        return oneTimeStore.consume(OneTimeStore.Purpose.SMS, key) != null;
     }
 
     /**
@@ -234,13 +330,44 @@ public class Core {
      * @return 签名对应的Code
      */
     public String getCode(String sign) {
-        String code = getFromRedis(sign);
-        if (code == null || code.isEmpty()) {
-            return null;
+        String code = oneTimeStore.consume(OneTimeStore.Purpose.SIGNATURE, sign);
+        return code == null || code.isEmpty() ? null : code;
+    }
+
+    /**
+     * 验证一次性登录签名,签名在时间窗口内只能使用一次
+     *
+     * @param token     Token
+     * @param account   登录账号
+     * @param nonce     客户端随机数
+     * @param timestamp 客户端时间(毫秒数)
+     * @param signature 签名(MD5(MD5(账号+密码)+随机数+客户端时间))
+     * @return 验证结果(仅SIGNATURE_MISMATCH表示密码错误)
+     */
+    public ChallengeResult verifyChallenge(Token token, String account, String nonce, long timestamp, String signature) {
+        if (Math.abs(System.currentTimeMillis() - timestamp) > CHALLENGE_MILLIS) {
+            return ChallengeResult.EXPIRED;
         }
 
-        deleteFromRedis(sign);
-        return code;
+        String key = Util.md5(account + token.getPassword());
+        String expected = Util.md5(key + nonce + timestamp);
+        if (!MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8), signature.getBytes(StandardCharsets.UTF_8))) {
+            return ChallengeResult.SIGNATURE_MISMATCH;
+        }
+
+        // 客户端时间允许前后偏差一个窗口,已使用的签名保留两个窗口
+        boolean isClaimed = oneTimeStore.claim(OneTimeStore.Purpose.NONCE, signature, CHALLENGE_MILLIS * 2, TimeUnit.MILLISECONDS);
+        return isClaimed ? ChallengeResult.PASSED : ChallengeResult.REPLAYED;
+    }
+
+    /**
+     * 通过Code获取用户ID,Code使用后失效
+     *
+     * @param code Code
+     * @return 用户ID
+     */
+    public String getUserIdByCode(String code) {
+        return oneTimeStore.consume(OneTimeStore.Purpose.CODE, code);
     }
 
     /**
@@ -250,13 +377,210 @@ public class Core {
      * @return Token(可能为null)
      */
     public Token getToken(String userId) {
-        String key = "Token:" + userId;
-        String json = getFromRedis(key);
-        if (json == null || json.isEmpty()) {
+        Token token = tokenCache.get(userId);
+        if (token != null) {
+            return token;
+        }
+
+        // 同一用户的并发请求只加载一次,各调用方取得独立的副本
+        token = singleFlight.load("Token:" + userId, () -> {
+            long epoch = tokenCache.getEpoch(userId);
+            Token value = tokenStore.load(userId);
+            if (value == null) {
+                value = rebuildToken(userId);
+            }
+
+            if (value != null) {
+                tokenCache.put(value, epoch);
+            }
+
+            return value;
+        });
+
+        return token == null ? null : token.copy();
+    }
+
+    /**
+     * 用户资料已过期清除时,从用户表重建Token(会话状态仍存在时沿用其版本及租户、部门、角色集合)
+     *
+     * @param userId 用户ID
+     * @return Token(用户不存在时为null)
+     */
+    private Token rebuildToken(String userId) {
+        User user = userMapper.getUserWithPassword(userId);
+        if (user == null) {
             return null;
         }
 
-        return Json.toBean(json, Token.class);
+        Token token = new Token(user);
+        tokenStore.rebuild(token);
+
+        return token;
+    }
+
+    /**
+     * 记录通过令牌验证的用户,供缓存预热优先处理
+     *
+     * @param userId 用户ID
+     */
+    void touch(String userId) {
+        cacheWarmer.touch(userId);
+    }
+
+    /**
+     * 获取验证指定令牌所需的数据,本节点缓存有完整Token时直接使用
+     *
+     * @param userId  用户ID
+     * @param tokenId 令牌ID
+     * @return Token(可能仅包含会话验证数据,可能为null)
+     */
+    public Token getSession(String userId, String tokenId) {
+        Token token = tokenCache.get(userId);
+        if (token != null) {
+            return token;
+        }
+
+        return tokenStore.loadSession(userId, tokenId);
+    }
+
+    /**
+     * 批量获取验证令牌所需的数据,本节点缓存有完整Token的用户直接使用
+     *
+     * @param tokenIds 用户ID-令牌ID集合
+     * @return 用户ID-Token(可能仅包含会话验证数据)
+     */
+    public Map<String, Token> getSessions(Map<String, Set<String>> tokenIds) {
+        Map<String, Token> tokens = new HashMap<>(tokenIds.size() * 2);
+        Map<String, Set<String>> missing = new HashMap<>(tokenIds.size() * 2);
+        tokenIds.forEach((k, v) -> {
+            Token token = tokenCache.get(k);
+            if (token == null) {
+                missing.put(k, v);
+            } else {
+                tokens.put(k, token);
+            }
+        });
+
+        if (!missing.isEmpty()) {
+            tokens.putAll(tokenStore.loadSessions(missing));
+        }
+
+        return tokens;
+    }
+
+    /**
+     * 以一次管道操作保存一批Token中发生变化的部分,并使各节点缓存的Token失效
+     *
+     * @param tokens Token集合
+     */
+    public void setTokenCaches(Collection<Token> tokens) {
+        List<Token> changed = new ArrayList<>();
+        tokens.stream().filter(Token::isChanged).forEach(changed::add);
+        if (changed.isEmpty()) {
+            return;
+        }
+
+        tokenStore.saveAll(changed);
+
+        List<String> userIds = new ArrayList<>(changed.size());
+        changed.forEach(i -> userIds.add(i.getUserId()));
+        tokenCache.invalidate(userIds);
+    }
+
+    /**
+     * 删除指定用户的Token数据,并使各节点缓存的Token失效
+     *
+     * @param token Token
+     */
+    public void deleteToken(Token token) {
+        tokenStore.delete(token);
+        tokenCache.invalidate(token.getUserId());
+        revocationList.revokeUser(token.getUserId());
+    }
+
+    /**
+     * 按配置将令牌数据包中的访问令牌替换为签名访问令牌
+     *
+     * @param token  Token(已选择当前令牌)
+     * @param tokens 令牌数据包
+     */
+    public void signToken(Token token, TokenPackage tokens) {
+        Keys keys = token.getCurrentKeys();
+        if (!signer.isEnabled() || keys == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        TokenClaims claims = new TokenClaims();
+        claims.setTokenId(token.getCurrentTokenId());
+        claims.setUserId(token.getUserId());
+        claims.setUserName(token.getUserName());
+        claims.setTenantId(token.getTenantId());
+        claims.setDeptId(token.getDeptId());
+        claims.setRoleIds(token.getRoleList());
+        claims.setRoleVersion(TokenSigner.getRoleVersion(token.getRoleList()));
+        claims.setIssuedAt(revocationList.getIssuedAt(token.getUserId(), now));
+        claims.setExpiry(Math.min(keys.getExpiryMillis(), now + signer.getMaxLife()));
+
+        tokens.setAccessToken(signer.sign(claims));
+        tokens.setExpire(Math.min(tokens.getExpire(), signer.getMaxLife() / 1000));
+    }
+
+    /**
+     * 解析访问令牌(使用解析缓存)
+     *
+     * @param token 访问令牌字符串
+     * @return 访问令牌,解析失败时为null
+     */
+    public AccessToken getAccessToken(String token) {
+        return accessTokenCache.get(token);
+    }
+
+    /**
+     * 验证签名访问令牌并读取令牌声明
+     *
+     * @param token 签名访问令牌字符串
+     * @return 令牌声明,签名无效时为null
+     */
+    public TokenClaims getClaims(String token) {
+        return signer.verify(token);
+    }
+
+    /**
+     * 签名访问令牌是否已被吊销
+     *
+     * @param claims 令牌声明
+     * @return 是否已被吊销
+     */
+    public boolean isRevoked(TokenClaims claims) {
+        return revocationList.isRevoked(claims);
+    }
+
+    /**
+     * 吊销签名访问令牌
+     *
+     * @param tokenId 令牌ID
+     */
+    public void revokeToken(String tokenId) {
+        revocationList.revokeToken(tokenId);
+    }
+
+    /**
+     * 吊销用户此前签发的全部签名访问令牌
+     *
+     * @param userId 用户ID
+     */
+    public void revokeUser(String userId) {
+        revocationList.revokeUser(userId);
+    }
+
+    /**
+     * 使各节点缓存的指定用户的Token失效
+     *
+     * @param userId 用户ID
+     */
+    public void invalidateToken(String userId) {
+        tokenCache.invalidate(userId);
     }
 
     /**
@@ -271,21 +595,25 @@ public class Core {
         }
 
         // 从缓存读取应用的令牌生命周期
-        String fiele = "TokenLife";
-        Object val = getFromRedis(appId, fiele);
+        String key = KeyPolicy.TOKEN_LIFE_PREFIX + appId;
+        String val = getFromRedis(key);
         if (val != null) {
-            return Integer.valueOf(val.toString());
-        }
-
-        // 从数据库读取应用的令牌生命周期
-        Integer hours = authMapper.getTokenLife(appId);
-        if (hours == null) {
-            hours = 24;
+            return Integer.valueOf(val);
         }
 
-        setToRedis(appId, fiele, hours.toString());
+        // 从数据库读取应用的令牌生命周期,同一应用的并发请求只查询一次
+        return singleFlight.load(key, () -> {
+            String value = getFromRedis(key);
+            return value == null ? null : Integer.valueOf(value);
+        }, () -> {
+            Integer hours = authMapper.getTokenLife(appId);
+            if (hours == null) {
+                hours = 24;
+            }
 
-        return hours;
+            setToRedis(key, hours.toString());
+            return hours;
+        });
     }
 
     /**
@@ -294,7 +622,7 @@ public class Core {
      * @param token Token
      */
     public void setTenantIdAndDeptId(Token token) {
-        pool.setTenantIdAndDeptId(token);
+        pool.setTenantIdAndDeptId(token.getUserId());
     }
 
     /**
@@ -305,8 +633,58 @@ public class Core {
      * @return 功能是否授权给用户
      */
     public Boolean isPermit(Token token, String function) {
+        if (!isEngine) {
+            return isPermitBySql(token, function);
+        }
+
+        return permitEngine.isPermit(getRoleIds(token), function);
+    }
+
+    /**
+     * 查询数据库鉴权,不依赖Token中缓存的角色集合(鉴权引擎停用时使用)
+     *
+     * @param token    Token
+     * @param function 功能ID、别名或功能对应接口URL
+     * @return 功能是否授权
+     */
+    private Boolean isPermitBySql(Token token, String function) {
         List<Function> functions = authMapper.getAllFunctions(token.getTenantId(), token.getUserId(), token.getDeptId());
-        return functions.stream().anyMatch(i -> function.equals(i.getId()) || function.equals(i.getAlias()) || i.getInterfaces().contains(function));
+        if (functions.stream().anyMatch(i -> function.equals(i.getId()) || function.equals(i.getAlias()))) {
+            return true;
+        }
+
+        if (!InterfaceIndex.isUrl(function)) {
+            return false;
+        }
+
+        InterfaceIndex routes = new InterfaceIndex();
+        functions.forEach(i -> routes.add(i.getInterfaces(), 0));
+        return routes.match(function).length > 0;
+    }
+
+    /**
+     * 获取用户当前会话已授权的全部功能ID及别名
+     *
+     * @param token Token
+     * @return 有效授权快照
+     */
+    public PermitEngine.Snapshot getPermissions(Token token) {
+        return permitEngine.getSnapshot(getRoleIds(token));
+    }
+
+    /**
+     * 获取用户在当前租户及登录部门下的角色ID集合,Token中未缓存时从数据库读取
+     *
+     * @param token Token
+     * @return 角色ID集合
+     */
+    public List<String> getRoleIds(Token token) {
+        List<String> roleIds = token.getRoleList();
+        if (roleIds == null || roleIds.isEmpty()) {
+            roleIds = getRoleList(token.getUserId(), token.getTenantId(), token.getDeptId());
+        }
+
+        return roleIds;
     }
 
     /**
@@ -316,7 +694,16 @@ public class Core {
      * @return 用户是否存在
      */
     public Boolean isExisted(UserDTO user) {
-        return userMapper.getExistedUserCount(user.getAccount(), user.getMobile(), user.getEmail(), user.getOpenId()) > 0;
+        if (!accountFilter.mightContain(user.getAccount()) && !accountFilter.mightContain(user.getMobile())
+                && !accountFilter.mightContain(user.getEmail()) && !accountFilter.mightContain(user.getOpenId())) {
+            return false;
+        }
+
+        if (userMapper.getExistedUserCount(user.getAccount(), user.getMobile(), user.getOpenId(), user.getEmail()) > 0) {
+            return true;
+        }
+
+        return !identifierJob.isCompleted() && userMapper.getExistedUserCountByColumns(user.getAccount(), user.getMobile(), user.getOpenId(), user.getEmail()) > 0;
     }
 
     /**
@@ -336,6 +723,7 @@ public class Core {
      * @param user 用户对象实体
      */
     public void addUser(UserDTO user) {
+        addIdentifiers(user.getAccount(), user.getMobile(), user.getEmail(), user.getOpenId());
         pool.addUser(user);
     }
 
@@ -345,9 +733,19 @@ public class Core {
      * @param user 用户对象实体
      */
     public void updateUser(UserDTO user) {
+        addIdentifiers(user.getOpenId());
         pool.updateUser(user);
     }
 
+    /**
+     * 在登录标识过滤器中登记新增或修改的登录标识
+     *
+     * @param identifiers 登录标识集合(可包含null)
+     */
+    public void addIdentifiers(String... identifiers) {
+        accountFilter.add(identifiers);
+    }
+
     /**
      * 记录用户绑定的微信OpenID
      *
@@ -422,7 +820,7 @@ public class Core {
      * @return 是否绑定了指定的应用
      */
     public Boolean containsApp(String tenantId, String appId) {
-        return authMapper.containsApp(tenantId, appId) > 0;
+        return appCatalog.containsApp(tenantId, appId);
     }
 
     /**
@@ -435,42 +833,62 @@ public class Core {
             return;
         }
 
-        String key = "Token:" + token.getUserId();
-        String json = Json.toJson(token);
-        setToRedis(key, json);
+        tokenStore.save(token);
+
+        // 更新本节点缓存的快照,并通知其他节点丢弃旧快照
+        if (token.isPartial()) {
+            tokenCache.invalidate(token.getUserId());
+            return;
+        }
+
+        tokenCache.put(token);
+        tokenCache.publish(token.getUserId());
     }
 
     /**
-     * 以键值对方式保存数据到Redis
+     * 以键值对方式保存数据到Redis,按键族设置有效期
      *
      * @param key   键
      * @param value 值
      */
     public void setToRedis(String key, String value) {
-        redis.opsForValue().set(key, value);
+        redis.opsForValue().set(key, value, keyPolicy.getSeconds(key), TimeUnit.SECONDS);
     }
 
     /**
-     * 以键值对方式保存数据到Redis
+     * 以Hash方式保存数据到Redis,按键族设置有效期
      *
      * @param key   键
+     * @param field 字段名称
      * @param value 值
-     * @param time  时间长度
-     * @param unit  时间单位
      */
-    private void setToRedis(String key, String value, long time, TimeUnit unit) {
-        redis.opsForValue().set(key, value, time, unit);
+    public void setToRedis(String key, String field, String value) {
+        long seconds = keyPolicy.getSeconds(key);
+        redis.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.hSet(key, field, value);
+            conn.expire(key, seconds);
+            return null;
+        });
     }
 
     /**
-     * 以Hash方式保存数据到Redis
+     * 缓存登录标识对应的用户ID
      *
-     * @param key   键
-     * @param field 字段名称
-     * @param value 值
+     * @param identifier 登录标识(账号、手机号、E-mail、openId)
+     * @param userId     用户ID
      */
-    public void setToRedis(String key, String field, String value) {
-        redis.opsForHash().put(key, field, value);
+    public void setUserIdCache(String identifier, String userId) {
+        setToRedis(KeyPolicy.ID_PREFIX + identifier, userId);
+    }
+
+    /**
+     * 删除登录标识对应的用户ID缓存
+     *
+     * @param identifier 登录标识(账号、手机号、E-mail、openId)
+     */
+    public void deleteUserIdCache(String identifier) {
+        deleteFromRedis(KeyPolicy.ID_PREFIX + identifier);
     }
 
     /**
@@ -0,0 +1,130 @@
+package com.insight.usercenter.common;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/4/5
+ * @remark 令牌验证失败计数器,保存在Failure:{userId}中。
+ * 每次失败由一次Lua脚本原子地累加计数并延长重置窗口(最后一次失败后600秒自动重置),
+ * 计数超过5次即锁定用户,锁定期间不再累加
+ */
+@Component
+public class FailureCounter {
+    static final String KEY_PREFIX = "Failure:";
+
+    /**
+     * 允许的连续失败次数,超过即锁定
+     */
+    static final int MAX_FAILURES = 5;
+
+    /**
+     * 重置窗口(毫秒)
+     */
+    private static final long WINDOW = 1000 * 600;
+
+    /**
+     * 锁定时直接返回计数,否则累加(不超过锁定阈值)并重置窗口,返回累加后的计数
+     */
+    private static final String ADD_SCRIPT = "local c = tonumber(redis.call('GET', KEYS[1]) or '0') " +
+            "local max = tonumber(ARGV[2]) " +
+            "if c > max then return c end " +
+            "c = redis.call('INCRBY', KEYS[1], math.min(tonumber(ARGV[3]), max + 1 - c)) " +
+            "redis.call('PEXPIRE', KEYS[1], ARGV[1]) " +
+            "return c";
+
+    private final StringRedisTemplate redis;
+    private final DefaultRedisScript<Long> script;
+
+    /**
+     * 构造方法
+     *
+     * @param redis 自动注入的StringRedisTemplate
+     */
+    @Autowired
+    public FailureCounter(StringRedisTemplate redis) {
+        this.redis = redis;
+
+        script = new DefaultRedisScript<>(ADD_SCRIPT, Long.class);
+    }
+
+    /**
+     * 以一次管道操作累加一批用户的失败次数
+     *
+     * @param failures 用户ID-新增失败次数
+     * @return 用户ID-累加后的失败次数(由脚本原子地返回,超过MAX_FAILURES即为锁定)
+     */
+    public Map<String, Integer> addAll(Map<String, Integer> failures) {
+        Map<String, Integer> counts = new HashMap<>(16);
+        if (failures.isEmpty()) {
+            return counts;
+        }
+
+        List<String> userIds = new ArrayList<>(failures.keySet());
+        List<Object> values = RedisScripts.execute(redis, ADD_SCRIPT, () -> add(userIds, failures));
+        for (int i = 0; i < userIds.size(); i++) {
+            counts.put(userIds.get(i), parse(values.get(i)));
+        }
+
+        return counts;
+    }
+
+    /**
+     * 失败次数是否已达到锁定条件
+     *
+     * @param count 失败次数
+     * @return 是否锁定
+     */
+    static boolean isLocked(int count) {
+        return count > MAX_FAILURES;
+    }
+
+    /**
+     * 清除失败计数(在TokenStore的管道操作中调用)
+     *
+     * @param conn   Redis连接
+     * @param userId 用户ID
+     */
+    void reset(StringRedisConnection conn, String userId) {
+        conn.del(KEY_PREFIX + userId);
+    }
+
+    /**
+     * 读取失败计数
+     *
+     * @param value 计数值
+     * @return 失败次数
+     */
+    static int parse(Object value) {
+        return value == null ? 0 : Integer.valueOf(value.toString());
+    }
+
+    /**
+     * 执行累加脚本
+     *
+     * @param userIds  用户ID集合(决定返回值的顺序)
+     * @param failures 用户ID-新增失败次数
+     * @return 各用户累加后的失败次数
+     */
+    private List<Object> add(List<String> userIds, Map<String, Integer> failures) {
+        String sha = script.getSha1();
+        String window = String.valueOf(WINDOW);
+        String max = String.valueOf(MAX_FAILURES);
+        return redis.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            userIds.forEach(i -> conn.evalSha(sha, ReturnType.INTEGER, 1, KEY_PREFIX + i, window, max, failures.get(i).toString()));
+            return null;
+        });
+    }
+}
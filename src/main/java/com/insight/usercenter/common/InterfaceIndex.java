@@ -0,0 +1,177 @@
+package com.insight.usercenter.common;
+
+import java.util.*;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/3/23
+ * @remark 功能接口URL索引(按路径段构建的前缀树),支持/users/{id}形式的模板路径段
+ */
+public class InterfaceIndex {
+    private static final int[] EMPTY = new int[0];
+
+    private final Node root = new Node();
+
+    /**
+     * 添加功能的接口URL
+     *
+     * @param interfaces 功能对应接口URL,多个接口URL以逗号分隔
+     * @param ordinal    功能序号
+     */
+    public void add(String interfaces, int ordinal) {
+        if (interfaces == null || interfaces.isEmpty()) {
+            return;
+        }
+
+        for (String url : interfaces.split(",")) {
+            String[] segments = split(url);
+            if (segments == null) {
+                continue;
+            }
+
+            Node node = root;
+            for (String segment : segments) {
+                node = isTemplate(segment) ? node.wildcard() : node.child(segment);
+            }
+
+            node.add(ordinal);
+        }
+    }
+
+    /**
+     * 查询与URL匹配的全部功能序号
+     *
+     * @param url 接口URL(可带协议、主机及查询参数)
+     * @return 功能序号集合
+     */
+    public int[] match(String url) {
+        String[] segments = split(url);
+        if (segments == null) {
+            return EMPTY;
+        }
+
+        Set<Integer> result = new LinkedHashSet<>();
+        match(root, segments, 0, result);
+        if (result.isEmpty()) {
+            return EMPTY;
+        }
+
+        int[] ordinals = new int[result.size()];
+        int i = 0;
+        for (Integer ordinal : result) {
+            ordinals[i++] = ordinal;
+        }
+
+        return ordinals;
+    }
+
+    /**
+     * 参数是否为接口URL
+     *
+     * @param value 功能ID、别名或接口URL
+     * @return 是否为接口URL
+     */
+    public static boolean isUrl(String value) {
+        return value != null && value.indexOf('/') >= 0;
+    }
+
+    /**
+     * 递归匹配路径段,优先匹配字面路径段,再匹配模板路径段
+     */
+    private static void match(Node node, String[] segments, int depth, Set<Integer> result) {
+        if (depth == segments.length) {
+            for (int ordinal : node.ordinals) {
+                result.add(ordinal);
+            }
+
+            return;
+        }
+
+        Node child = node.children == null ? null : node.children.get(segments[depth]);
+        if (child != null) {
+            match(child, segments, depth + 1, result);
+        }
+
+        if (node.wildcard != null) {
+            match(node.wildcard, segments, depth + 1, result);
+        }
+    }
+
+    /**
+     * 将URL拆分为路径段,去除协议、主机、查询参数及首尾的斜杠
+     *
+     * @param url 接口URL
+     * @return 路径段集合,无效URL返回null
+     */
+    private static String[] split(String url) {
+        if (url == null) {
+            return null;
+        }
+
+        String path = url.trim();
+        int index = path.indexOf("://");
+        if (index >= 0) {
+            int start = path.indexOf('/', index + 3);
+            path = start < 0 ? "" : path.substring(start);
+        }
+
+        index = path.indexOf('?');
+        if (index >= 0) {
+            path = path.substring(0, index);
+        }
+
+        index = path.indexOf('#');
+        if (index >= 0) {
+            path = path.substring(0, index);
+        }
+
+        List<String> segments = new ArrayList<>();
+        for (String segment : path.split("/")) {
+            if (!segment.isEmpty()) {
+                segments.add(segment);
+            }
+        }
+
+        return segments.isEmpty() ? null : segments.toArray(new String[0]);
+    }
+
+    private static boolean isTemplate(String segment) {
+        return segment.length() > 1 && segment.charAt(0) == '{' && segment.charAt(segment.length() - 1) == '}';
+    }
+
+    /**
+     * 前缀树节点
+     */
+    private static class Node {
+        private Map<String, Node> children;
+        private Node wildcard;
+        private int[] ordinals = EMPTY;
+
+        private Node child(String segment) {
+            if (children == null) {
+                children = new HashMap<>(4);
+            }
+
+            return children.computeIfAbsent(segment, k -> new Node());
+        }
+
+        private Node wildcard() {
+            if (wildcard == null) {
+                wildcard = new Node();
+            }
+
+            return wildcard;
+        }
+
+        private void add(int ordinal) {
+            for (int i : ordinals) {
+                if (i == ordinal) {
+                    return;
+                }
+            }
+
+            ordinals = Arrays.copyOf(ordinals, ordinals.length + 1);
+            ordinals[ordinals.length - 1] = ordinal;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.insight.usercenter.common;
+
+import com.insight.usercenter.common.entity.User;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/4/12
+ * @remark Redis键的有效期策略,按键的前缀划分键族。
+ * 本服务写入的缓存键必须有有效期,写入时按键族设置;早期版本写入的无有效期键由KeySweeper按此策略补设
+ */
+@Component
+public class KeyPolicy {
+    static final String ID_PREFIX = "ID:";
+    public static final String WECHAT_PREFIX = "WeChat:";
+    static final String TOKEN_LIFE_PREFIX = "TokenLife:";
+    static final String OTHER = "other";
+    static final String LEGACY = "legacy";
+    static final String LEGACY_CODE = "legacy-code";
+    static final String LEGACY_ID = "legacy-id";
+
+    /**
+     * 早期版本写入的WeChat用户信息键(we{unionId},UnionID为28位字母、数字、下划线或连字符)。
+     * 其他无前缀的键可能属于共用此库的其他服务,不作处理
+     */
+    private static final Pattern LEGACY_WECHAT_KEY = Pattern.compile("we[0-9A-Za-z_-]{28}");
+
+    /**
+     * 早期版本写入的无有效期的Code-用户ID键,键与值均为32位十六进制字符串
+     */
+    private static final Pattern HEX_32 = Pattern.compile("[0-9A-Fa-f]{32}");
+
+    /**
+     * 由其他组件自行管理有效期或清理的键族,只统计不补设有效期
+     */
+    private static final String[] MANAGED_PREFIXES = {TokenStore.SESSION_PREFIX, "Sessions:", FailureCounter.KEY_PREFIX,
+            OneTimeStore.PREFIX, "Lease:", "Sign:", "Revoked", "Warm:", AccountFilter.RECENT_KEY};
+
+    private final Map<String, Long> families;
+    private final long defaultSeconds;
+    private final long legacyUserSeconds;
+
+    /**
+     * 构造方法
+     *
+     * @param idSeconds         登录标识-用户ID缓存的有效秒数
+     * @param tokenSeconds      用户资料及会话状态的有效秒数(每次保存Token时延长)
+     * @param weChatSeconds     待绑定的微信用户信息的有效秒数
+     * @param tokenLifeSeconds  应用令牌生命周期缓存的有效秒数
+     * @param defaultSeconds    其他键的有效秒数
+     * @param legacyUserSeconds 早期版本写入的Code-用户ID及无前缀登录标识-用户ID键补设的有效秒数
+     */
+    @Autowired
+    public KeyPolicy(@Value("${key-policy.id-seconds:604800}") long idSeconds,
+                     @Value("${key-policy.token-seconds:2592000}") long tokenSeconds,
+                     @Value("${key-policy.wechat-seconds:1800}") long weChatSeconds,
+                     @Value("${key-policy.token-life-seconds:3600}") long tokenLifeSeconds,
+                     @Value("${key-policy.default-seconds:86400}") long defaultSeconds,
+                     @Value("${key-policy.legacy-user-seconds:300}") long legacyUserSeconds) {
+        this.defaultSeconds = defaultSeconds;
+        this.legacyUserSeconds = legacyUserSeconds;
+
+        families = new LinkedHashMap<>(16);
+        families.put(ID_PREFIX, idSeconds);
+        families.put(TokenStore.TOKEN_PREFIX, tokenSeconds);
+        families.put(TokenStore.STATE_PREFIX, tokenSeconds);
+        families.put(WECHAT_PREFIX, weChatSeconds);
+        families.put(TOKEN_LIFE_PREFIX, tokenLifeSeconds);
+    }
+
+    /**
+     * 获取写入指定键时应设置的有效秒数
+     *
+     * @param key 键
+     * @return 有效秒数
+     */
+    public long getSeconds(String key) {
+        for (Map.Entry<String, Long> entry : families.entrySet()) {
+            if (key.startsWith(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+
+        return defaultSeconds;
+    }
+
+    /**
+     * 获取用户资料及会话状态的有效毫秒数
+     *
+     * @return 有效毫秒数
+     */
+    public long getTokenMillis() {
+        return families.get(TokenStore.TOKEN_PREFIX) * 1000;
+    }
+
+    /**
+     * 获取无有效期的键应补设的有效秒数
+     *
+     * @param key  键
+     * @param type 键的类型
+     * @return 有效秒数,不属于本服务的缓存键时为null
+     */
+    public Long getLegacySeconds(String key, String type) {
+        String family = getFamily(key);
+        if (families.containsKey(family)) {
+            return families.get(family);
+        }
+
+        if (!LEGACY.equals(family) || !"string".equals(type)) {
+            return null;
+        }
+
+        return families.get(WECHAT_PREFIX);
+    }
+
+    /**
+     * 获取早期版本写入的用户ID键(legacy-code、legacy-id)应补设的有效秒数
+     *
+     * @return 有效秒数
+     */
+    public long getLegacyUserSeconds() {
+        return legacyUserSeconds;
+    }
+
+    /**
+     * 键是否可能为早期版本写入的用户ID键(无前缀、值为用户ID的字符串键),需读取值并核对用户表后确定
+     *
+     * @param key 键
+     * @return 是否可能为早期版本写入的用户ID键
+     */
+    public boolean isUserKeyCandidate(String key) {
+        return OTHER.equals(getFamily(key)) && key.indexOf(':') < 0;
+    }
+
+    /**
+     * 按键的值及用户数据确定早期版本写入的用户ID键的键族
+     *
+     * @param key   键
+     * @param value 值(用户ID)
+     * @param user  值对应的用户(不存在时为null)
+     * @return 键族(legacy-code、legacy-id),不属于本服务的键时为null
+     */
+    public String getUserKeyFamily(String key, String value, User user) {
+        if (user == null || value == null || !HEX_32.matcher(value).matches() || !value.equals(user.getId())) {
+            return null;
+        }
+
+        if (HEX_32.matcher(key).matches()) {
+            return LEGACY_CODE;
+        }
+
+        for (String identifier : new String[]{user.getAccount(), user.getMobile(), user.getEmail(), user.getOpenId()}) {
+            if (key.equals(identifier)) {
+                return LEGACY_ID;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * 获取键所属的键族
+     *
+     * @param key 键
+     * @return 键族(键的前缀、legacy或other)
+     */
+    public String getFamily(String key) {
+        for (String prefix : families.keySet()) {
+            if (key.startsWith(prefix)) {
+                return prefix;
+            }
+        }
+
+        for (String prefix : MANAGED_PREFIXES) {
+            if (key.startsWith(prefix)) {
+                return prefix;
+            }
+        }
+
+        if (LEGACY_WECHAT_KEY.matcher(key).matches()) {
+            return LEGACY;
+        }
+
+        return OTHER;
+    }
+}
@@ -0,0 +1,281 @@
+package com.insight.usercenter.common;
+
+import com.insight.usercenter.common.entity.User;
+import com.insight.usercenter.common.mapper.UserMapper;
+import com.insight.util.Generator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.DataType;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/4/12
+ * @remark 无有效期键的清理任务,按计划以SCAN分批遍历键空间,按KeyPolicy为本服务写入的无有效期键补设有效期。
+ * 每批之间暂停以限制对Redis的压力,任务在独立线程中执行,同一时刻只有持有租约(Lease:KeySweeper)的节点执行。
+ * 早期版本写入的无前缀用户ID键(Code-用户ID、登录标识-用户ID)须读取值并按批核对用户表,确认属于本服务后才补设有效期
+ */
+@Component
+public class KeySweeper {
+    private static final String LEASE_KEY = "Lease:KeySweeper";
+
+    /**
+     * 租约的最长持有时间(毫秒),节点异常退出后租约自动释放
+     */
+    private static final long LEASE_MILLIS = 1000 * 3600 * 6;
+
+    /**
+     * 读取一批键中长度为32的字符串值(用户ID),其他键返回空字符串
+     */
+    private static final String VALUE_SCRIPT = "local r = {} " +
+            "for i, k in ipairs(KEYS) do " +
+            "if redis.call('TYPE', k).ok == 'string' and redis.call('STRLEN', k) == 32 then r[i] = redis.call('GET', k) else r[i] = '' end " +
+            "end return r";
+
+    private final Logger logger;
+    private final StringRedisTemplate redis;
+    private final KeyPolicy keyPolicy;
+    private final UserMapper mapper;
+    private final DefaultRedisScript<List> script;
+    private final AtomicBoolean isRunning;
+    private final int batchSize;
+    private final long pauseMillis;
+
+    /**
+     * 构造方法
+     *
+     * @param redis       自动注入的StringRedisTemplate
+     * @param keyPolicy   自动注入的KeyPolicy
+     * @param mapper      自动注入的UserMapper
+     * @param batchSize   每批遍历的键数量
+     * @param pauseMillis 每批之间暂停的毫秒数
+     */
+    @Autowired
+    public KeySweeper(StringRedisTemplate redis, KeyPolicy keyPolicy, UserMapper mapper, @Value("${key-policy.sweep.batch-size:500}") int batchSize,
+                      @Value("${key-policy.sweep.pause-millis:100}") long pauseMillis) {
+        this.redis = redis;
+        this.keyPolicy = keyPolicy;
+        this.mapper = mapper;
+        this.batchSize = batchSize;
+        this.pauseMillis = pauseMillis;
+
+        script = new DefaultRedisScript<>(VALUE_SCRIPT, List.class);
+        isRunning = new AtomicBoolean();
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    /**
+     * 按计划启动清理任务
+     */
+    @Scheduled(cron = "${key-policy.sweep.cron:0 0 4 * * ?}")
+    public void schedule() {
+        if (!isRunning.compareAndSet(false, true)) {
+            return;
+        }
+
+        Thread thread = new Thread(() -> {
+            try {
+                sweep();
+            } finally {
+                isRunning.set(false);
+            }
+        }, "Key-Sweeper");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 遍历键空间,为无有效期的键补设有效期
+     *
+     * @return 补设有效期的键数量
+     */
+    public int sweep() {
+        String owner = Generator.uuid();
+        Boolean acquired = redis.execute((RedisCallback<Boolean>) connection -> ((StringRedisConnection) connection)
+                .set(LEASE_KEY, owner, Expiration.milliseconds(LEASE_MILLIS), RedisStringCommands.SetOption.ifAbsent()));
+        if (!Boolean.TRUE.equals(acquired)) {
+            return 0;
+        }
+
+        long start = System.currentTimeMillis();
+        int[] counts = new int[2];
+        try {
+            scan(batchSize, keys -> {
+                counts[0] += keys.size();
+                counts[1] += expire(keys);
+                return pause();
+            });
+
+            logger.info("已遍历" + counts[0] + "个键,为" + counts[1] + "个无有效期的键补设有效期,耗时" + (System.currentTimeMillis() - start) + "毫秒");
+        } catch (Exception ex) {
+            logger.error("清理无有效期的键失败:" + ex.getMessage());
+        } finally {
+            if (owner.equals(redis.opsForValue().get(LEASE_KEY))) {
+                redis.delete(LEASE_KEY);
+            }
+        }
+
+        return counts[1];
+    }
+
+    /**
+     * 以SCAN分批遍历键空间
+     *
+     * @param count    每批数量
+     * @param consumer 每批键的处理,返回是否继续遍历
+     */
+    void scan(int count, Predicate<List<String>> consumer) {
+        redis.execute((RedisCallback<Object>) connection -> {
+            try (Cursor<byte[]> cursor = connection.scan(ScanOptions.scanOptions().count(count).build())) {
+                List<String> keys = new ArrayList<>(count);
+                while (cursor.hasNext()) {
+                    keys.add(new String(cursor.next(), StandardCharsets.UTF_8));
+                    if (keys.size() < count) {
+                        continue;
+                    }
+
+                    if (!consumer.test(keys)) {
+                        return null;
+                    }
+
+                    keys = new ArrayList<>(count);
+                }
+
+                if (!keys.isEmpty()) {
+                    consumer.test(keys);
+                }
+            } catch (IOException ex) {
+                logger.error("关闭SCAN游标失败:" + ex.getMessage());
+            }
+
+            return null;
+        });
+    }
+
+    /**
+     * 以管道操作读取一批键的有效期及类型,为其中无有效期的本服务缓存键补设有效期
+     *
+     * @param keys 键集合
+     * @return 补设有效期的键数量
+     */
+    private int expire(List<String> keys) {
+        List<Object> values = redis.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            keys.forEach(i -> {
+                conn.pTtl(i);
+                conn.type(i);
+            });
+            return null;
+        });
+
+        List<String> expired = new ArrayList<>();
+        List<Long> seconds = new ArrayList<>();
+        List<String> candidates = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            Object ttl = values.get(i * 2);
+            if (ttl == null || Long.valueOf(ttl.toString()) != -1) {
+                continue;
+            }
+
+            Object type = values.get(i * 2 + 1);
+            Long value = keyPolicy.getLegacySeconds(keys.get(i), type instanceof DataType ? ((DataType) type).code() : String.valueOf(type));
+            if (value != null) {
+                expired.add(keys.get(i));
+                seconds.add(value);
+            } else if (keyPolicy.isUserKeyCandidate(keys.get(i))) {
+                candidates.add(keys.get(i));
+            }
+        }
+
+        for (String key : getUserKeyFamilies(candidates).keySet()) {
+            expired.add(key);
+            seconds.add(keyPolicy.getLegacyUserSeconds());
+        }
+
+        if (expired.isEmpty()) {
+            return 0;
+        }
+
+        redis.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (int i = 0; i < expired.size(); i++) {
+                conn.expire(expired.get(i), seconds.get(i));
+            }
+
+            return null;
+        });
+
+        return expired.size();
+    }
+
+    /**
+     * 确定一批键中早期版本写入的用户ID键:读取值为32位字符串的键,以一次查询核对值对应的用户
+     *
+     * @param keys 键集合
+     * @return 键-键族(legacy-code或legacy-id),只包含属于本服务的用户ID键
+     */
+    Map<String, String> getUserKeyFamilies(List<String> keys) {
+        List<String> candidates = keys.stream().filter(keyPolicy::isUserKeyCandidate).collect(Collectors.toList());
+        if (candidates.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        List<?> values = redis.execute(script, candidates);
+        Map<String, String> userIds = new HashMap<>(16);
+        for (int i = 0; i < candidates.size(); i++) {
+            Object value = values == null || i >= values.size() ? null : values.get(i);
+            if (value != null && !value.toString().isEmpty()) {
+                userIds.put(candidates.get(i), value.toString());
+            }
+        }
+
+        if (userIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        List<User> users = mapper.getUsersByIds(new ArrayList<>(new HashSet<>(userIds.values())));
+        Map<String, User> map = users == null ? Collections.emptyMap() : users.stream().collect(Collectors.toMap(User::getId, i -> i, (a, b) -> a));
+        Map<String, String> families = new HashMap<>(16);
+        userIds.forEach((key, userId) -> {
+            String family = keyPolicy.getUserKeyFamily(key, userId, map.get(userId));
+            if (family != null) {
+                families.put(key, family);
+            }
+        });
+
+        return families;
+    }
+
+    /**
+     * 每批之间暂停
+     *
+     * @return 是否继续遍历
+     */
+    boolean pause() {
+        try {
+            Thread.sleep(pauseMillis);
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.insight.usercenter.common;
+
+import com.insight.usercenter.common.dto.KeyFamilyStats;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/4/12
+ * @remark Redis键空间分析端点(/actuator/keyspace,管理端口),以SCAN抽样并用MEMORY USAGE统计各键族的键数量、内存字节数及剩余有效期分布,
+ * 按抽样比例估算整个库的数量,用于评估Redis容量及发现无有效期的键。
+ * 早期版本写入的无前缀用户ID键按值核对用户表后单独统计为legacy-code(Code-用户ID)及legacy-id(登录标识-用户ID)
+ */
+@Component
+@Endpoint(id = "keyspace")
+public class KeyspaceEndpoint {
+    private static final int BATCH_SIZE = 100;
+    private static final int DEFAULT_SAMPLE = 10000;
+    private static final int MAX_SAMPLE = 100000;
+
+    /**
+     * 读取一批键的剩余有效期(毫秒)及内存字节数
+     */
+    private static final String SAMPLE_SCRIPT = "local r = {} " +
+            "for i, k in ipairs(KEYS) do " +
+            "r[#r + 1] = redis.call('PTTL', k) " +
+            "r[#r + 1] = redis.call('MEMORY', 'USAGE', k) or 0 " +
+            "end return r";
+
+    /**
+     * 有效期分布区间的上限(毫秒)及名称,第一个区间为无有效期
+     */
+    private static final long[] TTL_BOUNDS = {60 * 1000L, 3600 * 1000L, 24 * 3600 * 1000L, 7 * 24 * 3600 * 1000L};
+    private static final String[] TTL_NAMES = {"none", "<1m", "<1h", "<1d", "<7d", ">=7d"};
+
+    private final StringRedisTemplate redis;
+    private final KeyPolicy keyPolicy;
+    private final KeySweeper sweeper;
+    private final DefaultRedisScript<List> script;
+
+    /**
+     * 构造方法
+     *
+     * @param redis     自动注入的StringRedisTemplate
+     * @param keyPolicy 自动注入的KeyPolicy
+     * @param sweeper   自动注入的KeySweeper
+     */
+    @Autowired
+    public KeyspaceEndpoint(StringRedisTemplate redis, KeyPolicy keyPolicy, KeySweeper sweeper) {
+        this.redis = redis;
+        this.keyPolicy = keyPolicy;
+        this.sweeper = sweeper;
+
+        script = new DefaultRedisScript<>(SAMPLE_SCRIPT, List.class);
+    }
+
+    /**
+     * 抽样统计键空间
+     *
+     * @param sample 抽样的键数量(默认10000,最多100000),每批之间按KeySweeper的设置暂停
+     * @return 库的键总数、抽样数量及各键族的统计(按估算的内存字节数降序)
+     */
+    @ReadOperation
+    public Map<String, Object> keyspace(@Nullable Integer sample) {
+        int limit = sample == null || sample <= 0 ? DEFAULT_SAMPLE : Math.min(sample, MAX_SAMPLE);
+        Long dbSize = redis.execute((RedisCallback<Long>) connection -> connection.dbSize());
+        Map<String, Accumulator> families = new HashMap<>(16);
+        long[] sampled = new long[1];
+        sweeper.scan(BATCH_SIZE, keys -> {
+            List<?> values = redis.execute(script, keys);
+            Map<String, String> userKeys = sweeper.getUserKeyFamilies(keys);
+            for (int i = 0; i < keys.size(); i++) {
+                long ttl = Long.valueOf(values.get(i * 2).toString());
+                if (ttl == -2) {
+                    continue;
+                }
+
+                String family = userKeys.getOrDefault(keys.get(i), keyPolicy.getFamily(keys.get(i)));
+                Accumulator accumulator = families.computeIfAbsent(family, k -> new Accumulator());
+                accumulator.add(ttl, Long.valueOf(values.get(i * 2 + 1).toString()));
+                sampled[0]++;
+            }
+
+            return sampled[0] < limit && sweeper.pause();
+        });
+
+        double ratio = sampled[0] == 0 || dbSize == null ? 0 : (double) dbSize / sampled[0];
+        List<KeyFamilyStats> list = new ArrayList<>(families.size());
+        families.forEach((k, v) -> list.add(v.toStats(k, ratio)));
+        list.sort(Comparator.comparing(KeyFamilyStats::getEstimatedBytes).reversed());
+
+        Map<String, Object> result = new LinkedHashMap<>(16);
+        result.put("dbSize", dbSize);
+        result.put("sampledKeys", sampled[0]);
+        result.put("families", list);
+
+        return result;
+    }
+
+    /**
+     * 键族的抽样累计
+     */
+    private static class Accumulator {
+        private final long[] ttl = new long[TTL_NAMES.length];
+        private long keys;
+        private long bytes;
+
+        private void add(long millis, long size) {
+            keys++;
+            bytes += size;
+            if (millis < 0) {
+                ttl[0]++;
+                return;
+            }
+
+            int index = 0;
+            while (index < TTL_BOUNDS.length && millis >= TTL_BOUNDS[index]) {
+                index++;
+            }
+
+            ttl[index + 1]++;
+        }
+
+        private KeyFamilyStats toStats(String family, double ratio) {
+            Map<String, Long> map = new LinkedHashMap<>(16);
+            for (int i = 0; i < TTL_NAMES.length; i++) {
+                map.put(TTL_NAMES[i], ttl[i]);
+            }
+
+            KeyFamilyStats stats = new KeyFamilyStats();
+            stats.setFamily(family);
+            stats.setSampledKeys(keys);
+            stats.setSampledBytes(bytes);
+            stats.setEstimatedKeys(Math.round(keys * ratio));
+            stats.setEstimatedBytes(Math.round(bytes * ratio));
+            stats.setTtl(map);
+
+            return stats;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.insight.usercenter.common;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/4/11
+ * @remark 一次性凭据存储(签名-Code、Code-用户ID、短信验证码、图形验证答案、已使用的登录签名),
+ * 键按用途保存在OneTime:{用途}:{键}中,每个凭据必须设置有效期,使用时以一次Lua脚本原子地读取并删除
+ */
+@Component
+public class OneTimeStore {
+    static final String PREFIX = "OneTime:";
+
+    /**
+     * 读取并删除,凭据只能被使用一次
+     */
+    private static final String CONSUME_SCRIPT = "local v = redis.call('GET', KEYS[1]) if v then redis.call('DEL', KEYS[1]) end return v";
+
+    private final StringRedisTemplate redis;
+    private final DefaultRedisScript<String> consume;
+
+    /**
+     * 凭据用途
+     */
+    public enum Purpose {
+        /**
+         * 签名-Code
+         */
+        SIGNATURE("Sign"),
+
+        /**
+         * Code-用户ID
+         */
+        CODE("Code"),
+
+        /**
+         * 短信验证码
+         */
+        SMS("Sms"),
+
+        /**
+         * 图形验证答案-手机号
+         */
+        PIC("Pic"),
+
+        /**
+         * 客户端标识-最近一次图形验证答案
+         */
+        PIC_LAST("PicLast"),
+
+        /**
+         * 已使用的一次性登录签名
+         */
+        NONCE("Nonce");
+
+        private final String name;
+
+        Purpose(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * 构造方法
+     *
+     * @param redis 自动注入的StringRedisTemplate
+     */
+    @Autowired
+    public OneTimeStore(StringRedisTemplate redis) {
+        this.redis = redis;
+
+        consume = new DefaultRedisScript<>(CONSUME_SCRIPT, String.class);
+    }
+
+    /**
+     * 签发一次性凭据
+     *
+     * @param purpose 用途
+     * @param key     键
+     * @param value   值
+     * @param timeout 有效时长(必须大于0)
+     * @param unit    时长单位
+     */
+    public void issue(Purpose purpose, String key, String value, long timeout, TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("一次性凭据必须设置有效期");
+        }
+
+        redis.opsForValue().set(getKey(purpose, key), value, timeout, unit);
+    }
+
+    /**
+     * 占用一次性凭据,有效期内同一凭据只能占用一次
+     *
+     * @param purpose 用途
+     * @param key     键
+     * @param timeout 有效时长(必须大于0)
+     * @param unit    时长单位
+     * @return 是否占用成功(凭据已被占用时为false)
+     */
+    public boolean claim(Purpose purpose, String key, long timeout, TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("一次性凭据必须设置有效期");
+        }
+
+        String name = getKey(purpose, key);
+        return Boolean.TRUE.equals(redis.execute((RedisCallback<Boolean>) connection -> ((StringRedisConnection) connection)
+                .set(name, "", Expiration.from(timeout, unit), RedisStringCommands.SetOption.ifAbsent())));
+    }
+
+    /**
+     * 读取凭据,凭据保持有效
+     *
+     * @param purpose 用途
+     * @param key     键
+     * @return 值(凭据不存在或已过期时为null)
+     */
+    public String peek(Purpose purpose, String key) {
+        return key == null ? null : redis.opsForValue().get(getKey(purpose, key));
+    }
+
+    /**
+     * 使用凭据,读取后立即失效,并发使用时只有一方能取得值
+     *
+     * @param purpose 用途
+     * @param key     键
+     * @return 值(凭据不存在、已过期或已被使用时为null)
+     */
+    public String consume(Purpose purpose, String key) {
+        return key == null ? null : redis.execute(consume, Collections.singletonList(getKey(purpose, key)));
+    }
+
+    /**
+     * 删除凭据
+     *
+     * @param purpose 用途
+     * @param key     键
+     */
+    public void remove(Purpose purpose, String key) {
+        if (key != null) {
+            redis.delete(getKey(purpose, key));
+        }
+    }
+
+    private static String getKey(Purpose purpose, String key) {
+        return PREFIX + purpose.name + ":" + key;
+    }
+}
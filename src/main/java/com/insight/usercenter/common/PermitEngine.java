@@ -0,0 +1,520 @@
+package com.insight.usercenter.common;
+
+import com.insight.usercenter.common.entity.Function;
+import com.insight.usercenter.common.entity.RoleAction;
+import com.insight.usercenter.common.mapper.AuthMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/3/22
+ * @remark 内存鉴权引擎,将功能映射为连续序号,以位图保存各角色的授权数据
+ */
+@Component
+public class PermitEngine implements MessageListener {
+    private static final String CHANNEL = "usercenter:permit:refresh";
+    private static final String ROLE_PREFIX = "role:";
+    private static final String CATALOG = "catalog";
+    private static final int MAX_SNAPSHOTS = 4096;
+
+    private final Logger logger;
+    private final StringRedisTemplate redis;
+    private final AuthMapper mapper;
+
+    /**
+     * 功能ID-序号映射,序号分配后不再变化,以保证角色位图始终有效
+     */
+    private final Map<String, Integer> ordinals;
+    private final AtomicInteger sequence;
+
+    /**
+     * 角色ID-授权位图映射
+     */
+    private final Map<String, RoleBits> roles;
+
+    /**
+     * 授权数据版本,功能目录或角色授权变化时递增
+     */
+    private final AtomicLong version;
+
+    /**
+     * 角色集合-有效授权快照映射,授权数据版本变化后失效
+     */
+    private final Map<String, Snapshot> snapshots;
+
+    /**
+     * 功能目录快照,功能变化时整体替换
+     */
+    private volatile Catalog catalog;
+
+    /**
+     * 构造方法
+     *
+     * @param redis     自动注入的StringRedisTemplate
+     * @param container 自动注入的RedisMessageListenerContainer
+     * @param mapper    自动注入的AuthMapper
+     */
+    @Autowired
+    public PermitEngine(StringRedisTemplate redis, RedisMessageListenerContainer container, AuthMapper mapper) {
+        this.redis = redis;
+        this.mapper = mapper;
+
+        ordinals = new ConcurrentHashMap<>(1024);
+        sequence = new AtomicInteger();
+        roles = new ConcurrentHashMap<>(1024);
+        version = new AtomicLong();
+        snapshots = new ConcurrentHashMap<>(MAX_SNAPSHOTS);
+        logger = LoggerFactory.getLogger(this.getClass());
+
+        container.addMessageListener(this, new ChannelTopic(CHANNEL));
+    }
+
+    /**
+     * 指定的功能是否授权给角色集合(任一角色拒绝则拒绝)
+     *
+     * @param roleIds  角色ID集合
+     * @param function 功能ID、别名或功能对应接口URL
+     * @return 功能是否授权
+     */
+    public Boolean isPermit(Collection<String> roleIds, String function) {
+        Catalog current = getCatalog();
+        long[] permits = getPermits(roleIds);
+
+        int[] matches = current.keys.get(function);
+        if (matches != null && containsAny(permits, matches)) {
+            return true;
+        }
+
+        // 按接口URL匹配
+        return InterfaceIndex.isUrl(function) && containsAny(permits, current.routes.match(function));
+    }
+
+    /**
+     * 计算角色集合的有效授权位图(允许位图的并集去除拒绝位图的并集)
+     *
+     * @param roleIds 角色ID集合
+     * @return 有效授权位图
+     */
+    public long[] getPermits(Collection<String> roleIds) {
+        return getGrant(roleIds).permits;
+    }
+
+    /**
+     * 计算角色集合的授权数据
+     *
+     * @param roleIds 角色ID集合
+     * @return 授权数据
+     */
+    public Grant getGrant(Collection<String> roleIds) {
+        getCatalog();
+
+        long[] allow = new long[0];
+        long[] deny = new long[0];
+        if (roleIds != null) {
+            for (String roleId : roleIds) {
+                RoleBits bits = roles.get(roleId);
+                if (bits == null) {
+                    continue;
+                }
+
+                allow = or(allow, bits.allow);
+                deny = or(deny, bits.deny);
+            }
+        }
+
+        long[] permits = Arrays.copyOf(allow, allow.length);
+        for (int i = 0; i < permits.length && i < deny.length; i++) {
+            permits[i] &= ~deny[i];
+        }
+
+        return new Grant(allow, deny, permits);
+    }
+
+    /**
+     * 获取功能的授权情况,与SQL中min(action)的语义一致
+     *
+     * @param grant      授权数据
+     * @param functionId 功能ID
+     * @return 授权情况(true:已授权,false:已拒绝,null:未授权)
+     */
+    public Boolean getAction(Grant grant, String functionId) {
+        Integer ordinal = ordinals.get(functionId);
+        if (ordinal == null) {
+            return null;
+        }
+
+        int[] index = {ordinal};
+        if (containsAny(grant.deny, index)) {
+            return false;
+        }
+
+        return containsAny(grant.allow, index) ? true : null;
+    }
+
+    /**
+     * 获取角色集合已授权的全部功能ID及别名
+     *
+     * @param roleIds 角色ID集合
+     * @return 有效授权快照
+     */
+    public Snapshot getSnapshot(Collection<String> roleIds) {
+        long current = version.get();
+        String key = roleIds == null ? "" : String.join(",", new TreeSet<>(roleIds));
+        Snapshot snapshot = snapshots.get(key);
+        if (snapshot != null && snapshot.version == current) {
+            return snapshot;
+        }
+
+        Catalog loaded = getCatalog();
+        long[] permits = getPermits(roleIds);
+        Set<String> ids = new TreeSet<>();
+        Set<String> aliases = new TreeSet<>();
+        for (Function function : loaded.functions) {
+            if (!containsAny(permits, new int[]{ordinals.get(function.getId())})) {
+                continue;
+            }
+
+            ids.add(function.getId());
+            if (function.getAlias() != null && !function.getAlias().isEmpty()) {
+                aliases.add(function.getAlias());
+            }
+        }
+
+        snapshot = new Snapshot(current, new ArrayList<>(ids), new ArrayList<>(aliases));
+        if (snapshots.size() >= MAX_SNAPSHOTS) {
+            snapshots.clear();
+        }
+
+        snapshots.put(key, snapshot);
+        return snapshot;
+    }
+
+    /**
+     * 获取授权数据版本
+     *
+     * @return 授权数据版本
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * 角色授权变更后刷新该角色的位图(事务提交后执行,并通知其他节点)
+     *
+     * @param roleId 角色ID
+     */
+    public void onRoleChanged(String roleId) {
+        TransactionHelper.afterCommit(() -> {
+            refreshRole(roleId);
+            publish(ROLE_PREFIX + roleId);
+        });
+    }
+
+    /**
+     * 功能变更后刷新功能目录(事务提交后执行,并通知其他节点)
+     */
+    public void onFunctionChanged() {
+        TransactionHelper.afterCommit(() -> {
+            refreshCatalog();
+            publish(CATALOG);
+        });
+    }
+
+    /**
+     * 接收其他节点的刷新通知
+     *
+     * @param message 消息
+     * @param pattern 订阅模式
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        if (catalog == null) {
+            return;
+        }
+
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (body.startsWith(ROLE_PREFIX)) {
+            refreshRole(body.substring(ROLE_PREFIX.length()));
+        } else if (CATALOG.equals(body)) {
+            refreshCatalog();
+        }
+    }
+
+    /**
+     * 获取功能目录,首次调用时加载全部功能和授权数据
+     *
+     * @return 功能目录
+     */
+    private Catalog getCatalog() {
+        Catalog current = catalog;
+        if (current != null) {
+            return current;
+        }
+
+        synchronized (this) {
+            if (catalog != null) {
+                return catalog;
+            }
+
+            Catalog loaded = buildCatalog(mapper.getFunctionCatalog());
+            Map<String, List<RoleAction>> map = new HashMap<>(1024);
+            mapper.getRoleActions().forEach(i -> map.computeIfAbsent(i.getRoleId(), k -> new ArrayList<>()).add(i));
+            map.forEach((k, v) -> roles.put(k, buildBits(v)));
+
+            catalog = loaded;
+            logger.info("鉴权引擎已加载" + ordinals.size() + "个功能、" + roles.size() + "个角色的授权数据");
+
+            return loaded;
+        }
+    }
+
+    /**
+     * 重新加载指定角色的授权数据
+     *
+     * @param roleId 角色ID
+     */
+    private void refreshRole(String roleId) {
+        if (catalog == null) {
+            return;
+        }
+
+        List<RoleAction> actions = mapper.getRoleActionsByRoleId(roleId);
+        if (actions == null || actions.isEmpty()) {
+            roles.remove(roleId);
+        } else {
+            roles.put(roleId, buildBits(actions));
+        }
+
+        version.incrementAndGet();
+    }
+
+    /**
+     * 重新加载功能目录
+     */
+    private synchronized void refreshCatalog() {
+        if (catalog == null) {
+            return;
+        }
+
+        catalog = buildCatalog(mapper.getFunctionCatalog());
+        version.incrementAndGet();
+    }
+
+    /**
+     * 根据功能数据构建功能目录
+     *
+     * @param functions 功能集合
+     * @return 功能目录
+     */
+    private Catalog buildCatalog(List<Function> functions) {
+        Map<String, int[]> keys = new HashMap<>(functions.size() * 4);
+        functions.forEach(i -> {
+            int ordinal = ordinal(i.getId());
+            append(keys, i.getId(), ordinal);
+            if (i.getAlias() != null && !i.getAlias().isEmpty()) {
+                append(keys, i.getAlias(), ordinal);
+            }
+        });
+
+        InterfaceIndex routes = new InterfaceIndex();
+        functions.forEach(i -> routes.add(i.getInterfaces(), ordinals.get(i.getId())));
+
+        return new Catalog(functions, keys, routes);
+    }
+
+    /**
+     * 根据授权记录构建角色位图
+     *
+     * @param actions 授权记录集合
+     * @return 角色位图
+     */
+    private RoleBits buildBits(List<RoleAction> actions) {
+        int words = (sequence.get() + actions.size() + 63) / 64;
+        long[] allow = new long[words];
+        long[] deny = new long[words];
+        for (RoleAction action : actions) {
+            int ordinal = ordinal(action.getFunctionId());
+            if (ordinal / 64 >= words) {
+                words = ordinal / 64 + 1;
+                allow = Arrays.copyOf(allow, words);
+                deny = Arrays.copyOf(deny, words);
+            }
+
+            long[] bits = Boolean.TRUE.equals(action.getAction()) ? allow : deny;
+            bits[ordinal / 64] |= 1L << (ordinal % 64);
+        }
+
+        return new RoleBits(allow, deny);
+    }
+
+    /**
+     * 获取功能ID对应的序号,不存在时分配新序号
+     *
+     * @param functionId 功能ID
+     * @return 序号
+     */
+    private int ordinal(String functionId) {
+        return ordinals.computeIfAbsent(functionId, k -> sequence.getAndIncrement());
+    }
+
+    /**
+     * 发布刷新通知
+     *
+     * @param body 消息内容
+     */
+    private void publish(String body) {
+        try {
+            redis.convertAndSend(CHANNEL, body);
+        } catch (Exception ex) {
+            logger.error("发布鉴权数据刷新通知失败:" + ex.getMessage());
+        }
+    }
+
+    private static void append(Map<String, int[]> map, String key, int ordinal) {
+        int[] list = map.get(key);
+        if (list == null) {
+            map.put(key, new int[]{ordinal});
+            return;
+        }
+
+        int[] merged = Arrays.copyOf(list, list.length + 1);
+        merged[list.length] = ordinal;
+        map.put(key, merged);
+    }
+
+    private static long[] or(long[] target, long[] source) {
+        long[] result = target.length >= source.length ? target : Arrays.copyOf(target, source.length);
+        for (int i = 0; i < source.length; i++) {
+            result[i] |= source[i];
+        }
+
+        return result;
+    }
+
+    private static boolean containsAny(long[] bits, int[] ordinals) {
+        for (int ordinal : ordinals) {
+            int index = ordinal / 64;
+            if (index < bits.length && (bits[index] & (1L << (ordinal % 64))) != 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * 功能目录快照
+     */
+    private static class Catalog {
+
+        /**
+         * 全部功能
+         */
+        private final List<Function> functions;
+
+        /**
+         * 功能ID/别名-序号映射
+         */
+        private final Map<String, int[]> keys;
+
+        /**
+         * 功能接口URL索引
+         */
+        private final InterfaceIndex routes;
+
+        private Catalog(List<Function> functions, Map<String, int[]> keys, InterfaceIndex routes) {
+            this.functions = functions;
+            this.keys = keys;
+            this.routes = routes;
+        }
+    }
+
+    /**
+     * 角色集合的授权数据
+     */
+    public static class Grant {
+
+        /**
+         * 允许位图的并集
+         */
+        private final long[] allow;
+
+        /**
+         * 拒绝位图的并集
+         */
+        private final long[] deny;
+
+        /**
+         * 有效授权位图
+         */
+        private final long[] permits;
+
+        private Grant(long[] allow, long[] deny, long[] permits) {
+            this.allow = allow;
+            this.deny = deny;
+            this.permits = permits;
+        }
+    }
+
+    /**
+     * 角色集合的有效授权快照
+     */
+    public static class Snapshot {
+
+        /**
+         * 快照对应的授权数据版本
+         */
+        private final long version;
+
+        /**
+         * 已授权的功能ID集合(有序)
+         */
+        private final List<String> functions;
+
+        /**
+         * 已授权的功能别名集合(有序)
+         */
+        private final List<String> aliases;
+
+        private Snapshot(long version, List<String> functions, List<String> aliases) {
+            this.version = version;
+            this.functions = Collections.unmodifiableList(functions);
+            this.aliases = Collections.unmodifiableList(aliases);
+        }
+
+        public List<String> getFunctions() {
+            return functions;
+        }
+
+        public List<String> getAliases() {
+            return aliases;
+        }
+    }
+
+    /**
+     * 角色授权位图
+     */
+    private static class RoleBits {
+        private final long[] allow;
+        private final long[] deny;
+
+        private RoleBits(long[] allow, long[] deny) {
+            this.allow = allow;
+            this.deny = deny;
+        }
+    }
+}
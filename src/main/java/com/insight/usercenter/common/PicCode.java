@@ -3,7 +3,6 @@ package com.insight.usercenter.common;
 import com.insight.util.Util;
 import com.insight.util.common.Base64Encryptor;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
 import javax.imageio.ImageIO;
@@ -21,11 +20,16 @@ import java.util.concurrent.TimeUnit;
  */
 @Component()
 public class PicCode {
-    private final StringRedisTemplate redis;
+    private final OneTimeStore store;
 
+    /**
+     * 构造方法
+     *
+     * @param store 自动注入的OneTimeStore
+     */
     @Autowired
-    public PicCode(StringRedisTemplate redis) {
-        this.redis = redis;
+    public PicCode(OneTimeStore store) {
+        this.store = store;
     }
 
     /**
@@ -109,16 +113,13 @@ public class PicCode {
         buffImg.flush();
         g.dispose();
 
-        // 用手机号和验证答案的Hash值作为Key,手机号为Value,保存到Redis
+        // 用手机号和验证答案的Hash值作为Key,手机号为Value,保存到Redis,同一客户端之前的验证答案失效
         String key = Util.md5(mobile + randomCode);
         String parentKey = Util.md5(fingerprint + "pic");
-        String lastKey = redis.opsForValue().get(parentKey);
-        if (lastKey != null && !lastKey.isEmpty() && redis.hasKey(lastKey)) {
-            redis.delete(lastKey);
-        }
+        store.remove(OneTimeStore.Purpose.PIC, store.consume(OneTimeStore.Purpose.PIC_LAST, parentKey));
 
-        redis.opsForValue().set(key, mobile, 5, TimeUnit.MINUTES);
-        redis.opsForValue().set(parentKey, key, 5, TimeUnit.MINUTES);
+        store.issue(OneTimeStore.Purpose.PIC, key, mobile, 5, TimeUnit.MINUTES);
+        store.issue(OneTimeStore.Purpose.PIC_LAST, parentKey, key, 5, TimeUnit.MINUTES);
 
         // 返回Base64编码的验证问题图片
         ByteArrayOutputStream output = new ByteArrayOutputStream();
@@ -127,4 +128,24 @@ public class PicCode {
 
         return Base64Encryptor.encode(output.toByteArray());
     }
+
+    /**
+     * 验证图形验证答案(验证后答案仍然有效)
+     *
+     * @param key 手机号+验证答案的Hash值
+     * @return 是否通过验证
+     */
+    public boolean verify(String key) {
+        return store.peek(OneTimeStore.Purpose.PIC, key) != null;
+    }
+
+    /**
+     * 使用图形验证答案,答案使用后失效
+     *
+     * @param key 手机号+验证答案的Hash值
+     * @return 手机号(答案不存在、已过期或已被使用时为null)
+     */
+    public String consume(String key) {
+        return store.consume(OneTimeStore.Purpose.PIC, key);
+    }
 }
@@ -0,0 +1,57 @@
+package com.insight.usercenter.common;
+
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/4/6
+ * @remark 以EVALSHA执行Lua脚本的辅助方法,Redis重启或脚本缓存被清空后重新加载脚本并重试
+ */
+final class RedisScripts {
+    private static final String NO_SCRIPT = "NOSCRIPT";
+
+    private RedisScripts() {
+    }
+
+    /**
+     * 执行使用EVALSHA的操作
+     *
+     * @param redis  StringRedisTemplate
+     * @param script 脚本内容
+     * @param action 使用EVALSHA的操作
+     * @param <T>    返回值类型
+     * @return 操作结果
+     */
+    static <T> T execute(StringRedisTemplate redis, String script, Supplier<T> action) {
+        try {
+            return action.get();
+        } catch (RuntimeException ex) {
+            if (!isNoScript(ex)) {
+                throw ex;
+            }
+
+            redis.execute((RedisCallback<String>) connection -> connection.scriptLoad(script.getBytes(StandardCharsets.UTF_8)));
+            return action.get();
+        }
+    }
+
+    /**
+     * 异常是否由脚本未加载引起
+     *
+     * @param ex 异常
+     * @return 是否脚本未加载
+     */
+    private static boolean isNoScript(Throwable ex) {
+        for (Throwable i = ex; i != null; i = i.getCause()) {
+            if (i.getMessage() != null && i.getMessage().contains(NO_SCRIPT)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,210 @@
+package com.insight.usercenter.common;
+
+import com.insight.usercenter.common.dto.TokenClaims;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/4/3
+ * @remark 签名访问令牌的吊销列表,各节点在本地保存并通过Redis消息同步。
+ * 吊销记录同时保存在有序集合Revoked中(分值为吊销时间),节点启动时加载;
+ * 超过签名访问令牌最长有效期的记录已无意义,定期清理。
+ * 按用户吊销时比较的是各节点的时钟,签发时间早于吊销时间加时钟偏差余量的令牌均视为已吊销;
+ * 吊销后新签发的令牌,其签发时间记为不早于吊销时间加余量,以免被误判为已吊销
+ */
+@Component
+public class RevocationList implements MessageListener {
+    private static final String CHANNEL = "usercenter:token:revoke";
+    private static final String KEY = "Revoked";
+    private static final String TOKEN_PREFIX = "t:";
+    private static final String USER_PREFIX = "u:";
+    private static final String SEPARATOR = "|";
+    private static final String DELIMITER = ",";
+
+    private final Logger logger;
+    private final StringRedisTemplate redis;
+    private final Map<String, Long> tokens;
+    private final Map<String, Long> users;
+    private final long maxLife;
+    private final long skewMillis;
+
+    /**
+     * 构造方法
+     *
+     * @param redis      自动注入的StringRedisTemplate
+     * @param container  自动注入的RedisMessageListenerContainer
+     * @param signer     自动注入的TokenSigner
+     * @param skewMillis 节点间时钟偏差的余量(毫秒)
+     */
+    @Autowired
+    public RevocationList(StringRedisTemplate redis, RedisMessageListenerContainer container, TokenSigner signer,
+                          @Value("${token.revocation.skew-millis:5000}") long skewMillis) {
+        this.redis = redis;
+        this.skewMillis = skewMillis;
+
+        maxLife = signer.getMaxLife();
+        tokens = new ConcurrentHashMap<>(16);
+        users = new ConcurrentHashMap<>(16);
+        logger = LoggerFactory.getLogger(this.getClass());
+
+        container.addMessageListener(this, new ChannelTopic(CHANNEL));
+        load();
+    }
+
+    /**
+     * 签名访问令牌是否已被吊销
+     *
+     * @param claims 令牌声明
+     * @return 是否已被吊销
+     */
+    public boolean isRevoked(TokenClaims claims) {
+        if (tokens.containsKey(claims.getTokenId())) {
+            return true;
+        }
+
+        Long time = users.get(claims.getUserId());
+        return time != null && claims.getIssuedAt() != null && claims.getIssuedAt() < time + skewMillis;
+    }
+
+    /**
+     * 获取新签发令牌的签发时间,用户在余量时间内被吊销过时推后至吊销时间加余量
+     *
+     * @param userId 用户ID
+     * @param now    当前时间
+     * @return 签发时间
+     */
+    public long getIssuedAt(String userId, long now) {
+        Long time = users.get(userId);
+        return time == null ? now : Math.max(now, time + skewMillis);
+    }
+
+    /**
+     * 吊销指定的令牌
+     *
+     * @param tokenId 令牌ID
+     */
+    public void revokeToken(String tokenId) {
+        revoke(Collections.singletonList(TOKEN_PREFIX + tokenId));
+    }
+
+    /**
+     * 吊销一批令牌
+     *
+     * @param tokenIds 令牌ID集合
+     */
+    public void revokeTokens(Collection<String> tokenIds) {
+        if (tokenIds == null || tokenIds.isEmpty()) {
+            return;
+        }
+
+        List<String> members = new ArrayList<>(tokenIds.size());
+        tokenIds.forEach(i -> members.add(TOKEN_PREFIX + i));
+        revoke(members);
+    }
+
+    /**
+     * 吊销用户在此之前签发的全部令牌
+     *
+     * @param userId 用户ID
+     */
+    public void revokeUser(String userId) {
+        revoke(Collections.singletonList(USER_PREFIX + userId));
+    }
+
+    /**
+     * 接收吊销通知
+     *
+     * @param message 消息
+     * @param pattern 订阅模式
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        for (String item : body.split(DELIMITER)) {
+            int index = item.lastIndexOf(SEPARATOR);
+            if (index > 0) {
+                apply(item.substring(0, index), Long.valueOf(item.substring(index + 1)));
+            }
+        }
+    }
+
+    /**
+     * 按计划清理超过签名访问令牌最长有效期的吊销记录
+     */
+    @Scheduled(fixedDelayString = "${token.revocation.sweep-millis:60000}")
+    public void sweep() {
+        long expired = System.currentTimeMillis() - maxLife - skewMillis;
+        tokens.values().removeIf(i -> i < expired);
+        users.values().removeIf(i -> i < expired);
+        redis.opsForZSet().removeRangeByScore(KEY, 0, expired);
+    }
+
+    /**
+     * 记录吊销并通知各节点
+     *
+     * @param members 吊销成员集合
+     */
+    private void revoke(List<String> members) {
+        long now = System.currentTimeMillis();
+        members.forEach(i -> apply(i, now));
+
+        StringJoiner joiner = new StringJoiner(DELIMITER);
+        members.forEach(i -> joiner.add(i + SEPARATOR + now));
+        try {
+            redis.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                members.forEach(i -> conn.zAdd(KEY, now, i));
+                conn.publish(CHANNEL, joiner.toString());
+                return null;
+            });
+        } catch (Exception ex) {
+            logger.error("发布令牌吊销通知失败:" + ex.getMessage());
+        }
+    }
+
+    /**
+     * 加载有效期内的吊销记录
+     */
+    private void load() {
+        try {
+            long now = System.currentTimeMillis();
+            Set<ZSetOperations.TypedTuple<String>> set = redis.opsForZSet().rangeByScoreWithScores(KEY, now - maxLife - skewMillis, Double.MAX_VALUE);
+            if (set != null) {
+                set.forEach(i -> apply(i.getValue(), i.getScore().longValue()));
+            }
+        } catch (Exception ex) {
+            logger.error("加载令牌吊销记录失败:" + ex.getMessage());
+        }
+    }
+
+    /**
+     * 写入本地吊销记录
+     *
+     * @param member 吊销成员
+     * @param time   吊销时间
+     */
+    private void apply(String member, long time) {
+        if (member.startsWith(TOKEN_PREFIX)) {
+            tokens.merge(member.substring(TOKEN_PREFIX.length()), time, Math::max);
+        } else if (member.startsWith(USER_PREFIX)) {
+            users.merge(member.substring(USER_PREFIX.length()), time, Math::max);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.insight.usercenter.common;
+
+import com.insight.usercenter.common.entity.UserRole;
+import com.insight.usercenter.common.mapper.UserRoleMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/3/29
+ * @remark 角色成员变化后,批量更新受影响用户缓存的Token中的角色集合
+ */
+@Component
+public class RoleListSync {
+    private static final int BATCH_SIZE = 500;
+
+    private final Logger logger;
+    private final TokenStore tokenStore;
+    private final TokenCache tokenCache;
+    private final UserRoleMapper mapper;
+
+    /**
+     * 构造方法
+     *
+     * @param tokenStore 自动注入的TokenStore
+     * @param tokenCache 自动注入的TokenCache
+     * @param mapper     自动注入的UserRoleMapper
+     */
+    @Autowired
+    public RoleListSync(TokenStore tokenStore, TokenCache tokenCache, UserRoleMapper mapper) {
+        this.tokenStore = tokenStore;
+        this.tokenCache = tokenCache;
+        this.mapper = mapper;
+
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    /**
+     * 查询拥有指定角色的用户,在变更用户-角色关系前调用以获取将失去角色的用户
+     *
+     * @param roleId 角色ID
+     * @return 用户ID集合
+     */
+    public Set<String> getUsersByRole(String roleId) {
+        return new HashSet<>(mapper.getUserIdsByRole(roleId));
+    }
+
+    /**
+     * 在事务提交后更新指定用户的角色集合
+     *
+     * @param userIds 用户ID集合
+     */
+    public void sync(Collection<String> userIds) {
+        if (userIds == null || userIds.isEmpty()) {
+            return;
+        }
+
+        List<String> list = new ArrayList<>(new LinkedHashSet<>(userIds));
+        TransactionHelper.afterCommit(() -> {
+            long start = System.currentTimeMillis();
+            int count = 0;
+            for (int i = 0; i < list.size(); i += BATCH_SIZE) {
+                count += syncBatch(list.subList(i, Math.min(i + BATCH_SIZE, list.size())));
+            }
+
+            logger.info("已更新" + count + "/" + list.size() + "个用户的Token角色集合,耗时" + (System.currentTimeMillis() - start) + "毫秒");
+        });
+    }
+
+    /**
+     * 更新一批用户的角色集合(批量读取会话状态、一次查询角色关系、批量写回)
+     *
+     * @param userIds 用户ID集合
+     * @return 更新的Token数量
+     */
+    private int syncBatch(List<String> userIds) {
+        // 只处理已缓存且已选择租户的Token
+        Map<String, Token> tokens = new LinkedHashMap<>(userIds.size());
+        for (Token token : tokenStore.loadStates(userIds)) {
+            if (token.getTenantId() != null) {
+                tokens.put(token.getUserId(), token);
+            }
+        }
+
+        if (tokens.isEmpty()) {
+            return 0;
+        }
+
+        Map<String, List<UserRole>> relations = new HashMap<>(tokens.size());
+        for (UserRole relation : mapper.getUserRoles(new ArrayList<>(tokens.keySet()))) {
+            relations.computeIfAbsent(relation.getUserId(), k -> new ArrayList<>()).add(relation);
+        }
+
+        // 版本冲突时在最新的会话状态上重新计算角色集合
+        Predicate<Token> mutation = token -> setRoleList(token, relations.get(token.getUserId()));
+        List<Token> changes = new ArrayList<>(tokens.size());
+        tokens.values().stream().filter(mutation).forEach(changes::add);
+        if (changes.isEmpty()) {
+            return 0;
+        }
+
+        tokenStore.saveAll(changes, mutation);
+
+        List<String> changed = new ArrayList<>(changes.size());
+        changes.forEach(i -> changed.add(i.getUserId()));
+        tokenCache.invalidate(changed);
+
+        return changed.size();
+    }
+
+    /**
+     * 按用户-角色关系更新Token的角色集合
+     *
+     * @param token     Token
+     * @param relations 用户的全部用户-角色关系
+     * @return 角色集合是否发生变化
+     */
+    private static boolean setRoleList(Token token, List<UserRole> relations) {
+        if (token.getTenantId() == null) {
+            return false;
+        }
+
+        List<String> roleIds = getRoleIds(relations, token.getTenantId(), token.getDeptId());
+        List<String> current = token.getRoleList();
+        if (current != null && new HashSet<>(current).equals(new HashSet<>(roleIds))) {
+            return false;
+        }
+
+        token.setRoleList(roleIds);
+        token.setStateChanged();
+        return true;
+    }
+
+    /**
+     * 筛选租户及登录部门下的角色,与UserMapper.getRoleIds的条件一致
+     *
+     * @param relations 用户的全部用户-角色关系
+     * @param tenantId  租户ID
+     * @param deptId    登录部门ID
+     * @return 角色ID集合
+     */
+    private static List<String> getRoleIds(List<UserRole> relations, String tenantId, String deptId) {
+        Set<String> roleIds = new LinkedHashSet<>();
+        if (relations == null) {
+            return new ArrayList<>(roleIds);
+        }
+
+        for (UserRole relation : relations) {
+            if (!tenantId.equals(relation.getTenantId())) {
+                continue;
+            }
+
+            if (relation.getDeptId() == null || relation.getDeptId().equals(deptId)) {
+                roleIds.add(relation.getRoleId());
+            }
+        }
+
+        return new ArrayList<>(roleIds);
+    }
+}
@@ -0,0 +1,340 @@
+package com.insight.usercenter.common;
+
+import com.insight.usercenter.common.dto.SessionInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/4/2
+ * @remark 在线会话索引,以令牌失效时间为分值保存在有序集合中:
+ * Sessions:User:{userId}、Sessions:Tenant:{tenantId}、Sessions:All,成员为"用户ID|令牌ID"。
+ * 用于按用户、租户或全局查询及批量注销会话,过期的成员由后台任务按分值清理,已没有会话的租户从Sessions:Tenants中移除
+ */
+@Component
+public class SessionIndex {
+    private static final String USER_PREFIX = "Sessions:User:";
+    private static final String TENANT_PREFIX = "Sessions:Tenant:";
+    private static final String ALL_KEY = "Sessions:All";
+    private static final String TENANTS_KEY = "Sessions:Tenants";
+    private static final String SEPARATOR = "|";
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * 租户的索引为空时将租户从Sessions:Tenants中移除,与登记会话不会交错
+     */
+    private static final String PRUNE_SCRIPT = "if redis.call('ZCARD', KEYS[1]) == 0 then " +
+            "return redis.call('SREM', KEYS[2], ARGV[1]) end return 0";
+
+    private final Logger logger;
+    private final StringRedisTemplate redis;
+    private final TokenCache tokenCache;
+    private final RevocationList revocationList;
+    private final DefaultRedisScript<Long> script;
+
+    /**
+     * 构造方法
+     *
+     * @param redis          自动注入的StringRedisTemplate
+     * @param tokenCache     自动注入的TokenCache
+     * @param revocationList 自动注入的RevocationList
+     */
+    @Autowired
+    public SessionIndex(StringRedisTemplate redis, TokenCache tokenCache, RevocationList revocationList) {
+        this.redis = redis;
+        this.tokenCache = tokenCache;
+        this.revocationList = revocationList;
+
+        script = new DefaultRedisScript<>(PRUNE_SCRIPT, Long.class);
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    /**
+     * 登记会话(在TokenStore的管道操作中调用)
+     *
+     * @param conn     Redis连接
+     * @param userId   用户ID
+     * @param tenantId 租户ID(可能为null)
+     * @param tokenId  令牌ID
+     * @param failure  令牌失效时间(毫秒数)
+     */
+    void add(StringRedisConnection conn, String userId, String tenantId, String tokenId, long failure) {
+        String member = userId + SEPARATOR + tokenId;
+        conn.zAdd(USER_PREFIX + userId, failure, member);
+        conn.zAdd(ALL_KEY, failure, member);
+        if (tenantId != null) {
+            conn.zAdd(TENANT_PREFIX + tenantId, failure, member);
+            conn.sAdd(TENANTS_KEY, tenantId);
+        }
+    }
+
+    /**
+     * 移除会话(在TokenStore的管道操作中调用)
+     *
+     * @param conn     Redis连接
+     * @param userId   用户ID
+     * @param tenantId 租户ID(可能为null)
+     * @param tokenId  令牌ID
+     */
+    void remove(StringRedisConnection conn, String userId, String tenantId, String tokenId) {
+        String member = userId + SEPARATOR + tokenId;
+        conn.zRem(USER_PREFIX + userId, member);
+        conn.zRem(ALL_KEY, member);
+        if (tenantId != null) {
+            conn.zRem(TENANT_PREFIX + tenantId, member);
+        }
+    }
+
+    /**
+     * 从租户的索引中移除会话(租户变化时在TokenStore的管道操作中调用)
+     *
+     * @param conn     Redis连接
+     * @param userId   用户ID
+     * @param tenantId 原租户ID
+     * @param tokenId  令牌ID
+     */
+    void removeTenant(StringRedisConnection conn, String userId, String tenantId, String tokenId) {
+        conn.zRem(TENANT_PREFIX + tenantId, userId + SEPARATOR + tokenId);
+    }
+
+    /**
+     * 获取用户的在线会话
+     *
+     * @param userId 用户ID
+     * @param page   分页页码
+     * @param size   每页记录数
+     * @return 会话集合
+     */
+    public List<SessionInfo> getUserSessions(String userId, int page, int size) {
+        return getSessions(USER_PREFIX + userId, page, size);
+    }
+
+    /**
+     * 获取租户的在线会话
+     *
+     * @param tenantId 租户ID
+     * @param page     分页页码
+     * @param size     每页记录数
+     * @return 会话集合
+     */
+    public List<SessionInfo> getTenantSessions(String tenantId, int page, int size) {
+        return getSessions(TENANT_PREFIX + tenantId, page, size);
+    }
+
+    /**
+     * 注销用户的全部会话
+     *
+     * @param userId 用户ID
+     * @return 注销的会话数量
+     */
+    public int revokeUser(String userId) {
+        return revokeAll(USER_PREFIX + userId);
+    }
+
+    /**
+     * 注销租户的全部会话
+     *
+     * @param tenantId 租户ID
+     * @return 注销的会话数量
+     */
+    public int revokeTenant(String tenantId) {
+        return revokeAll(TENANT_PREFIX + tenantId);
+    }
+
+    /**
+     * 注销全部会话
+     *
+     * @return 注销的会话数量
+     */
+    public int revokeAll() {
+        return revokeAll(ALL_KEY);
+    }
+
+    /**
+     * 按计划清理索引中已失效的会话
+     */
+    @Scheduled(fixedDelayString = "${token.session.sweep-millis:60000}")
+    public void sweep() {
+        long now = System.currentTimeMillis();
+        int count = 0;
+        while (true) {
+            Set<String> members = redis.opsForZSet().rangeByScore(ALL_KEY, 0, now, 0, BATCH_SIZE);
+            if (members == null || members.isEmpty()) {
+                break;
+            }
+
+            Set<String> userIds = new HashSet<>();
+            members.forEach(i -> userIds.add(getUserId(i)));
+            redis.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                userIds.forEach(i -> conn.zRemRangeByScore(USER_PREFIX + i, 0, now));
+                conn.zRem(ALL_KEY, members.toArray(new String[0]));
+                return null;
+            });
+
+            count += members.size();
+        }
+
+        // 清理各租户索引中的失效会话,并移除已没有会话的租户
+        Set<String> tenantIds = redis.opsForSet().members(TENANTS_KEY);
+        if (tenantIds != null && !tenantIds.isEmpty()) {
+            String sha = script.getSha1();
+            RedisScripts.execute(redis, PRUNE_SCRIPT, () -> redis.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                tenantIds.forEach(i -> {
+                    conn.zRemRangeByScore(TENANT_PREFIX + i, 0, now);
+                    conn.evalSha(sha, ReturnType.INTEGER, 2, TENANT_PREFIX + i, TENANTS_KEY, i);
+                });
+                return null;
+            }));
+        }
+
+        if (count > 0) {
+            logger.info("已清理" + count + "个失效会话,耗时" + (System.currentTimeMillis() - now) + "毫秒");
+        }
+    }
+
+    /**
+     * 读取索引中未失效的会话,已不存在的会话从索引中移除
+     *
+     * @param key  索引键
+     * @param page 分页页码
+     * @param size 每页记录数
+     * @return 会话集合
+     */
+    @SuppressWarnings("unchecked")
+    private List<SessionInfo> getSessions(String key, int page, int size) {
+        long now = System.currentTimeMillis();
+        Set<String> members = redis.opsForZSet().rangeByScore(key, now, Double.MAX_VALUE, (page - 1L) * size, size);
+        if (members == null || members.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        List<String> list = new ArrayList<>(members);
+        List<Object> values = redis.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            list.forEach(i -> conn.hMGet(TokenStore.SESSION_PREFIX + getTokenId(i), TokenStore.APP_ID, TokenStore.FAILURE));
+            return null;
+        });
+
+        List<SessionInfo> sessions = new ArrayList<>(list.size());
+        List<String> missing = new ArrayList<>();
+        for (int i = 0; i < list.size(); i++) {
+            List<String> fields = (List<String>) values.get(i);
+            if (fields == null || fields.get(1) == null) {
+                missing.add(list.get(i));
+                continue;
+            }
+
+            SessionInfo session = new SessionInfo();
+            session.setUserId(getUserId(list.get(i)));
+            session.setTokenId(getTokenId(list.get(i)));
+            session.setAppId(fields.get(0));
+            session.setFailureTime(new Date(Long.valueOf(fields.get(1))));
+            sessions.add(session);
+        }
+
+        if (!missing.isEmpty()) {
+            redis.opsForZSet().remove(key, missing.toArray());
+        }
+
+        return sessions;
+    }
+
+    /**
+     * 分批注销索引中的全部会话
+     *
+     * @param key 索引键
+     * @return 注销的会话数量
+     */
+    private int revokeAll(String key) {
+        int count = 0;
+        while (true) {
+            Set<String> members = redis.opsForZSet().range(key, 0, BATCH_SIZE - 1);
+            if (members == null || members.isEmpty()) {
+                break;
+            }
+
+            revoke(key, members);
+            count += members.size();
+        }
+
+        return count;
+    }
+
+    /**
+     * 以一次管道操作删除一批会话及其索引(包括所属租户的索引),使相关用户的Token缓存失效并吊销签名访问令牌
+     *
+     * @param key     索引键
+     * @param members 会话成员集合
+     */
+    private void revoke(String key, Set<String> members) {
+        Set<String> userIds = new HashSet<>();
+        List<String> tokenIds = new ArrayList<>(members.size());
+        members.forEach(i -> userIds.add(getUserId(i)));
+        Map<String, String> tenants = getTenantIds(userIds);
+        redis.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String member : members) {
+                String userId = getUserId(member);
+                String tenantId = tenants.get(userId);
+                tokenIds.add(getTokenId(member));
+                conn.del(TokenStore.SESSION_PREFIX + getTokenId(member));
+                conn.zRem(USER_PREFIX + userId, member);
+                conn.zRem(ALL_KEY, member);
+                if (tenantId != null) {
+                    conn.zRem(TENANT_PREFIX + tenantId, member);
+                }
+            }
+
+            conn.zRem(key, members.toArray(new String[0]));
+            return null;
+        });
+
+        tokenCache.invalidate(userIds);
+        revocationList.revokeTokens(tokenIds);
+    }
+
+    /**
+     * 以一次管道操作读取一批用户当前所属的租户
+     *
+     * @param userIds 用户ID集合
+     * @return 用户ID-租户ID(没有租户的用户不包含在内)
+     */
+    private Map<String, String> getTenantIds(Set<String> userIds) {
+        List<String> list = new ArrayList<>(userIds);
+        List<Object> values = redis.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            list.forEach(i -> conn.hGet(TokenStore.STATE_PREFIX + i, TokenStore.TENANT_ID));
+            return null;
+        });
+
+        Map<String, String> map = new HashMap<>(list.size() * 2);
+        for (int i = 0; i < list.size(); i++) {
+            Object value = values.get(i);
+            if (value != null) {
+                map.put(list.get(i), value.toString());
+            }
+        }
+
+        return map;
+    }
+
+    private static String getUserId(String member) {
+        return member.substring(0, member.indexOf(SEPARATOR));
+    }
+
+    private static String getTokenId(String member) {
+        return member.substring(member.indexOf(SEPARATOR) + 1);
+    }
+}
@@ -0,0 +1,168 @@
+package com.insight.usercenter.common;
+
+import com.insight.util.Generator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/4/8
+ * @remark 缓存未命中时的合并加载器,同一键的并发加载只执行一次,不同键的加载互不阻塞。
+ * 配置loader.lease-millis大于0时,跨节点以Redis租约(Lease:{key})保证同一时刻只有一个节点回源,
+ * 其他节点等待并重新读取缓存,租约过期后自行加载
+ */
+@Component
+public class SingleFlight {
+    private static final String LEASE_PREFIX = "Lease:";
+    private static final long POLL_MILLIS = 50;
+
+    /**
+     * 只释放自己持有的租约
+     */
+    private static final String RELEASE_SCRIPT = "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) end return 0";
+
+    private final StringRedisTemplate redis;
+    private final Map<String, CompletableFuture<Object>> flights;
+    private final DefaultRedisScript<Long> release;
+    private final long leaseMillis;
+
+    /**
+     * 构造方法
+     *
+     * @param redis       自动注入的StringRedisTemplate
+     * @param leaseMillis 跨节点加载租约的毫秒数(0为不使用租约)
+     */
+    @Autowired
+    public SingleFlight(StringRedisTemplate redis, @Value("${loader.lease-millis:0}") long leaseMillis) {
+        this.redis = redis;
+        this.leaseMillis = leaseMillis;
+
+        flights = new ConcurrentHashMap<>(64);
+        release = new DefaultRedisScript<>(RELEASE_SCRIPT, Long.class);
+    }
+
+    /**
+     * 合并本节点内同一键的并发加载
+     *
+     * @param key    加载键
+     * @param loader 加载方法
+     * @param <T>    数据类型
+     * @return 加载结果(并发的调用方共享同一结果)
+     */
+    public <T> T load(String key, Supplier<T> loader) {
+        return load(key, null, loader);
+    }
+
+    /**
+     * 合并同一键的并发加载,启用租约时跨节点合并
+     *
+     * @param key    加载键
+     * @param cached 重新读取共享缓存的方法,未命中时返回null(为null时不使用租约)
+     * @param loader 回源加载并写入共享缓存的方法
+     * @param <T>    数据类型
+     * @return 加载结果(并发的调用方共享同一结果)
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T load(String key, Supplier<T> cached, Supplier<T> loader) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> flight = flights.putIfAbsent(key, future);
+        if (flight != null) {
+            return (T) join(flight);
+        }
+
+        try {
+            T value = cached == null || leaseMillis <= 0 ? loader.get() : loadWithLease(key, cached, loader);
+            future.complete(value);
+
+            return value;
+        } catch (RuntimeException ex) {
+            future.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            flights.remove(key, future);
+        }
+    }
+
+    /**
+     * 持有租约时回源加载,否则等待持有租约的节点写入共享缓存
+     *
+     * @param key    加载键
+     * @param cached 重新读取共享缓存的方法
+     * @param loader 回源加载的方法
+     * @param <T>    数据类型
+     * @return 加载结果
+     */
+    private <T> T loadWithLease(String key, Supplier<T> cached, Supplier<T> loader) {
+        String lease = LEASE_PREFIX + key;
+        String owner = Generator.uuid();
+        long deadline = System.currentTimeMillis() + leaseMillis;
+        while (!acquire(lease, owner)) {
+            T value = cached.get();
+            if (value != null) {
+                return value;
+            }
+
+            if (System.currentTimeMillis() > deadline) {
+                return loader.get();
+            }
+
+            try {
+                Thread.sleep(POLL_MILLIS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return loader.get();
+            }
+        }
+
+        try {
+            T value = cached.get();
+            return value == null ? loader.get() : value;
+        } finally {
+            redis.execute(release, Collections.singletonList(lease), owner);
+        }
+    }
+
+    /**
+     * 获取租约
+     *
+     * @param lease 租约键
+     * @param owner 租约持有者
+     * @return 是否获得租约
+     */
+    private boolean acquire(String lease, String owner) {
+        return Boolean.TRUE.equals(redis.execute((RedisCallback<Boolean>) connection ->
+                ((StringRedisConnection) connection).set(lease, owner, Expiration.milliseconds(leaseMillis), RedisStringCommands.SetOption.ifAbsent())));
+    }
+
+    /**
+     * 等待进行中的加载
+     *
+     * @param flight 进行中的加载
+     * @return 加载结果
+     */
+    private static Object join(CompletableFuture<Object> flight) {
+        try {
+            return flight.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+
+            throw ex;
+        }
+    }
+}
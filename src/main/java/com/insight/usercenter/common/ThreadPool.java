@@ -4,8 +4,8 @@ import com.insight.usercenter.common.dto.UserDTO;
 import com.insight.usercenter.common.entity.Device;
 import com.insight.usercenter.common.entity.User;
 import com.insight.usercenter.common.entity.UserOpenId;
+import com.insight.usercenter.common.mapper.UserIdentifierMapper;
 import com.insight.usercenter.common.mapper.UserMapper;
-import com.insight.util.Json;
 import com.insight.util.httpClient.HttpClientUtil;
 import com.insight.utils.message.Message;
 import com.insight.utils.message.SmsUtils;
@@ -14,8 +14,9 @@ import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.Date;
 import java.util.List;
@@ -29,21 +30,35 @@ import java.util.concurrent.ScheduledThreadPoolExecutor;
  */
 @Component
 public class ThreadPool {
-    private final StringRedisTemplate redis;
+    private final TokenStore tokenStore;
+    private final TokenCache tokenCache;
     private final ScheduledExecutorService executorService;
     private final UserMapper mapper;
+    private final UserIdentifierMapper identifierMapper;
+    private final UserIdentifierJob identifierJob;
+    private final TransactionTemplate transaction;
     private Logger logger;
 
     /**
      * 构造方法
      *
-     * @param redis  自动注入的StringRedisTemplate
-     * @param mapper 自动注入的UserMapper
+     * @param tokenStore       自动注入的TokenStore
+     * @param tokenCache       自动注入的TokenCache
+     * @param mapper           自动注入的UserMapper
+     * @param identifierMapper 自动注入的UserIdentifierMapper
+     * @param identifierJob    自动注入的UserIdentifierJob
+     * @param manager          自动注入的PlatformTransactionManager
      */
     @Autowired
-    public ThreadPool(StringRedisTemplate redis, UserMapper mapper) {
-        this.redis = redis;
+    public ThreadPool(TokenStore tokenStore, TokenCache tokenCache, UserMapper mapper, UserIdentifierMapper identifierMapper,
+                      UserIdentifierJob identifierJob, PlatformTransactionManager manager) {
+        this.tokenStore = tokenStore;
+        this.tokenCache = tokenCache;
         this.mapper = mapper;
+        this.identifierMapper = identifierMapper;
+        this.identifierJob = identifierJob;
+
+        transaction = new TransactionTemplate(manager);
 
         Integer nThreads = Runtime.getRuntime().availableProcessors() * 2;
         BasicThreadFactory threadFactory = new BasicThreadFactory.Builder().namingPattern("CallMsgCenter-Pool-%d").daemon(true).build();
@@ -61,7 +76,10 @@ public class ThreadPool {
             String url = getHeadImg(user.getHeadImg());
             user.setHeadImg(url);
 
-            mapper.addUser(user);
+            transaction.execute(status -> {
+                mapper.addUser(user);
+                return identifierJob.addIdentifiers(user.getId());
+            });
         });
     }
 
@@ -80,7 +98,11 @@ public class ThreadPool {
             String url = getHeadImg(user.getHeadImg());
             dto.setHeadImg(url);
 
-            mapper.updateWeChatInfo(dto);
+            transaction.execute(status -> {
+                mapper.updateWeChatInfo(dto);
+                identifierMapper.removeIdentifier(dto.getId(), UserIdentifierMapper.OPEN_ID);
+                return identifierJob.addIdentifier(dto.getId(), UserIdentifierMapper.OPEN_ID);
+            });
         });
     }
 
@@ -129,27 +151,39 @@ public class ThreadPool {
     }
 
     /**
-     * 自动绑定租户ID和登录部门ID
+     * 自动绑定租户ID和登录部门ID(以版本比较写入,不会覆盖登录线程同时保存的令牌)
      *
-     * @param token Token
+     * @param userId 用户ID
      */
-    public void setTenantIdAndDeptId(Token token) {
+    public void setTenantIdAndDeptId(String userId) {
         executorService.execute(() -> {
-            List<String> list = mapper.getTenantIds(token.getUserId());
-            if (list != null && list.size() == 1) {
-                token.setTenantId(list.get(0));
-                token.setChanged();
+            List<String> tenantIds = mapper.getTenantIds(userId);
+            List<String> deptIds = mapper.getDeptIds(userId);
+            String tenantId = tenantIds != null && tenantIds.size() == 1 ? tenantIds.get(0) : null;
+            String deptId = deptIds != null && deptIds.size() == 1 ? deptIds.get(0) : null;
+            if (tenantId == null && deptId == null) {
+                return;
             }
 
-            list = mapper.getDeptIds(token.getUserId());
-            if (list != null && list.size() == 1) {
-                token.setDeptId(list.get(0));
-                token.setChanged();
-            }
+            boolean saved = tokenStore.update(userId, token -> {
+                if (tenantId != null) {
+                    token.setTenantId(tenantId);
+                }
+
+                if (deptId != null) {
+                    token.setDeptId(deptId);
+                }
+
+                if (token.getTenantId() != null) {
+                    token.setRoleList(mapper.getRoleIds(userId, token.getTenantId(), token.getDeptId()));
+                }
+
+                token.setStateChanged();
+                return true;
+            });
 
-            if (token.isChanged()) {
-                String key = "Token:" + token.getUserId();
-                redis.opsForValue().set(key, Json.toJson(token));
+            if (saved) {
+                tokenCache.invalidate(userId);
             }
         });
     }
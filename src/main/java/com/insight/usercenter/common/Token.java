@@ -1,6 +1,8 @@
 package com.insight.usercenter.common;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.insight.usercenter.common.dto.RefreshToken;
 import com.insight.usercenter.common.dto.TokenPackage;
 import com.insight.usercenter.common.entity.Keys;
@@ -18,8 +20,17 @@ import java.util.*;
  * @date 2017/9/7
  * @remark 用户身份验证令牌类
  */
+@JsonIgnoreProperties({"lastFailureTime"})
 public class Token implements Serializable {
     private static final long serialVersionUID = -1L;
+    private static final int PROFILE = 1;
+    private static final int STATE = 2;
+    private static final int FAILURE_RESET = 4;
+
+    /**
+     * 每个用户最多保留的令牌数量
+     */
+    private static final int MAX_KEYS = 32;
 
     /**
      * RSA私钥
@@ -33,10 +44,57 @@ public class Token implements Serializable {
     private Keys currentKeys;
 
     /**
-     * Token属性是否已改变
+     * 当前令牌ID
+     */
+    @JsonIgnore
+    private String currentTokenId;
+
+    /**
+     * 已改变的数据部分(用户资料、会话状态)
+     */
+    @JsonIgnore
+    private int changes;
+
+    /**
+     * 已改变的令牌关键数据集的令牌ID
+     */
+    @JsonIgnore
+    private Set<String> changedKeys = new HashSet<>();
+
+    /**
+     * 已删除的令牌关键数据集的令牌ID
+     */
+    @JsonIgnore
+    private Set<String> removedKeys = new HashSet<>();
+
+    /**
+     * 应用ID-令牌ID索引,按需由keyMap生成
+     */
+    @JsonIgnore
+    private Map<String, String> appIndex;
+
+    /**
+     * 是否仅加载了会话验证数据(未加载用户资料)
      */
     @JsonIgnore
-    private boolean isChanged;
+    private boolean isPartial;
+
+    /**
+     * 会话状态版本,写入用户资料及会话状态时比较并递增
+     */
+    @JsonIgnore
+    private long version;
+
+    /**
+     * 加载时的会话状态,版本冲突时用于识别本地修改的字段
+     */
+    @JsonIgnore
+    private Map<String, String> baseState;
+
+    /**
+     * 令牌ID-应用ID索引,随用户资料保存,用于加载全部令牌关键数据集
+     */
+    private Map<String, String> sessions;
 
     /**
      * 用户当前使用的租户ID
@@ -104,14 +162,15 @@ public class Token implements Serializable {
     private Boolean isInvalid;
 
     /**
-     * 上次验证失败时间
+     * 连续验证失败次数(由FailureCounter加载)
      */
-    private Date lastFailureTime;
+    private Integer failureCount;
 
     /**
-     * 连续验证失败次数
+     * 尚未写入FailureCounter的失败次数
      */
-    private Integer failureCount;
+    @JsonIgnore
+    private int newFailures;
 
     /**
      * 使用中的Code
@@ -135,7 +194,6 @@ public class Token implements Serializable {
      * @param user User实体数据
      */
     public Token(User user) {
-        Date now = new Date();
         String pwStr = user.getPassword();
 
         userId = user.getId();
@@ -150,10 +208,44 @@ public class Token implements Serializable {
         isBuiltIn = user.getBuiltin();
         isInvalid = user.getInvalid();
         failureCount = 0;
-        lastFailureTime = now;
         keyMap = new HashMap<>(16);
         roleList = new ArrayList<>();
-        isChanged = true;
+        changes = PROFILE | STATE;
+    }
+
+    /**
+     * 生成当前Token的副本,副本与当前Token不共享可变数据
+     *
+     * @return Token副本
+     */
+    @JsonIgnore
+    public Token copy() {
+        Token token = new Token();
+        token.tenantId = tenantId;
+        token.deptId = deptId;
+        token.userId = userId;
+        token.userType = userType;
+        token.userName = userName;
+        token.account = account;
+        token.mobile = mobile;
+        token.unionId = unionId;
+        token.email = email;
+        token.password = password;
+        token.payPassword = payPassword;
+        token.isBuiltIn = isBuiltIn;
+        token.isInvalid = isInvalid;
+        token.failureCount = failureCount;
+        token.roleList = roleList == null ? null : new ArrayList<>(roleList);
+        token.sessions = sessions == null ? null : new HashMap<>(sessions);
+        token.isPartial = isPartial;
+        token.version = version;
+        token.baseState = baseState;
+        if (keyMap != null) {
+            token.keyMap = new HashMap<>(keyMap.size() > 16 ? keyMap.size() * 2 : 16);
+            keyMap.forEach((k, v) -> token.keyMap.put(k, new Keys(v)));
+        }
+
+        return token;
     }
 
     /**
@@ -163,6 +255,7 @@ public class Token implements Serializable {
      */
     public void selectKeys(String tokenId) {
         currentKeys = keyMap.get(tokenId);
+        currentTokenId = tokenId;
     }
 
     /**
@@ -189,43 +282,48 @@ public class Token implements Serializable {
      */
     @JsonIgnore
     public TokenPackage creatorKey(String code, String appId, Integer hours, String openId) {
-        for (String key : keyMap.keySet()) {
-            Keys keys = keyMap.get(key);
-
-            // 如应用ID不为空,且应用ID有对应的Key则从Map中删除该应用对应的Key.否则使用无应用ID的公共Key.
-            if (appId != null && !appId.isEmpty()) {
-                if (appId.equals(keys.getAppId())) {
-                    if (openId == null) {
-                        openId = keys.getWeChatOpenId();
-                    }
-
-                    keyMap.remove(key);
-                    currentKeys = null;
-                    break;
+        compactKeys();
+        currentKeys = null;
+
+        // 如应用ID不为空,且应用ID有对应的Key则删除该应用对应的Key.否则使用无应用ID的公共Key.
+        if (appId != null && !appId.isEmpty()) {
+            String key = getAppIndex().get(appId);
+            if (key != null) {
+                if (openId == null) {
+                    openId = keyMap.get(key).getWeChatOpenId();
                 }
-            } else {
-                if (keys.getAppId() == null) {
-                    keys.refresh();
 
-                    currentKeys = keys;
-                    code = key;
-                    break;
-                }
+                removeKeys(key);
+            }
+        } else {
+            String key = getAppIndex().get(null);
+            if (key != null) {
+                currentKeys = keyMap.get(key);
+                currentKeys.refresh();
+                code = key;
             }
         }
 
-        // 生成新的Key加入Map
+        // 生成新的Key加入Map,超出数量上限时淘汰最早过期的Key
         if (currentKeys == null) {
+            while (keyMap.size() >= MAX_KEYS) {
+                evictKeys();
+            }
+
             currentKeys = new Keys(appId, hours);
             keyMap.put(code, currentKeys);
+            getAppIndex().put(appId, code);
+            removedKeys.remove(code);
+            changes |= PROFILE;
         }
 
         if (failureCount > 0) {
             failureCount = 0;
+            changes |= FAILURE_RESET;
         }
 
         currentKeys.setWeChatOpenId(openId);
-        isChanged = true;
+        changedKeys.add(code);
 
         return initPackage(code);
     }
@@ -239,7 +337,7 @@ public class Token implements Serializable {
     @JsonIgnore
     public TokenPackage refreshToken(String tokenId) {
         currentKeys.refresh();
-        isChanged = true;
+        changedKeys.add(tokenId);
 
         return initPackage(tokenId);
     }
@@ -251,6 +349,8 @@ public class Token implements Serializable {
      * @return 令牌数据包
      */
     private TokenPackage initPackage(String code) {
+        currentTokenId = code;
+
         AccessToken accessToken = new AccessToken();
         accessToken.setId(code);
         accessToken.setUserId(userId);
@@ -330,18 +430,11 @@ public class Token implements Serializable {
      */
     @JsonIgnore
     public Boolean userIsInvalid() {
-        Date now = new Date();
-        Date resetTime = new Date(lastFailureTime.getTime() + 1000 * 600);
-        if (failureCount > 0 && now.after(resetTime)) {
-            failureCount = 0;
-            isChanged = true;
-        }
-
-        return failureCount > 5 || isInvalid;
+        return FailureCounter.isLocked(failureCount) || isInvalid;
     }
 
     /**
-     * 累计失败次数(有效时)
+     * 累计失败次数(有效时),保存时由FailureCounter原子累加
      */
     @JsonIgnore
     public void addFailureCount() {
@@ -350,8 +443,7 @@ public class Token implements Serializable {
         }
 
         failureCount++;
-        lastFailureTime = new Date();
-        isChanged = true;
+        newFailures++;
     }
 
     /**
@@ -362,9 +454,86 @@ public class Token implements Serializable {
     @JsonIgnore
     public void deleteKeys(String tokenId) {
         if (keyMap.containsKey(tokenId)) {
-            keyMap.remove(tokenId);
-            isChanged = true;
+            removeKeys(tokenId);
+        }
+    }
+
+    /**
+     * 删除已失效的令牌关键数据集
+     */
+    void compactKeys() {
+        if (keyMap == null) {
+            return;
+        }
+
+        List<String> list = new ArrayList<>();
+        keyMap.forEach((k, v) -> {
+            if (v.isFailure()) {
+                list.add(k);
+            }
+        });
+
+        list.forEach(this::removeKeys);
+    }
+
+    /**
+     * 标记已不存在的令牌关键数据集(需从令牌ID索引中移除)
+     *
+     * @param tokenId 令牌ID
+     */
+    void dropKeys(String tokenId) {
+        removedKeys.add(tokenId);
+        changes |= PROFILE;
+    }
+
+    /**
+     * 淘汰最早过期的令牌关键数据集
+     */
+    private void evictKeys() {
+        String tokenId = null;
+        long expiry = Long.MAX_VALUE;
+        for (Map.Entry<String, Keys> entry : keyMap.entrySet()) {
+            if (entry.getValue().getExpiryMillis() < expiry) {
+                tokenId = entry.getKey();
+                expiry = entry.getValue().getExpiryMillis();
+            }
         }
+
+        removeKeys(tokenId);
+    }
+
+    /**
+     * 删除令牌关键数据集并维护应用ID索引
+     *
+     * @param tokenId 令牌ID
+     */
+    private void removeKeys(String tokenId) {
+        Keys keys = keyMap.remove(tokenId);
+        if (keys != null && appIndex != null && tokenId.equals(appIndex.get(keys.getAppId()))) {
+            appIndex.remove(keys.getAppId());
+        }
+
+        if (keys == currentKeys) {
+            currentKeys = null;
+        }
+
+        removedKeys.add(tokenId);
+        changedKeys.remove(tokenId);
+        changes |= PROFILE;
+    }
+
+    /**
+     * 获取应用ID-令牌ID索引
+     *
+     * @return 应用ID-令牌ID索引
+     */
+    private Map<String, String> getAppIndex() {
+        if (appIndex == null) {
+            appIndex = new HashMap<>(keyMap.size() > 16 ? keyMap.size() * 2 : 16);
+            keyMap.forEach((k, v) -> appIndex.put(v.getAppId(), k));
+        }
+
+        return appIndex;
     }
 
     /**
@@ -377,6 +546,26 @@ public class Token implements Serializable {
         return currentKeys == null ? null : currentKeys.getWeChatOpenId();
     }
 
+    /**
+     * 获取当前令牌ID
+     *
+     * @return 当前令牌ID
+     */
+    @JsonIgnore
+    public String getCurrentTokenId() {
+        return currentTokenId;
+    }
+
+    /**
+     * 获取当前令牌对应的关键数据集
+     *
+     * @return 令牌关键数据集
+     */
+    @JsonIgnore
+    public Keys getCurrentKeys() {
+        return currentKeys;
+    }
+
     /**
      * 获取RSA私钥
      *
@@ -394,18 +583,154 @@ public class Token implements Serializable {
      */
     @JsonIgnore
     public boolean isChanged() {
-        return isChanged;
+        return changes != 0 || newFailures > 0 || !changedKeys.isEmpty() || !removedKeys.isEmpty();
     }
 
     /**
-     * 设置修改标志位为真值
+     * 设置修改标志位为真值(用户资料及会话状态均需保存)
      */
     @JsonIgnore
     public void setChanged() {
-        isChanged = true;
+        changes |= PROFILE | STATE;
+    }
+
+    /**
+     * 是否仅加载了会话验证数据
+     *
+     * @return 是否仅加载了会话验证数据
+     */
+    @JsonIgnore
+    public boolean isPartial() {
+        return isPartial;
+    }
+
+    /**
+     * 标记为仅加载了会话验证数据
+     */
+    void setPartial() {
+        isPartial = true;
+    }
+
+    /**
+     * 设置会话状态的修改标志位
+     */
+    void setStateChanged() {
+        changes |= STATE;
+    }
+
+    /**
+     * 用户资料是否需要保存
+     *
+     * @return 是否需要保存
+     */
+    boolean isProfileChanged() {
+        return (changes & PROFILE) != 0;
+    }
+
+    /**
+     * 会话状态是否需要保存
+     *
+     * @return 是否需要保存
+     */
+    boolean isStateChanged() {
+        return (changes & STATE) != 0;
+    }
+
+    /**
+     * 获取尚未写入FailureCounter的失败次数
+     *
+     * @return 失败次数
+     */
+    int getNewFailures() {
+        return newFailures;
+    }
+
+    /**
+     * 失败计数是否需要清除
+     *
+     * @return 是否需要清除
+     */
+    boolean isFailureReset() {
+        return (changes & FAILURE_RESET) != 0;
+    }
+
+    /**
+     * 获取需要保存的令牌关键数据集的令牌ID
+     *
+     * @return 令牌ID集合
+     */
+    Set<String> getChangedKeys() {
+        return changedKeys;
+    }
+
+    /**
+     * 获取需要删除的令牌关键数据集的令牌ID
+     *
+     * @return 令牌ID集合
+     */
+    Set<String> getRemovedKeys() {
+        return removedKeys;
+    }
+
+    /**
+     * 标记全部数据需要保存(由旧格式迁移时使用)
+     */
+    void setAllChanged() {
+        changes = PROFILE | STATE;
+        if (keyMap != null) {
+            changedKeys.addAll(keyMap.keySet());
+        }
+    }
+
+    /**
+     * 将其他写入者新增的令牌关键数据集合并到当前Token,本地新增或删除的令牌保持不变
+     *
+     * @param stored Redis中的最新Token
+     */
+    void mergeKeys(Token stored) {
+        if (keyMap == null || stored.keyMap == null) {
+            return;
+        }
+
+        Map<String, Keys> map = new HashMap<>(stored.keyMap);
+        changedKeys.forEach(i -> {
+            Keys keys = keyMap.get(i);
+            if (keys != null) {
+                map.put(i, keys);
+            }
+        });
+        removedKeys.forEach(map::remove);
+        setKeyMap(map);
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    void setVersion(long version) {
+        this.version = version;
+    }
+
+    Map<String, String> getBaseState() {
+        return baseState;
+    }
+
+    void setBaseState(Map<String, String> baseState) {
+        this.baseState = baseState;
+    }
+
+    /**
+     * 清除修改标志(保存后调用)
+     */
+    void clearChanges() {
+        changes = 0;
+        newFailures = 0;
+        changedKeys.clear();
+        removedKeys.clear();
     }
 
 
+    @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
     public String getTenantId() {
         return tenantId;
     }
@@ -414,6 +739,7 @@ public class Token implements Serializable {
         this.tenantId = tenantId;
     }
 
+    @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
     public String getDeptId() {
         return deptId;
     }
@@ -502,6 +828,7 @@ public class Token implements Serializable {
         isBuiltIn = builtIn;
     }
 
+    @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
     public Boolean getInvalid() {
         return isInvalid;
     }
@@ -510,14 +837,7 @@ public class Token implements Serializable {
         isInvalid = invalid;
     }
 
-    public Date getLastFailureTime() {
-        return lastFailureTime;
-    }
-
-    public void setLastFailureTime(Date lastFailureTime) {
-        this.lastFailureTime = lastFailureTime;
-    }
-
+    @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
     public Integer getFailureCount() {
         return failureCount;
     }
@@ -526,14 +846,17 @@ public class Token implements Serializable {
         this.failureCount = failureCount;
     }
 
+    @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
     public Map<String, Keys> getKeyMap() {
         return keyMap;
     }
 
     public void setKeyMap(Map<String, Keys> keyMap) {
         this.keyMap = keyMap;
+        appIndex = null;
     }
 
+    @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
     public List<String> getRoleList() {
         return roleList;
     }
@@ -541,4 +864,19 @@ public class Token implements Serializable {
     public void setRoleList(List<String> roleList) {
         this.roleList = roleList;
     }
+
+    public Map<String, String> getSessions() {
+        if (keyMap == null) {
+            return sessions;
+        }
+
+        Map<String, String> map = new HashMap<>(keyMap.size() > 16 ? keyMap.size() * 2 : 16);
+        keyMap.forEach((k, v) -> map.put(k, v.getAppId()));
+
+        return map;
+    }
+
+    public void setSessions(Map<String, String> sessions) {
+        this.sessions = sessions;
+    }
 }
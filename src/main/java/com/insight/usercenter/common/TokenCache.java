@@ -0,0 +1,256 @@
+package com.insight.usercenter.common;
+
+import com.insight.util.Generator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiPredicate;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/3/20
+ * @remark Token进程内缓存(近端缓存),通过Redis消息在节点间同步失效
+ */
+@Component
+public class TokenCache implements MessageListener {
+    private static final String CHANNEL = "usercenter:token:invalidate";
+    private static final String SEPARATOR = "|";
+    private static final String DELIMITER = ",";
+
+    /**
+     * 失效版本的分段数量,按用户ID的散列值分段,不同用户的变更互不影响
+     */
+    private static final int STRIPES = 1024;
+
+    private final Logger logger;
+    private final StringRedisTemplate redis;
+    private final Map<String, Entry> cache;
+    private final AtomicLongArray epochs;
+    private final String nodeId;
+    private final int maxSize;
+    private final long ttl;
+
+    /**
+     * 构造方法
+     *
+     * @param redis     自动注入的StringRedisTemplate
+     * @param container 自动注入的RedisMessageListenerContainer
+     * @param maxSize   缓存的最大Token数量
+     * @param seconds   缓存的Token有效秒数
+     */
+    @Autowired
+    public TokenCache(StringRedisTemplate redis, RedisMessageListenerContainer container,
+                      @Value("${token.cache.max-size:10000}") int maxSize, @Value("${token.cache.ttl-seconds:30}") int seconds) {
+        this.redis = redis;
+        this.maxSize = maxSize;
+
+        ttl = seconds * 1000L;
+        cache = new ConcurrentHashMap<>(maxSize > 16 ? maxSize : 16);
+        epochs = new AtomicLongArray(STRIPES);
+        nodeId = Generator.uuid();
+        logger = LoggerFactory.getLogger(this.getClass());
+
+        container.addMessageListener(this, new ChannelTopic(CHANNEL));
+    }
+
+    /**
+     * 获取用户当前的失效版本,从Redis加载Token前调用,用于防止加载期间的变更或失效通知后写入过期的数据
+     *
+     * @param userId 用户ID
+     * @return 失效版本
+     */
+    public long getEpoch(String userId) {
+        return epochs.get(stripe(userId));
+    }
+
+    /**
+     * 读取缓存的Token快照
+     *
+     * @param userId 用户ID
+     * @return Token快照的副本(可能为null)
+     */
+    public Token get(String userId) {
+        Entry entry = cache.get(userId);
+        if (entry == null) {
+            return null;
+        }
+
+        if (entry.isExpired(System.currentTimeMillis())) {
+            cache.remove(userId, entry);
+            return null;
+        }
+
+        return entry.token.copy();
+    }
+
+    /**
+     * 缓存从Redis读取的Token快照(加载期间该用户的Token被保存或收到失效通知则放弃缓存)
+     *
+     * @param token Token
+     * @param since 加载前获取的失效版本
+     */
+    public void put(Token token, long since) {
+        int index = stripe(token.getUserId());
+        put(token, (k, v) -> epochs.get(index) == since);
+    }
+
+    /**
+     * 缓存保存后的Token快照,并使加载中的旧快照不再写入
+     *
+     * @param token Token
+     */
+    public void put(Token token) {
+        int index = stripe(token.getUserId());
+        put(token, (k, v) -> {
+            epochs.incrementAndGet(index);
+            return true;
+        });
+    }
+
+    /**
+     * 使本节点缓存的Token失效,并通知其他节点
+     *
+     * @param userId 用户ID
+     */
+    public void invalidate(String userId) {
+        remove(userId);
+        publish(userId);
+    }
+
+    /**
+     * 使本节点缓存的一批Token失效,并以一条消息通知其他节点
+     *
+     * @param userIds 用户ID集合
+     */
+    public void invalidate(Collection<String> userIds) {
+        if (userIds == null || userIds.isEmpty()) {
+            return;
+        }
+
+        userIds.forEach(this::remove);
+        publish(String.join(DELIMITER, userIds));
+    }
+
+    /**
+     * 通知其他节点Token已变更(本节点已持有最新快照)
+     *
+     * @param userId 用户ID(多个用户ID以逗号分隔)
+     */
+    public void publish(String userId) {
+        try {
+            redis.convertAndSend(CHANNEL, nodeId + SEPARATOR + userId);
+        } catch (Exception ex) {
+            logger.error("发布Token失效通知失败:" + ex.getMessage());
+        }
+    }
+
+    /**
+     * 接收其他节点的Token失效通知
+     *
+     * @param message 消息
+     * @param pattern 订阅模式
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int index = body.indexOf(SEPARATOR);
+        if (index < 0 || nodeId.equals(body.substring(0, index))) {
+            return;
+        }
+
+        for (String userId : body.substring(index + 1).split(DELIMITER)) {
+            remove(userId);
+        }
+    }
+
+    /**
+     * 写入缓存条目,判断与写入在该用户的条目上互斥,与同一用户的其他写入及移除不会交错
+     *
+     * @param token     Token
+     * @param condition 是否写入的判断
+     */
+    private void put(Token token, BiPredicate<String, Entry> condition) {
+        if (maxSize <= 0) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if (cache.size() >= maxSize) {
+            evict(now);
+        }
+
+        Token copy = token.copy();
+        cache.compute(token.getUserId(), (k, v) -> condition.test(k, v) ? new Entry(copy, now + ttl) : v);
+    }
+
+    /**
+     * 移除本节点缓存的Token
+     *
+     * @param userId 用户ID
+     */
+    private void remove(String userId) {
+        int index = stripe(userId);
+        cache.compute(userId, (k, v) -> {
+            epochs.incrementAndGet(index);
+            return null;
+        });
+    }
+
+    /**
+     * 获取用户ID对应的失效版本分段
+     *
+     * @param userId 用户ID
+     * @return 分段序号
+     */
+    private static int stripe(String userId) {
+        int hash = userId.hashCode();
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+
+    /**
+     * 清理过期的缓存,如仍超出容量则随机淘汰至容量的3/4
+     *
+     * @param now 当前时间
+     */
+    private void evict(long now) {
+        cache.entrySet().removeIf(i -> i.getValue().isExpired(now));
+
+        Iterator<String> iterator = cache.keySet().iterator();
+        int surplus = cache.size() - maxSize * 3 / 4;
+        while (surplus-- > 0 && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * 缓存条目
+     */
+    private static class Entry {
+        private final Token token;
+        private final long expireTime;
+
+        private Entry(Token token, long expireTime) {
+            this.token = token;
+            this.expireTime = expireTime;
+        }
+
+        private boolean isExpired(long now) {
+            return now > expireTime;
+        }
+    }
+}
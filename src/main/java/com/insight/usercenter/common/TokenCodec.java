@@ -0,0 +1,230 @@
+package com.insight.usercenter.common;
+
+import com.insight.util.Json;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/3/31
+ * @remark Token用户资料的编解码器,支持JSON和二进制两种格式(token.codec=json|binary)
+ * 二进制格式(版本1):字符串为长度前缀的UTF-8字节,令牌索引中的应用ID使用字典编码,整体以Base64保存。
+ * 解码时根据内容自动识别格式,两种格式可在迁移期间共存。
+ * 二进制内容中的长度、数量及字典序号在读取前校验,损坏的内容解码为null(由调用方从用户表重建)
+ */
+@Component
+public class TokenCodec {
+    private static final String BINARY = "binary";
+    private static final byte VERSION = 1;
+    private static final char JSON_START = '{';
+
+    private final Logger logger;
+    private final boolean isBinary;
+
+    /**
+     * 构造方法
+     *
+     * @param codec 写入时使用的格式(json或binary)
+     */
+    @Autowired
+    public TokenCodec(@Value("${token.codec:json}") String codec) {
+        isBinary = BINARY.equalsIgnoreCase(codec);
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    /**
+     * 编码Token用户资料
+     *
+     * @param token Token
+     * @return 编码后的用户资料
+     */
+    public String encode(Token token) {
+        if (!isBinary) {
+            return Json.toJson(token);
+        }
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(buffer)) {
+            write(out, token);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        return Base64.getEncoder().encodeToString(buffer.toByteArray());
+    }
+
+    /**
+     * 解码Token用户资料
+     *
+     * @param value 编码后的用户资料(JSON或二进制格式)
+     * @return Token(无法解码时为null)
+     */
+    public Token decode(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+
+        if (value.charAt(0) == JSON_START) {
+            return Json.toBean(value, Token.class);
+        }
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(value)))) {
+            byte version = in.readByte();
+            if (version != VERSION) {
+                logger.error("不支持的Token编码版本:" + version);
+                return null;
+            }
+
+            return read(in);
+        } catch (IOException | IllegalArgumentException ex) {
+            logger.error("Token解码失败:" + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 写入二进制格式的用户资料
+     *
+     * @param out   输出流
+     * @param token Token
+     */
+    private static void write(DataOutputStream out, Token token) throws IOException {
+        out.writeByte(VERSION);
+        writeString(out, token.getUserId());
+        writeInteger(out, token.getUserType());
+        writeString(out, token.getUserName());
+        writeString(out, token.getAccount());
+        writeString(out, token.getMobile());
+        writeString(out, token.getUnionId());
+        writeString(out, token.getEmail());
+        writeString(out, token.getPassword());
+        writeString(out, token.getPayPassword());
+        out.writeByte(token.getBuiltIn() == null ? -1 : token.getBuiltIn() ? 1 : 0);
+
+        // 令牌ID-应用ID索引,应用ID写入字典后以序号引用
+        Map<String, String> sessions = token.getSessions();
+        if (sessions == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        sessions.values().stream().filter(Objects::nonNull).forEach(i -> dictionary.putIfAbsent(i, dictionary.size()));
+        out.writeInt(dictionary.size());
+        for (String appId : dictionary.keySet()) {
+            writeString(out, appId);
+        }
+
+        out.writeInt(sessions.size());
+        for (Map.Entry<String, String> entry : sessions.entrySet()) {
+            writeString(out, entry.getKey());
+            out.writeInt(entry.getValue() == null ? -1 : dictionary.get(entry.getValue()));
+        }
+    }
+
+    /**
+     * 读取二进制格式的用户资料(版本字节之后的内容)
+     *
+     * @param in 输入流
+     * @return Token
+     * @throws IOException 内容不完整或已损坏
+     */
+    private static Token read(DataInputStream in) throws IOException {
+        Token token = new Token();
+        token.setUserId(readString(in));
+        token.setUserType(readInteger(in));
+        token.setUserName(readString(in));
+        token.setAccount(readString(in));
+        token.setMobile(readString(in));
+        token.setUnionId(readString(in));
+        token.setEmail(readString(in));
+        token.setPassword(readString(in));
+        token.setPayPassword(readString(in));
+
+        byte builtIn = in.readByte();
+        token.setBuiltIn(builtIn < 0 ? null : builtIn == 1);
+
+        int count = in.readInt();
+        if (count < 0) {
+            return token;
+        }
+
+        // 每个字典项及令牌索引项至少占4字节
+        String[] dictionary = new String[checkCount(in, count, 4)];
+        for (int i = 0; i < count; i++) {
+            dictionary[i] = readString(in);
+        }
+
+        count = checkCount(in, in.readInt(), 8);
+        Map<String, String> sessions = new HashMap<>(count > 16 ? count * 2 : 16);
+        for (int i = 0; i < count; i++) {
+            String tokenId = readString(in);
+            int index = in.readInt();
+            if (index >= dictionary.length) {
+                throw new IOException("应用ID字典序号越界:" + index);
+            }
+
+            sessions.put(tokenId, index < 0 ? null : dictionary[index]);
+        }
+
+        token.setSessions(sessions);
+        return token;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[checkCount(in, length, 1)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 校验数量不超过剩余内容可容纳的数量,避免按损坏的数值分配内存
+     *
+     * @param in    输入流(内容全部在内存中,available为剩余字节数)
+     * @param count 读取的数量
+     * @param size  每项至少占用的字节数
+     * @return 数量
+     * @throws IOException 数量无效
+     */
+    private static int checkCount(DataInputStream in, int count, int size) throws IOException {
+        if (count < 0 || (long) count * size > in.available()) {
+            throw new IOException("无效的长度或数量:" + count);
+        }
+
+        return count;
+    }
+
+    private static void writeInteger(DataOutputStream out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    private static Integer readInteger(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+}
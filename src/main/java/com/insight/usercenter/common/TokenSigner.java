@@ -0,0 +1,290 @@
+package com.insight.usercenter.common;
+
+import com.insight.usercenter.common.dto.TokenClaims;
+import com.insight.util.Json;
+import com.insight.util.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/4/3
+ * @remark 签名访问令牌(token.format=signed),格式为:S1.{密钥周期}.{Base64声明}.{Base64签名}。
+ * 验证时先按未签名前缀中的密钥周期校验签名,签名有效后才解析声明,伪造的令牌不会进入JSON解析。
+ * 签名密钥按周期轮换,保存在Redis的Sign:Keys中,由首个使用新周期密钥的节点生成(HSETNX),各节点缓存在本地
+ */
+@Component
+public class TokenSigner {
+    private static final String PREFIX = "S1.";
+    private static final String KEYS_KEY = "Sign:Keys";
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final String SIGNED = "signed";
+    private static final char DOT = '.';
+    private static final int KEY_BYTES = 32;
+
+    /**
+     * 保留的密钥周期数(当前周期及之前的周期)
+     */
+    private static final int KEEP_KEYS = 3;
+
+    private final Logger logger;
+    private final StringRedisTemplate redis;
+    private final Map<Long, byte[]> keys;
+    private final SecureRandom random;
+    private final boolean isEnabled;
+    private final long period;
+    private final long maxLife;
+
+    /**
+     * 构造方法
+     *
+     * @param redis   自动注入的StringRedisTemplate
+     * @param format  访问令牌格式(opaque或signed)
+     * @param hours   签名密钥轮换周期(小时)
+     * @param seconds 签名访问令牌的最长有效秒数
+     */
+    @Autowired
+    public TokenSigner(StringRedisTemplate redis, @Value("${token.format:opaque}") String format,
+                       @Value("${token.sign.rotate-hours:24}") int hours, @Value("${token.sign.max-seconds:1800}") int seconds) {
+        this.redis = redis;
+
+        isEnabled = SIGNED.equalsIgnoreCase(format);
+        period = hours * 3600 * 1000L;
+        maxLife = seconds * 1000L;
+        keys = new ConcurrentHashMap<>(16);
+        random = new SecureRandom();
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    /**
+     * 是否签发签名访问令牌
+     *
+     * @return 是否签发签名访问令牌
+     */
+    public boolean isEnabled() {
+        return isEnabled;
+    }
+
+    /**
+     * 获取签名访问令牌的最长有效毫秒数
+     *
+     * @return 最长有效毫秒数
+     */
+    public long getMaxLife() {
+        return maxLife;
+    }
+
+    /**
+     * 是否签名访问令牌
+     *
+     * @param token 访问令牌字符串
+     * @return 是否签名访问令牌
+     */
+    public static boolean isSigned(String token) {
+        return token != null && token.startsWith(PREFIX);
+    }
+
+    /**
+     * 计算角色集合版本
+     *
+     * @param roleIds 角色ID集合
+     * @return 角色集合版本
+     */
+    public static String getRoleVersion(List<String> roleIds) {
+        if (roleIds == null || roleIds.isEmpty()) {
+            return "";
+        }
+
+        List<String> list = new ArrayList<>(roleIds);
+        Collections.sort(list);
+
+        return Util.md5(String.join(",", list));
+    }
+
+    /**
+     * 签名访问令牌
+     *
+     * @param claims 令牌声明
+     * @return 签名访问令牌字符串
+     */
+    public String sign(TokenClaims claims) {
+        long current = System.currentTimeMillis() / period;
+        String kid = String.valueOf(current);
+        claims.setKid(kid);
+
+        String body = PREFIX + kid + DOT + encode(Json.toJson(claims).getBytes(StandardCharsets.UTF_8));
+        return body + DOT + encode(hmac(getKey(current, true), body));
+    }
+
+    /**
+     * 验证签名并读取令牌声明(仅在遇到本地未缓存的密钥时读取Redis)
+     *
+     * @param token 签名访问令牌字符串
+     * @return 令牌声明,签名无效时为null
+     */
+    public TokenClaims verify(String token) {
+        int index = token.lastIndexOf(DOT);
+        if (index <= PREFIX.length()) {
+            return null;
+        }
+
+        try {
+            String body = token.substring(0, index);
+            byte[] signature = Base64.getUrlDecoder().decode(token.substring(index + 1));
+            int kidEnd = body.indexOf(DOT, PREFIX.length());
+            if (kidEnd < 0) {
+                return verifyLegacy(body, signature);
+            }
+
+            // 只接受保留周期内的密钥,避免伪造的密钥ID引起Redis读取
+            String kid = body.substring(PREFIX.length(), kidEnd);
+            long current = System.currentTimeMillis() / period;
+            long value = Long.parseLong(kid);
+            if (value > current || value <= current - KEEP_KEYS) {
+                return null;
+            }
+
+            byte[] key = getKey(value, false);
+            if (key == null || !MessageDigest.isEqual(hmac(key, body), signature)) {
+                return null;
+            }
+
+            TokenClaims claims = decode(body.substring(kidEnd + 1));
+            return claims == null || !kid.equals(claims.getKid()) ? null : claims;
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * 验证升级前签发的令牌(S1.{Base64声明}.{Base64签名}),以本地已缓存的密钥逐个校验签名,签名有效后才解析声明。
+     * 此类令牌在签名访问令牌的最长有效期后全部过期
+     *
+     * @param body      签名内容
+     * @param signature 签名
+     * @return 令牌声明,签名无效时为null
+     */
+    private TokenClaims verifyLegacy(String body, byte[] signature) {
+        long current = System.currentTimeMillis() / period;
+        for (Map.Entry<Long, byte[]> entry : keys.entrySet()) {
+            if (entry.getKey() <= current - KEEP_KEYS || !MessageDigest.isEqual(hmac(entry.getValue(), body), signature)) {
+                continue;
+            }
+
+            TokenClaims claims = decode(body.substring(PREFIX.length()));
+            return claims == null || !String.valueOf(entry.getKey()).equals(claims.getKid()) ? null : claims;
+        }
+
+        return null;
+    }
+
+    /**
+     * 解析已通过签名校验的声明
+     *
+     * @param value Base64编码的声明
+     * @return 令牌声明,缺少必需字段时为null
+     */
+    private static TokenClaims decode(String value) {
+        String json = new String(Base64.getUrlDecoder().decode(value), StandardCharsets.UTF_8);
+        TokenClaims claims = Json.toBean(json, TokenClaims.class);
+        if (claims == null || claims.getTokenId() == null || claims.getUserId() == null || claims.getExpiry() == null) {
+            return null;
+        }
+
+        return claims;
+    }
+
+    /**
+     * 获取指定周期的签名密钥
+     *
+     * @param kid    密钥周期
+     * @param create 不存在时是否生成
+     * @return 签名密钥(可能为null)
+     */
+    private byte[] getKey(long kid, boolean create) {
+        byte[] key = keys.get(kid);
+        if (key != null) {
+            return key;
+        }
+
+        HashOperations<String, String, String> hash = redis.opsForHash();
+        String field = String.valueOf(kid);
+        String value = hash.get(KEYS_KEY, field);
+        if (value == null && create) {
+            byte[] bytes = new byte[KEY_BYTES];
+            random.nextBytes(bytes);
+            if (hash.putIfAbsent(KEYS_KEY, field, Base64.getEncoder().encodeToString(bytes))) {
+                logger.info("已生成签名密钥:" + field);
+            }
+
+            value = hash.get(KEYS_KEY, field);
+            prune(kid);
+        }
+
+        if (value == null) {
+            return null;
+        }
+
+        key = Base64.getDecoder().decode(value);
+        keys.put(kid, key);
+
+        return key;
+    }
+
+    /**
+     * 删除保留周期之前的签名密钥
+     *
+     * @param current 当前密钥周期
+     */
+    private void prune(long current) {
+        keys.keySet().removeIf(i -> i <= current - KEEP_KEYS);
+
+        HashOperations<String, String, String> hash = redis.opsForHash();
+        List<Object> expired = new ArrayList<>();
+        for (String field : hash.keys(KEYS_KEY)) {
+            if (Long.valueOf(field) <= current - KEEP_KEYS) {
+                expired.add(field);
+            }
+        }
+
+        if (!expired.isEmpty()) {
+            hash.delete(KEYS_KEY, expired.toArray());
+        }
+    }
+
+    /**
+     * 计算HMAC签名
+     *
+     * @param key  签名密钥
+     * @param data 签名内容
+     * @return 签名
+     */
+    private static byte[] hmac(byte[] key, String data) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(new SecretKeySpec(key, ALGORITHM));
+
+            return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String encode(byte[] bytes) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
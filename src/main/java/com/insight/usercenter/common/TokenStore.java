@@ -0,0 +1,749 @@
+package com.insight.usercenter.common;
+
+import com.insight.usercenter.common.entity.Keys;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/3/30
+ * @remark Token的Redis存储,将Token拆分为三部分保存:
+ * 1、Token:{userId} 用户资料(JSON或二进制格式,见TokenCodec),含令牌ID-应用ID索引,很少变化;
+ * 2、State:{userId} 会话状态(Hash),含租户、登录部门及角色集合(失败计数见FailureCounter);
+ * 3、Session:{tokenId} 令牌关键数据集(Hash),验证令牌时只读取该令牌的记录。
+ * 用户资料及会话状态以会话状态中的版本号做乐观并发控制,由Lua脚本比较版本后写入,版本冲突时重新加载并合并修改后重试
+ */
+@Component
+public class TokenStore {
+    static final String TOKEN_PREFIX = "Token:";
+    static final String STATE_PREFIX = "State:";
+    static final String SESSION_PREFIX = "Session:";
+    private static final String DELIMITER = ",";
+
+    static final String TENANT_ID = "tenantId";
+    private static final String DEPT_ID = "deptId";
+    private static final String INVALID = "invalid";
+    private static final String FAILURE_COUNT = "failureCount";
+    private static final String LAST_FAILURE_TIME = "lastFailureTime";
+    private static final String ROLES = "roles";
+    private static final String VERSION = "version";
+
+    private static final String USER_ID = "userId";
+    static final String APP_ID = "appId";
+    private static final String LIFE = "life";
+    private static final String SECRET = "secret";
+    private static final String REFRESH = "refresh";
+    private static final String OPEN_ID = "openId";
+    private static final String EXPIRY = "expiry";
+    static final String FAILURE = "failure";
+
+    private static final String[] STATE_FIELDS = {TENANT_ID, DEPT_ID, INVALID, ROLES};
+    private static final String[] READ_FIELDS = {TENANT_ID, DEPT_ID, INVALID, ROLES, VERSION};
+
+    /**
+     * 已移至FailureCounter的会话状态字段,写入会话状态时删除
+     */
+    private static final String[] LEGACY_FIELDS = {FAILURE_COUNT, LAST_FAILURE_TIME};
+
+    /**
+     * 版本冲突时的最大重试次数
+     */
+    private static final int MAX_RETRIES = 5;
+
+    /**
+     * 版本一致时写入用户资料(ARGV[2]非空时)、删除及写入会话状态字段并递增版本,返回新版本;版本不一致时返回-1。
+     * ARGV: 期望版本, 用户资料, 删除字段数n, n个删除字段, 字段-值对...
+     */
+    private static final String CAS_SCRIPT = "local v = tonumber(redis.call('HGET', KEYS[1], 'version') or '0') " +
+            "if v ~= tonumber(ARGV[1]) then return -1 end " +
+            "if ARGV[2] ~= '' then redis.call('SET', KEYS[2], ARGV[2]) end " +
+            "local n = tonumber(ARGV[3]) " +
+            "for i = 4, 3 + n do redis.call('HDEL', KEYS[1], ARGV[i]) end " +
+            "for i = 4 + n, #ARGV, 2 do redis.call('HSET', KEYS[1], ARGV[i], ARGV[i + 1]) end " +
+            "return redis.call('HINCRBY', KEYS[1], 'version', 1)";
+
+    private final Logger logger;
+    private final StringRedisTemplate redis;
+    private final TokenCodec codec;
+    private final SessionIndex sessionIndex;
+    private final FailureCounter failureCounter;
+    private final KeyPolicy keyPolicy;
+    private final DefaultRedisScript<Long> script;
+    private final Counter conflicts;
+    private final Counter aborts;
+
+    /**
+     * 构造方法
+     *
+     * @param redis          自动注入的StringRedisTemplate
+     * @param codec          自动注入的TokenCodec
+     * @param sessionIndex   自动注入的SessionIndex
+     * @param failureCounter 自动注入的FailureCounter
+     * @param keyPolicy      自动注入的KeyPolicy
+     * @param registry       自动注入的MeterRegistry
+     */
+    @Autowired
+    public TokenStore(StringRedisTemplate redis, TokenCodec codec, SessionIndex sessionIndex, FailureCounter failureCounter,
+                      KeyPolicy keyPolicy, MeterRegistry registry) {
+        this.redis = redis;
+        this.codec = codec;
+        this.sessionIndex = sessionIndex;
+        this.failureCounter = failureCounter;
+        this.keyPolicy = keyPolicy;
+
+        script = new DefaultRedisScript<>(CAS_SCRIPT, Long.class);
+        conflicts = registry.counter("usercenter.token.cas", "result", "conflict");
+        aborts = registry.counter("usercenter.token.cas", "result", "abort");
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    /**
+     * 加载完整的Token(用户资料、会话状态及全部令牌关键数据集)
+     *
+     * @param userId 用户ID
+     * @return Token(可能为null)
+     */
+    @SuppressWarnings("unchecked")
+    public Token load(String userId) {
+        List<Object> values = redis.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.get(TOKEN_PREFIX + userId);
+            conn.hGetAll(STATE_PREFIX + userId);
+            conn.get(FailureCounter.KEY_PREFIX + userId);
+            return null;
+        });
+
+        Object profile = values.get(0);
+        Token token = codec.decode(profile == null ? null : profile.toString());
+        if (token == null) {
+            return null;
+        }
+
+        int failures = FailureCounter.parse(values.get(2));
+        Map<String, String> state = (Map<String, String>) values.get(1);
+        boolean hasState = state != null && !state.isEmpty();
+
+        // 旧格式的Token(整体保存),转换为拆分格式;会话状态已存在时以会话状态为准
+        if (isLegacy(token)) {
+            if (hasState) {
+                applyState(token, state);
+            } else if (token.getInvalid() == null) {
+                token.setInvalid(false);
+            }
+
+            token.setFailureCount(failures);
+            token.setAllChanged();
+            save(token);
+
+            return token;
+        }
+
+        // 会话状态已过期清除的,以空的会话状态加载,下次修改时重新写入
+        if (!hasState) {
+            logger.warn("用户[" + userId + "]的会话状态不存在,以空的会话状态加载");
+        }
+
+        applyState(token, hasState ? state : new HashMap<>(0));
+        token.setFailureCount(failures);
+
+        // 加载全部令牌关键数据集,已过期删除的令牌从索引中移除
+        Map<String, String> sessions = token.getSessions();
+        List<String> tokenIds = sessions == null ? new ArrayList<>() : new ArrayList<>(sessions.keySet());
+        Map<String, Keys> keyMap = new HashMap<>(tokenIds.size() > 16 ? tokenIds.size() * 2 : 16);
+        token.setKeyMap(keyMap);
+        if (tokenIds.isEmpty()) {
+            return token;
+        }
+
+        List<Object> list = redis.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            tokenIds.forEach(i -> conn.hGetAll(SESSION_PREFIX + i));
+            return null;
+        });
+
+        for (int i = 0; i < tokenIds.size(); i++) {
+            Keys keys = toKeys((Map<String, String>) list.get(i));
+            if (keys == null) {
+                token.dropKeys(tokenIds.get(i));
+            } else {
+                keyMap.put(tokenIds.get(i), keys);
+            }
+        }
+
+        return token;
+    }
+
+    /**
+     * 加载验证指定令牌所需的数据(会话状态及该令牌的关键数据集)
+     *
+     * @param userId  用户ID
+     * @param tokenId 令牌ID
+     * @return 仅包含会话验证数据的Token(可能为null)
+     */
+    public Token loadSession(String userId, String tokenId) {
+        return loadSessions(Collections.singletonMap(userId, Collections.singletonList(tokenId))).get(userId);
+    }
+
+    /**
+     * 以一次管道操作加载验证一批令牌所需的数据(各用户的会话状态及所请求令牌的关键数据集)
+     *
+     * @param tokenIds 用户ID-令牌ID集合
+     * @return 用户ID-仅包含会话验证数据的Token(Token不存在的用户不包含在内)
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Token> loadSessions(Map<String, ? extends Collection<String>> tokenIds) {
+        List<String> userIds = new ArrayList<>(tokenIds.keySet());
+        List<Object> values = redis.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            userIds.forEach(i -> conn.hMGet(STATE_PREFIX + i, READ_FIELDS));
+            userIds.forEach(i -> conn.get(FailureCounter.KEY_PREFIX + i));
+            userIds.forEach(i -> tokenIds.get(i).forEach(t -> conn.hGetAll(SESSION_PREFIX + t)));
+            return null;
+        });
+
+        Map<String, Token> tokens = new HashMap<>(userIds.size() * 2);
+        int index = userIds.size() * 2;
+        for (int i = 0; i < userIds.size(); i++) {
+            String userId = userIds.get(i);
+            Collection<String> list = tokenIds.get(userId);
+            List<String> state = (List<String>) values.get(i);
+
+            // 会话状态不存在时按完整Token加载(包括旧格式的转换)
+            if (state == null || state.stream().allMatch(Objects::isNull)) {
+                index += list.size();
+                Token token = load(userId);
+                if (token != null) {
+                    tokens.put(userId, token);
+                }
+
+                continue;
+            }
+
+            Token token = new Token();
+            token.setUserId(userId);
+            token.setKeyMap(new HashMap<>(list.size() > 2 ? list.size() * 2 : 4));
+            token.setPartial();
+
+            Map<String, String> map = new HashMap<>(8);
+            for (int j = 0; j < READ_FIELDS.length; j++) {
+                if (state.get(j) != null) {
+                    map.put(READ_FIELDS[j], state.get(j));
+                }
+            }
+
+            applyState(token, map);
+            token.setFailureCount(FailureCounter.parse(values.get(userIds.size() + i)));
+            for (String tokenId : list) {
+                Map<String, String> session = (Map<String, String>) values.get(index++);
+                Keys keys = toKeys(session);
+                if (keys != null && userId.equals(session.get(USER_ID))) {
+                    token.getKeyMap().put(tokenId, keys);
+                }
+            }
+
+            tokens.put(userId, token);
+        }
+
+        return tokens;
+    }
+
+    /**
+     * 加载一批用户的会话状态
+     *
+     * @param userIds 用户ID集合
+     * @return 仅包含会话状态的Token集合(会话状态不存在的用户不包含在内)
+     */
+    @SuppressWarnings("unchecked")
+    public List<Token> loadStates(List<String> userIds) {
+        List<Object> values = redis.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            userIds.forEach(i -> conn.hGetAll(STATE_PREFIX + i));
+            return null;
+        });
+
+        List<Token> tokens = new ArrayList<>(userIds.size());
+        for (int i = 0; i < userIds.size(); i++) {
+            Map<String, String> state = (Map<String, String>) values.get(i);
+            if (state == null || state.isEmpty()) {
+                continue;
+            }
+
+            Token token = new Token();
+            token.setUserId(userIds.get(i));
+            token.setPartial();
+            token.setFailureCount(0);
+            applyState(token, state);
+            tokens.add(token);
+        }
+
+        return tokens;
+    }
+
+    /**
+     * 以一次管道操作筛选没有用户资料的用户
+     *
+     * @param userIds 用户ID集合
+     * @return 没有用户资料的用户ID集合
+     */
+    public List<String> getMissing(List<String> userIds) {
+        List<Object> values = redis.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            userIds.forEach(i -> conn.exists(TOKEN_PREFIX + i));
+            return null;
+        });
+
+        List<String> list = new ArrayList<>();
+        for (int i = 0; i < userIds.size(); i++) {
+            if (!Boolean.TRUE.equals(values.get(i))) {
+                list.add(userIds.get(i));
+            }
+        }
+
+        return list;
+    }
+
+    /**
+     * 保存Token中发生变化的部分
+     *
+     * @param token Token
+     */
+    public void save(Token token) {
+        saveAll(Collections.singletonList(token));
+    }
+
+    /**
+     * 以一次管道操作保存一批Token中发生变化的部分,版本冲突时合并本地修改的字段后重试
+     *
+     * @param tokens Token集合
+     */
+    public void saveAll(Collection<Token> tokens) {
+        saveAll(tokens, null);
+    }
+
+    /**
+     * 以一次管道操作保存一批Token中发生变化的部分
+     *
+     * @param tokens   Token集合
+     * @param mutation 版本冲突时在最新的会话状态上重新执行的修改(为null时合并本地修改的字段),返回是否仍需保存
+     */
+    public void saveAll(Collection<Token> tokens, Predicate<Token> mutation) {
+        Set<Token> dropped = new HashSet<>();
+        Map<Token, String> moved = new HashMap<>(16);
+        List<Token> pending = new ArrayList<>(tokens);
+        for (int i = 0; !pending.isEmpty(); i++) {
+            List<Token> list = compareAndSet(pending, moved);
+            if (list.isEmpty()) {
+                break;
+            }
+
+            conflicts.increment(list.size());
+            if (i >= MAX_RETRIES) {
+                aborts.increment(list.size());
+                list.forEach(t -> logger.error("用户[" + t.getUserId() + "]的Token版本冲突,重试" + MAX_RETRIES + "次后放弃写入"));
+                dropped.addAll(list);
+                break;
+            }
+
+            pending = rebase(list, mutation, dropped);
+        }
+
+        writeAll(tokens, dropped, moved);
+    }
+
+    /**
+     * 以用户表的数据重建已过期清除的用户资料,会话状态仍存在时沿用其版本及租户、部门、角色集合
+     *
+     * @param token 由用户数据生成的Token
+     * @return 是否已保存
+     */
+    public boolean rebuild(Token token) {
+        String userId = token.getUserId();
+        Boolean invalid = token.getInvalid();
+        for (int i = 0; i <= MAX_RETRIES; i++) {
+            Map<String, String> state = redis.<String, String>opsForHash().entries(STATE_PREFIX + userId);
+            if (state != null && !state.isEmpty()) {
+                applyState(token, state);
+                token.setInvalid(invalid);
+            }
+
+            token.setAllChanged();
+            Map<Token, String> moved = new HashMap<>(2);
+            if (compareAndSet(Collections.singletonList(token), moved).isEmpty()) {
+                writeAll(Collections.singletonList(token), Collections.emptySet(), moved);
+                return true;
+            }
+
+            conflicts.increment();
+        }
+
+        aborts.increment();
+        logger.error("用户[" + userId + "]的Token版本冲突,重建用户资料失败");
+        return false;
+    }
+
+    /**
+     * 以一次管道操作写入一批Token中不受版本控制的部分,累加失败次数并清除变化标记
+     *
+     * @param tokens  Token集合
+     * @param dropped 放弃写入的Token集合
+     * @param moved   租户已变化的Token-原租户ID
+     */
+    private void writeAll(Collection<Token> tokens, Set<Token> dropped, Map<Token, String> moved) {
+        redis.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            tokens.stream().filter(t -> !dropped.contains(t)).forEach(t -> write(conn, t, moved.get(t)));
+            return null;
+        });
+
+        // 失败次数由FailureCounter原子累加,以脚本返回的累加后次数作为锁定判断的依据
+        Map<String, Integer> failures = new HashMap<>(16);
+        tokens.stream().filter(i -> i.getNewFailures() > 0).forEach(i -> failures.merge(i.getUserId(), i.getNewFailures(), Integer::sum));
+        Map<String, Integer> counts = failureCounter.addAll(failures);
+        tokens.stream().filter(i -> counts.containsKey(i.getUserId())).forEach(i -> i.setFailureCount(counts.get(i.getUserId())));
+
+        tokens.forEach(Token::clearChanges);
+    }
+
+    /**
+     * 加载Token并执行修改,以版本比较保存,版本冲突时重新加载并再次执行修改
+     *
+     * @param userId   用户ID
+     * @param mutation 对Token的修改,返回是否需要保存
+     * @return 是否已保存
+     */
+    public boolean update(String userId, Predicate<Token> mutation) {
+        Token token = load(userId);
+        if (token == null || !mutation.test(token)) {
+            return false;
+        }
+
+        saveAll(Collections.singletonList(token), mutation);
+        return true;
+    }
+
+    /**
+     * 删除Token的全部数据
+     *
+     * @param token Token
+     */
+    public void delete(Token token) {
+        String userId = token.getUserId();
+        Map<String, String> sessions = token.getSessions();
+        redis.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.del(TOKEN_PREFIX + userId, STATE_PREFIX + userId, FailureCounter.KEY_PREFIX + userId);
+            if (sessions != null) {
+                sessions.keySet().forEach(i -> {
+                    conn.del(SESSION_PREFIX + i);
+                    sessionIndex.remove(conn, userId, token.getTenantId(), i);
+                });
+            }
+
+            return null;
+        });
+    }
+
+    /**
+     * 写入Token中不受版本控制的部分(令牌关键数据集、会话索引及失败计数),并延长用户资料及会话状态的有效期
+     *
+     * @param conn     Redis连接
+     * @param token    Token
+     * @param previous 租户变化前的租户ID(租户未变化时为null)
+     */
+    private void write(StringRedisConnection conn, Token token, String previous) {
+        String userId = token.getUserId();
+        if (token.isFailureReset()) {
+            failureCounter.reset(conn, userId);
+        }
+
+        String tenantId = token.getTenantId();
+        token.getRemovedKeys().forEach(i -> {
+            conn.del(SESSION_PREFIX + i);
+            sessionIndex.remove(conn, userId, tenantId, i);
+        });
+
+        for (String tokenId : token.getChangedKeys()) {
+            Keys keys = token.getKeyMap() == null ? null : token.getKeyMap().get(tokenId);
+            if (keys == null) {
+                continue;
+            }
+
+            String key = SESSION_PREFIX + tokenId;
+            conn.del(key);
+            conn.hMSet(key, toSession(userId, keys));
+            conn.pExpireAt(key, keys.getFailureMillis());
+            sessionIndex.add(conn, userId, tenantId, tokenId, keys.getFailureMillis());
+        }
+
+        // 租户变化后将全部会话从原租户移除,并登记到当前租户
+        if (token.isStateChanged() && !token.isPartial() && token.getKeyMap() != null) {
+            if (previous != null) {
+                token.getKeyMap().keySet().forEach(k -> sessionIndex.removeTenant(conn, userId, previous, k));
+            }
+
+            if (tenantId != null) {
+                token.getKeyMap().forEach((k, v) -> sessionIndex.add(conn, userId, tenantId, k, v.getFailureMillis()));
+            }
+        }
+
+        // 有效期不短于其中任一会话的失效时间
+        long expiry = System.currentTimeMillis() + keyPolicy.getTokenMillis();
+        if (token.getKeyMap() != null) {
+            for (Keys keys : token.getKeyMap().values()) {
+                expiry = Math.max(expiry, keys.getFailureMillis());
+            }
+        }
+
+        conn.pExpireAt(TOKEN_PREFIX + userId, expiry);
+        conn.pExpireAt(STATE_PREFIX + userId, expiry);
+    }
+
+    /**
+     * 以一次管道操作按版本写入一批Token的用户资料及会话状态
+     *
+     * @param tokens Token集合
+     * @param moved  写入成功且租户已变化的Token-原租户ID(由本方法填充)
+     * @return 版本冲突的Token集合
+     */
+    private List<Token> compareAndSet(List<Token> tokens, Map<Token, String> moved) {
+        List<Token> list = new ArrayList<>(tokens.size());
+        for (Token token : tokens) {
+            if (!token.isPartial()) {
+                token.compactKeys();
+            }
+
+            if ((token.isProfileChanged() && !token.isPartial()) || token.isStateChanged()) {
+                list.add(token);
+            }
+        }
+
+        if (list.isEmpty()) {
+            return list;
+        }
+
+        List<String[]> args = new ArrayList<>(list.size());
+        list.forEach(i -> args.add(toArgs(i)));
+
+        String sha = script.getSha1();
+        List<Object> values = RedisScripts.execute(redis, CAS_SCRIPT, () -> redis.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            args.forEach(i -> conn.evalSha(sha, ReturnType.INTEGER, 2, i));
+            return null;
+        }));
+
+        List<Token> conflicts = new ArrayList<>();
+        for (int i = 0; i < list.size(); i++) {
+            Token token = list.get(i);
+            long version = Long.valueOf(values.get(i).toString());
+            if (version < 0) {
+                conflicts.add(token);
+                continue;
+            }
+
+            // 原租户取自写入前的基准状态(版本冲突重试后为冲突时的最新状态)
+            String previous = token.getBaseState() == null ? null : token.getBaseState().get(TENANT_ID);
+            if (previous != null && !previous.equals(token.getTenantId())) {
+                moved.put(token, previous);
+            }
+
+            token.setVersion(version);
+            token.setBaseState(toState(token));
+        }
+
+        return conflicts;
+    }
+
+    /**
+     * 重新加载版本冲突的Token,在最新数据上重新执行修改或合并本地修改的字段
+     *
+     * @param tokens   版本冲突的Token集合
+     * @param mutation 重新执行的修改(可能为null)
+     * @param dropped  已被删除或无需保存的Token集合
+     * @return 需要重试的Token集合
+     */
+    private List<Token> rebase(List<Token> tokens, Predicate<Token> mutation, Set<Token> dropped) {
+        List<String> partials = new ArrayList<>();
+        tokens.stream().filter(Token::isPartial).forEach(i -> partials.add(i.getUserId()));
+        Map<String, Token> states = new HashMap<>(16);
+        if (!partials.isEmpty()) {
+            loadStates(partials).forEach(i -> states.put(i.getUserId(), i));
+        }
+
+        List<Token> list = new ArrayList<>(tokens.size());
+        for (Token token : tokens) {
+            Token stored = token.isPartial() ? states.get(token.getUserId()) : load(token.getUserId());
+            if (stored == null) {
+                dropped.add(token);
+                continue;
+            }
+
+            Map<String, String> current = toState(stored);
+            Map<String, String> state = new HashMap<>(current);
+            if (mutation == null) {
+                // 只保留本地修改过的字段,其余字段采用最新值
+                Map<String, String> local = toState(token);
+                Map<String, String> base = token.getBaseState() == null ? new HashMap<>(0) : token.getBaseState();
+                for (String field : STATE_FIELDS) {
+                    String value = local.get(field);
+                    if (Objects.equals(value, base.get(field))) {
+                        continue;
+                    }
+
+                    if (value == null) {
+                        state.remove(field);
+                    } else {
+                        state.put(field, value);
+                    }
+                }
+            }
+
+            state.put(VERSION, String.valueOf(stored.getVersion()));
+            applyState(token, state);
+            token.setBaseState(current);
+            token.mergeKeys(stored);
+            if (mutation != null && !mutation.test(token)) {
+                continue;
+            }
+
+            list.add(token);
+        }
+
+        return list;
+    }
+
+    /**
+     * 生成版本写入脚本的参数
+     *
+     * @param token Token
+     * @return 脚本的键及参数
+     */
+    private String[] toArgs(Token token) {
+        String userId = token.getUserId();
+        List<String> args = new ArrayList<>();
+        args.add(STATE_PREFIX + userId);
+        args.add(TOKEN_PREFIX + userId);
+        args.add(String.valueOf(token.getVersion()));
+        args.add(token.isProfileChanged() && !token.isPartial() ? codec.encode(token) : "");
+        if (!token.isStateChanged()) {
+            args.add("0");
+            return args.toArray(new String[0]);
+        }
+
+        Map<String, String> state = toState(token);
+        List<String> absent = new ArrayList<>(Arrays.asList(LEGACY_FIELDS));
+        for (String field : STATE_FIELDS) {
+            if (!state.containsKey(field)) {
+                absent.add(field);
+            }
+        }
+
+        args.add(String.valueOf(absent.size()));
+        args.addAll(absent);
+        state.forEach((k, v) -> {
+            args.add(k);
+            args.add(v);
+        });
+
+        return args.toArray(new String[0]);
+    }
+
+    /**
+     * 用户资料是否为旧格式。旧格式整体保存Token,总是包含令牌关键数据集(keyMap);
+     * 拆分格式的用户资料(JSON或二进制)只包含令牌索引,解码后keyMap为null
+     *
+     * @param token 解码后的Token
+     * @return 是否旧格式
+     */
+    private static boolean isLegacy(Token token) {
+        return token.getKeyMap() != null;
+    }
+
+    /**
+     * 将会话状态转换为Hash
+     *
+     * @param token Token
+     * @return 会话状态
+     */
+    private static Map<String, String> toState(Token token) {
+        Map<String, String> map = new HashMap<>(8);
+        put(map, TENANT_ID, token.getTenantId());
+        put(map, DEPT_ID, token.getDeptId());
+        put(map, INVALID, token.getInvalid() == null ? null : token.getInvalid() ? "1" : "0");
+        put(map, ROLES, token.getRoleList() == null ? null : String.join(DELIMITER, token.getRoleList()));
+
+        return map;
+    }
+
+    /**
+     * 将会话状态写入Token
+     *
+     * @param token Token
+     * @param state 会话状态
+     */
+    private static void applyState(Token token, Map<String, String> state) {
+        token.setTenantId(state.get(TENANT_ID));
+        token.setDeptId(state.get(DEPT_ID));
+        token.setInvalid("1".equals(state.get(INVALID)));
+
+        String value = state.get(ROLES);
+        token.setRoleList(value == null || value.isEmpty() ? new ArrayList<>() : new ArrayList<>(Arrays.asList(value.split(DELIMITER))));
+
+        value = state.get(VERSION);
+        token.setVersion(value == null ? 0 : Long.valueOf(value));
+        token.setBaseState(toState(token));
+    }
+
+    /**
+     * 将令牌关键数据集转换为Hash
+     *
+     * @param userId 用户ID
+     * @param keys   令牌关键数据集
+     * @return 会话记录
+     */
+    private static Map<String, String> toSession(String userId, Keys keys) {
+        Map<String, String> map = new HashMap<>(16);
+        put(map, USER_ID, userId);
+        put(map, APP_ID, keys.getAppId());
+        put(map, LIFE, keys.getTokenLife().toString());
+        put(map, SECRET, keys.getSecretKey());
+        put(map, REFRESH, keys.getRefreshKey());
+        put(map, OPEN_ID, keys.getWeChatOpenId());
+        put(map, EXPIRY, String.valueOf(keys.getExpiryMillis()));
+        put(map, FAILURE, String.valueOf(keys.getFailureMillis()));
+
+        return map;
+    }
+
+    /**
+     * 将会话记录转换为令牌关键数据集
+     *
+     * @param session 会话记录
+     * @return 令牌关键数据集(会话记录不存在时为null)
+     */
+    private static Keys toKeys(Map<String, String> session) {
+        if (session == null || session.isEmpty() || session.get(SECRET) == null) {
+            return null;
+        }
+
+        return new Keys(session.get(APP_ID), Integer.valueOf(session.get(LIFE)), session.get(SECRET), session.get(REFRESH),
+                session.get(OPEN_ID), Long.valueOf(session.get(EXPIRY)), Long.valueOf(session.get(FAILURE)));
+    }
+
+    private static void put(Map<String, String> map, String field, String value) {
+        if (value != null) {
+            map.put(field, value);
+        }
+    }
+}
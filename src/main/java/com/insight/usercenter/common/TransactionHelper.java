@@ -0,0 +1,34 @@
+package com.insight.usercenter.common;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/3/27
+ * @remark 事务帮助类
+ */
+public final class TransactionHelper {
+
+    private TransactionHelper() {
+    }
+
+    /**
+     * 在当前事务提交后执行任务,无事务时立即执行
+     *
+     * @param task 任务
+     */
+    public static void afterCommit(Runnable task) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            task.run();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                task.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,181 @@
+package com.insight.usercenter.common;
+
+import com.insight.usercenter.common.entity.IdentifierConflict;
+import com.insight.usercenter.common.mapper.UserIdentifierMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/4/9
+ * @remark 用户登录标识表回填任务,启动后按用户ID分批为已有用户生成登录标识(已存在的标识跳过)。
+ * 标识已被其他用户占用时(INSERT IGNORE未写入)记录冲突,存在冲突时不视为回填完成,按计划重新回填直至冲突解决。
+ * 回填完成前,登录及重复校验在登录标识表未命中时再查询用户表
+ */
+@Component
+public class UserIdentifierJob {
+    private static final int BATCH_SIZE = 1000;
+
+    private final Logger logger;
+    private final UserIdentifierMapper mapper;
+    private final Counter conflicts;
+    private final AtomicBoolean isRunning;
+    private volatile boolean isCompleted;
+    private volatile long conflictTime;
+
+    /**
+     * 构造方法
+     *
+     * @param mapper     自动注入的UserIdentifierMapper
+     * @param registry   自动注入的MeterRegistry
+     * @param isBackfill 启动后是否回填登录标识(回填完成一次后可关闭)
+     */
+    @Autowired
+    public UserIdentifierJob(UserIdentifierMapper mapper, MeterRegistry registry,
+                             @Value("${user-identifier.backfill:true}") boolean isBackfill) {
+        this.mapper = mapper;
+
+        conflicts = registry.counter("usercenter.identifier.conflict");
+        isRunning = new AtomicBoolean();
+        isCompleted = !isBackfill;
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    /**
+     * 登录标识是否已回填完成(且无冲突)
+     *
+     * @return 是否已回填完成
+     */
+    public boolean isCompleted() {
+        return isCompleted;
+    }
+
+    /**
+     * 生成指定用户的全部登录标识,记录已被其他用户占用的标识
+     *
+     * @param userId 用户ID
+     * @return 新增的登录标识数量
+     */
+    public Integer addIdentifiers(String userId) {
+        Integer count = mapper.addIdentifiers(userId);
+        report(mapper.getConflicts(userId));
+
+        return count;
+    }
+
+    /**
+     * 按用户当前数据重新生成指定类型的登录标识,记录已被其他用户占用的标识
+     *
+     * @param userId 用户ID
+     * @param type   标识类型
+     * @return 新增的登录标识数量
+     */
+    public Integer addIdentifier(String userId, int type) {
+        Integer count = mapper.addIdentifier(userId, type);
+        if (count == null || count == 0) {
+            report(mapper.getConflicts(userId));
+        }
+
+        return count;
+    }
+
+    /**
+     * 应用启动后回填登录标识
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        if (isCompleted) {
+            return;
+        }
+
+        Thread thread = new Thread(this::backfill, "UserIdentifier-Backfill");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 存在冲突或回填失败时按计划重新回填
+     */
+    @Scheduled(fixedDelayString = "${user-identifier.recheck-millis:3600000}")
+    public void recheck() {
+        if (!isCompleted) {
+            backfill();
+        }
+    }
+
+    /**
+     * 分批回填全部用户的登录标识,回填中时不重复执行
+     *
+     * @return 新增的登录标识数量
+     */
+    public int backfill() {
+        if (!isRunning.compareAndSet(false, true)) {
+            return 0;
+        }
+
+        long start = System.currentTimeMillis();
+        int count = 0;
+        int conflictCount = 0;
+        try {
+            String lastId = "";
+            while (true) {
+                List<String> userIds = mapper.getUserIds(lastId, BATCH_SIZE);
+                if (userIds == null || userIds.isEmpty()) {
+                    break;
+                }
+
+                count += mapper.addIdentifiersByUsers(userIds);
+                conflictCount += report(mapper.getConflictsByUsers(userIds));
+                lastId = userIds.get(userIds.size() - 1);
+            }
+
+            // 回填期间新增/修改用户时发现的冲突同样保留用户表查询
+            isCompleted = conflictCount == 0 && conflictTime < start;
+            if (isCompleted) {
+                logger.info("已回填" + count + "个用户登录标识,耗时" + (System.currentTimeMillis() - start) + "毫秒");
+            } else {
+                logger.warn("已回填" + count + "个用户登录标识,另有" + conflictCount + "个标识已被其他用户占用,解决冲突前保留用户表查询");
+            }
+        } catch (Exception ex) {
+            logger.error("回填用户登录标识失败:" + ex.getMessage());
+        } finally {
+            isRunning.set(false);
+        }
+
+        return count;
+    }
+
+    /**
+     * 记录登录标识冲突,存在冲突时恢复用户表查询
+     *
+     * @param list 登录标识冲突记录集合
+     * @return 冲突数量
+     */
+    private int report(List<IdentifierConflict> list) {
+        if (list == null || list.isEmpty()) {
+            return 0;
+        }
+
+        for (IdentifierConflict conflict : list) {
+            logger.warn("用户[" + conflict.getUserId() + "]的登录标识[" + conflict.getIdentifier() + "](类型" + conflict.getType()
+                    + ")已被用户[" + conflict.getOwnerId() + "]占用");
+        }
+
+        conflicts.increment(list.size());
+        conflictTime = System.currentTimeMillis();
+        isCompleted = false;
+
+        return list.size();
+    }
+}
@@ -0,0 +1,60 @@
+package com.insight.usercenter.common;
+
+import com.insight.usercenter.common.mapper.UserRoleMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/3/26
+ * @remark 用户-角色关系表全量重建任务
+ */
+@Component
+public class UserRoleJob {
+    private final Logger logger;
+    private final UserRoleMapper mapper;
+    private final TransactionTemplate transaction;
+
+    /**
+     * 构造方法
+     *
+     * @param mapper  自动注入的UserRoleMapper
+     * @param manager 自动注入的PlatformTransactionManager
+     */
+    @Autowired
+    public UserRoleJob(UserRoleMapper mapper, PlatformTransactionManager manager) {
+        this.mapper = mapper;
+
+        transaction = new TransactionTemplate(manager);
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    /**
+     * 按计划全量重建用户-角色关系表,修正增量维护遗漏的数据
+     */
+    @Scheduled(cron = "${user-role.rebuild.cron:0 0 3 * * ?}")
+    public void schedule() {
+        rebuild();
+    }
+
+    /**
+     * 全量重建用户-角色关系表(单个事务内完成,重建期间查询读取旧数据)
+     *
+     * @return 重建后的关系数量
+     */
+    public Integer rebuild() {
+        long start = System.currentTimeMillis();
+        Integer count = transaction.execute(status -> {
+            mapper.removeAllUserRoles();
+            return mapper.addAllUserRoles();
+        });
+
+        logger.info("已重建用户-角色关系表," + count + "条数据,耗时" + (System.currentTimeMillis() - start) + "毫秒");
+        return count;
+    }
+}
@@ -1,6 +1,7 @@
 package com.insight.usercenter.common;
 
-import com.insight.util.Json;
+import com.insight.usercenter.common.dto.TokenClaims;
+import com.insight.usercenter.common.dto.VerifyItem;
 import com.insight.util.ReplyHelper;
 import com.insight.util.common.ApplicationContextHolder;
 import com.insight.util.pojo.AccessToken;
@@ -8,6 +9,8 @@ import com.insight.util.pojo.Reply;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.*;
+
 /**
  * @author 宣炳刚
  * @date 2017/9/9
@@ -17,7 +20,17 @@ public class Verify {
     private final Core core;
     private final AccessToken accessToken;
     private final Logger logger;
-    private final Token basis;
+    private Token basis;
+
+    /**
+     * 签名访问令牌的声明(非签名访问令牌时为null)
+     */
+    private TokenClaims claims;
+
+    /**
+     * 是否批量验证(Token由调用方加载,变化的数据由调用方统一保存)
+     */
+    private final boolean isDeferred;
 
     /**
      * 令牌ID
@@ -30,11 +43,40 @@ public class Verify {
      * @param token 访问令牌
      */
     public Verify(String token) {
-        core = ApplicationContextHolder.getContext().getBean(Core.class);
+        this(ApplicationContextHolder.getContext().getBean(Core.class), token, false);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param core       Core
+     * @param token      访问令牌
+     * @param isDeferred 是否批量验证
+     */
+    Verify(Core core, String token, boolean isDeferred) {
+        this.core = core;
+        this.isDeferred = isDeferred;
         logger = LoggerFactory.getLogger(this.getClass());
 
-        // 初始化参数
-        accessToken = Json.toAccessToken(token);
+        // 签名访问令牌在验证签名后读取声明,不访问Redis
+        if (TokenSigner.isSigned(token)) {
+            claims = core.getClaims(token);
+            if (claims == null) {
+                accessToken = null;
+                logger.error("签名验证失败。Token is:" + token);
+                return;
+            }
+
+            accessToken = new AccessToken();
+            accessToken.setId(claims.getTokenId());
+            accessToken.setUserId(claims.getUserId());
+            accessToken.setUserName(claims.getUserName());
+            tokenId = claims.getTokenId();
+            return;
+        }
+
+        // 初始化参数,重复的访问令牌直接使用已解析的结果
+        accessToken = core.getAccessToken(token);
         if (accessToken == null){
             basis = null;
             logger.error("提取验证信息失败。Token is:" + token);
@@ -42,7 +84,49 @@ public class Verify {
         }
 
         tokenId = accessToken.getId();
-        basis = core.getToken(accessToken.getUserId());
+        if (!isDeferred) {
+            basis = core.getSession(accessToken.getUserId(), tokenId);
+        }
+    }
+
+    /**
+     * 批量验证令牌,一次管道操作加载全部Token,验证结束后一次管道操作保存变化的数据
+     *
+     * @param items 令牌及功能集合
+     * @return 与请求顺序一致的验证结果
+     */
+    public static List<Reply> compareAll(List<VerifyItem> items) {
+        Core core = ApplicationContextHolder.getContext().getBean(Core.class);
+        List<Verify> verifies = new ArrayList<>(items.size());
+        Map<String, Set<String>> tokenIds = new LinkedHashMap<>();
+        for (VerifyItem item : items) {
+            String token = item.getToken();
+            Verify verify = token == null || token.isEmpty() ? null : new Verify(core, token, true);
+            if (verify != null && verify.needSession(item.getFunction())) {
+                tokenIds.computeIfAbsent(verify.getUserId(), k -> new LinkedHashSet<>()).add(verify.getTokenId());
+            }
+
+            verifies.add(verify);
+        }
+
+        Map<String, Token> tokens = tokenIds.isEmpty() ? new HashMap<>(0) : core.getSessions(tokenIds);
+        List<Reply> replies = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            Verify verify = verifies.get(i);
+            if (verify == null) {
+                replies.add(ReplyHelper.invalidToken());
+                continue;
+            }
+
+            if (verify.getUserId() != null) {
+                verify.setBasis(tokens.get(verify.getUserId()));
+            }
+
+            replies.add(verify.compare(items.get(i).getFunction()));
+        }
+
+        core.setTokenCaches(tokens.values());
+        return replies;
     }
 
     /**
@@ -53,7 +137,7 @@ public class Verify {
      * @return 功能的Key
      */
     public String getFunction(String userId, String function) {
-        return basis != null && basis.getUserId().equals(userId) ? null : function;
+        return accessToken != null && accessToken.getUserId().equals(userId) ? null : function;
     }
 
     /**
@@ -72,6 +156,10 @@ public class Verify {
      * @return Reply Token验证结果
      */
     public Reply compare(String function) {
+        if (claims != null) {
+            return compareClaims(function);
+        }
+
         if (basis == null) {
             return ReplyHelper.invalidToken();
         }
@@ -87,15 +175,17 @@ public class Verify {
         }
 
         if (basis.userIsInvalid()) {
-            core.setTokenCache(basis);
+            save();
             return ReplyHelper.fail("用户被禁止登录");
         }
 
         Boolean isPermit = basis.verifyToken(accessToken.getSecret(), 1);
         if (!isPermit) {
-            core.setTokenCache(basis);
+            save();
             return ReplyHelper.invalidToken();
         }
+
+        core.touch(basis.getUserId());
         // 无需鉴权,返回成功
         if (function == null || function.isEmpty()) {
             return ReplyHelper.success();
@@ -106,10 +196,101 @@ public class Verify {
             return ReplyHelper.success();
         }
 
-        logger.warn("用户『" + basis.getAccount() + "』试图使用未授权的功能:" + function);
+        logger.warn("用户『" + accessToken.getUserName() + "』试图使用未授权的功能:" + function);
         return ReplyHelper.noAuth();
     }
 
+    /**
+     * 验证签名访问令牌,无需鉴权时不访问Redis
+     *
+     * @param function 功能ID或URL
+     * @return Reply Token验证结果
+     */
+    private Reply compareClaims(String function) {
+        if (System.currentTimeMillis() > claims.getExpiry()) {
+            return ReplyHelper.expiredToken();
+        }
+
+        if (core.isRevoked(claims)) {
+            return ReplyHelper.invalidToken();
+        }
+
+        core.touch(claims.getUserId());
+
+        // 无需鉴权,返回成功
+        if (function == null || function.isEmpty()) {
+            return ReplyHelper.success();
+        }
+
+        // 鉴权需要当前的会话状态
+        if (!isDeferred) {
+            basis = core.getSession(claims.getUserId(), tokenId);
+        }
+
+        if (basis == null) {
+            return ReplyHelper.invalidToken();
+        }
+
+        basis.selectKeys(tokenId);
+        if (basis.isFailure()) {
+            return ReplyHelper.invalidToken();
+        }
+
+        if (basis.userIsInvalid()) {
+            save();
+            return ReplyHelper.fail("用户被禁止登录");
+        }
+
+        // 角色集合已变化的,令牌按过期处理,由客户端刷新后获取新的声明
+        if (!TokenSigner.getRoleVersion(basis.getRoleList()).equals(claims.getRoleVersion())) {
+            return ReplyHelper.expiredToken();
+        }
+
+        if (core.isPermit(basis, function)) {
+            return ReplyHelper.success();
+        }
+
+        logger.warn("用户『" + accessToken.getUserName() + "』试图使用未授权的功能:" + function);
+        return ReplyHelper.noAuth();
+    }
+
+    /**
+     * 保存验证过程中变化的数据(批量验证时由调用方统一保存)
+     */
+    private void save() {
+        if (!isDeferred) {
+            core.setTokenCache(basis);
+        }
+    }
+
+    /**
+     * 验证时是否需要读取会话数据(签名访问令牌无需鉴权时不需要)
+     *
+     * @param function 功能ID或URL
+     * @return 是否需要读取会话数据
+     */
+    boolean needSession(String function) {
+        return accessToken != null && (claims == null || function != null && !function.isEmpty());
+    }
+
+    /**
+     * 设置批量加载的Token
+     *
+     * @param basis Token(可能仅包含会话验证数据)
+     */
+    void setBasis(Token basis) {
+        this.basis = basis;
+    }
+
+    /**
+     * 获取令牌的用户ID
+     *
+     * @return 用户ID,令牌无法解析时为null
+     */
+    String getUserId() {
+        return accessToken == null ? null : accessToken.getUserId();
+    }
+
     /**
      * 获取令牌ID
      *
@@ -120,11 +301,33 @@ public class Verify {
     }
 
     /**
-     * 获取缓存中的令牌
+     * 获取令牌当前的角色ID集合(验证通过后调用),签名访问令牌取自声明
+     *
+     * @return 角色ID集合
+     */
+    public List<String> getRoleIds() {
+        if (claims != null && claims.getRoleIds() != null) {
+            return claims.getRoleIds();
+        }
+
+        Token token = basis == null ? getBasis() : basis;
+        return token == null ? new ArrayList<>() : core.getRoleIds(token);
+    }
+
+    /**
+     * 获取缓存中的令牌(验证时未加载或仅加载了会话数据的,在此加载完整的Token)
      *
      * @return Token
      */
     public Token getBasis() {
+        if (claims != null && basis == null || basis != null && basis.isPartial()) {
+            Token token = core.getToken(accessToken.getUserId());
+            if (token != null) {
+                token.selectKeys(tokenId);
+                basis = token;
+            }
+        }
+
         return basis;
     }
 }
@@ -0,0 +1,94 @@
+package com.insight.usercenter.common.dto;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/4/12
+ * @remark Redis键族的抽样统计
+ */
+public class KeyFamilyStats implements Serializable {
+    private static final long serialVersionUID = -1L;
+
+    /**
+     * 键族(键的前缀、legacy或other)
+     */
+    private String family;
+
+    /**
+     * 抽样的键数量
+     */
+    private Long sampledKeys;
+
+    /**
+     * 抽样键的内存字节数
+     */
+    private Long sampledBytes;
+
+    /**
+     * 按抽样比例估算的键数量
+     */
+    private Long estimatedKeys;
+
+    /**
+     * 按抽样比例估算的内存字节数
+     */
+    private Long estimatedBytes;
+
+    /**
+     * 抽样键的剩余有效期分布(区间-键数量)
+     */
+    private Map<String, Long> ttl;
+
+    public KeyFamilyStats() {
+    }
+
+    public String getFamily() {
+        return family;
+    }
+
+    public void setFamily(String family) {
+        this.family = family;
+    }
+
+    public Long getSampledKeys() {
+        return sampledKeys;
+    }
+
+    public void setSampledKeys(Long sampledKeys) {
+        this.sampledKeys = sampledKeys;
+    }
+
+    public Long getSampledBytes() {
+        return sampledBytes;
+    }
+
+    public void setSampledBytes(Long sampledBytes) {
+        this.sampledBytes = sampledBytes;
+    }
+
+    public Long getEstimatedKeys() {
+        return estimatedKeys;
+    }
+
+    public void setEstimatedKeys(Long estimatedKeys) {
+        this.estimatedKeys = estimatedKeys;
+    }
+
+    public Long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    public void setEstimatedBytes(Long estimatedBytes) {
+        this.estimatedBytes = estimatedBytes;
+    }
+
+    public Map<String, Long> getTtl() {
+        return ttl;
+    }
+
+    public void setTtl(Map<String, Long> ttl) {
+        this.ttl = ttl;
+    }
+}
@@ -0,0 +1,68 @@
+package com.insight.usercenter.common.dto;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/4/2
+ * @remark 在线会话信息
+ */
+public class SessionInfo implements Serializable {
+    private static final long serialVersionUID = -1L;
+
+    /**
+     * 令牌ID
+     */
+    private String tokenId;
+
+    /**
+     * 用户ID
+     */
+    private String userId;
+
+    /**
+     * 应用ID
+     */
+    private String appId;
+
+    /**
+     * 令牌失效时间
+     */
+    private Date failureTime;
+
+    public SessionInfo() {
+    }
+
+    public String getTokenId() {
+        return tokenId;
+    }
+
+    public void setTokenId(String tokenId) {
+        this.tokenId = tokenId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public String getAppId() {
+        return appId;
+    }
+
+    public void setAppId(String appId) {
+        this.appId = appId;
+    }
+
+    public Date getFailureTime() {
+        return failureTime;
+    }
+
+    public void setFailureTime(Date failureTime) {
+        this.failureTime = failureTime;
+    }
+}
@@ -0,0 +1,146 @@
+package com.insight.usercenter.common.dto;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/4/3
+ * @remark 签名访问令牌携带的声明,验证签名及有效期后无需读取Redis
+ */
+public class TokenClaims implements Serializable {
+    private static final long serialVersionUID = -1L;
+
+    /**
+     * 签名密钥ID
+     */
+    private String kid;
+
+    /**
+     * 令牌ID
+     */
+    private String tokenId;
+
+    /**
+     * 用户ID
+     */
+    private String userId;
+
+    /**
+     * 用户名
+     */
+    private String userName;
+
+    /**
+     * 租户ID
+     */
+    private String tenantId;
+
+    /**
+     * 登录部门ID
+     */
+    private String deptId;
+
+    /**
+     * 角色ID集合,网关以此对照应用鉴权清单在本地鉴权
+     */
+    private List<String> roleIds;
+
+    /**
+     * 角色集合版本
+     */
+    private String roleVersion;
+
+    /**
+     * 签发时间(毫秒数)
+     */
+    private Long issuedAt;
+
+    /**
+     * 过期时间(毫秒数)
+     */
+    private Long expiry;
+
+    public TokenClaims() {
+    }
+
+    public String getKid() {
+        return kid;
+    }
+
+    public void setKid(String kid) {
+        this.kid = kid;
+    }
+
+    public String getTokenId() {
+        return tokenId;
+    }
+
+    public void setTokenId(String tokenId) {
+        this.tokenId = tokenId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public String getUserName() {
+        return userName;
+    }
+
+    public void setUserName(String userName) {
+        this.userName = userName;
+    }
+
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    public void setTenantId(String tenantId) {
+        this.tenantId = tenantId;
+    }
+
+    public String getDeptId() {
+        return deptId;
+    }
+
+    public void setDeptId(String deptId) {
+        this.deptId = deptId;
+    }
+
+    public List<String> getRoleIds() {
+        return roleIds;
+    }
+
+    public void setRoleIds(List<String> roleIds) {
+        this.roleIds = roleIds;
+    }
+
+    public String getRoleVersion() {
+        return roleVersion;
+    }
+
+    public void setRoleVersion(String roleVersion) {
+        this.roleVersion = roleVersion;
+    }
+
+    public Long getIssuedAt() {
+        return issuedAt;
+    }
+
+    public void setIssuedAt(Long issuedAt) {
+        this.issuedAt = issuedAt;
+    }
+
+    public Long getExpiry() {
+        return expiry;
+    }
+
+    public void setExpiry(Long expiry) {
+        this.expiry = expiry;
+    }
+}
@@ -0,0 +1,41 @@
+package com.insight.usercenter.common.dto;
+
+import java.io.Serializable;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/4/4
+ * @remark 批量验证令牌的请求项
+ */
+public class VerifyItem implements Serializable {
+    private static final long serialVersionUID = -1L;
+
+    /**
+     * 访问令牌
+     */
+    private String token;
+
+    /**
+     * 功能ID或URL(为空时仅验证令牌)
+     */
+    private String function;
+
+    public VerifyItem() {
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public void setToken(String token) {
+        this.token = token;
+    }
+
+    public String getFunction() {
+        return function;
+    }
+
+    public void setFunction(String function) {
+        this.function = function;
+    }
+}
@@ -0,0 +1,64 @@
+package com.insight.usercenter.common.entity;
+
+import java.io.Serializable;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/4/9
+ * @remark 登录标识冲突记录类,用户的登录标识已被其他用户占用(INSERT IGNORE未写入)
+ */
+public class IdentifierConflict implements Serializable {
+    private static final long serialVersionUID = -1L;
+
+    /**
+     * 登录标识(去除首尾空格并转为小写)
+     */
+    private String identifier;
+
+    /**
+     * 标识类型(1:账号;2:手机号;3:E-mail;4:微信OpenID)
+     */
+    private Integer type;
+
+    /**
+     * 未能写入标识的用户ID
+     */
+    private String userId;
+
+    /**
+     * 已占用标识的用户ID
+     */
+    private String ownerId;
+
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    public void setIdentifier(String identifier) {
+        this.identifier = identifier;
+    }
+
+    public Integer getType() {
+        return type;
+    }
+
+    public void setType(Integer type) {
+        this.type = type;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public String getOwnerId() {
+        return ownerId;
+    }
+
+    public void setOwnerId(String ownerId) {
+        this.ownerId = ownerId;
+    }
+}
@@ -43,14 +43,14 @@ public class Keys {
     private String weChatOpenId;
 
     /**
-     * Token过期时间
+     * Token过期时间(含超时时长的毫秒数)
      */
-    private Date expiryTime;
+    private long expiry;
 
     /**
-     * Token失效时间
+     * Token失效时间(含超时时长的毫秒数)
      */
-    private Date failureTime;
+    private long failure;
 
     /**
      * 构造函数
@@ -70,8 +70,45 @@ public class Keys {
         tokenLife = 3600 * hours;
         secretKey = Generator.uuid();
         refreshKey = Generator.uuid();
-        expiryTime = new Date(1000 * tokenLife.longValue() / 12 + System.currentTimeMillis() + TIME_OUT);
-        failureTime = new Date(1000 * tokenLife.longValue() + System.currentTimeMillis() + TIME_OUT);
+        expiry = 1000 * tokenLife.longValue() / 12 + System.currentTimeMillis() + TIME_OUT;
+        failure = 1000 * tokenLife.longValue() + System.currentTimeMillis() + TIME_OUT;
+    }
+
+    /**
+     * 复制构造方法
+     *
+     * @param keys 被复制的令牌关键数据集
+     */
+    public Keys(Keys keys) {
+        appId = keys.appId;
+        tokenLife = keys.tokenLife;
+        secretKey = keys.secretKey;
+        refreshKey = keys.refreshKey;
+        weChatOpenId = keys.weChatOpenId;
+        expiry = keys.expiry;
+        failure = keys.failure;
+    }
+
+    /**
+     * 构造方法(从会话记录还原)
+     *
+     * @param appId        应用ID
+     * @param tokenLife    令牌生命周期(秒)
+     * @param secretKey    Token验证密钥
+     * @param refreshKey   Token刷新密钥
+     * @param weChatOpenId 微信OpenID
+     * @param expiry       Token过期时间(含超时时长的毫秒数)
+     * @param failure      Token失效时间(含超时时长的毫秒数)
+     */
+    public Keys(String appId, Integer tokenLife, String secretKey, String refreshKey, String weChatOpenId, long expiry, long failure) {
+        this.appId = appId;
+        this.tokenLife = tokenLife;
+        this.secretKey = secretKey;
+        this.refreshKey = refreshKey;
+        this.weChatOpenId = weChatOpenId;
+
+        this.expiry = expiry;
+        this.failure = failure;
     }
 
     /**
@@ -94,9 +131,9 @@ public class Keys {
      * 刷新令牌关键数据
      **/
     public void refresh() {
-        expiryTime = new Date(1000 * tokenLife.longValue() / 12 + System.currentTimeMillis() + TIME_OUT);
+        expiry = 1000 * tokenLife.longValue() / 12 + System.currentTimeMillis() + TIME_OUT;
         if (appId == null) {
-            failureTime = new Date(1000 * tokenLife.longValue() + System.currentTimeMillis() + TIME_OUT);
+            failure = 1000 * tokenLife.longValue() + System.currentTimeMillis() + TIME_OUT;
         } else {
             secretKey = Generator.uuid();
         }
@@ -110,9 +147,8 @@ public class Keys {
      */
     @JsonIgnore
     public Boolean isExpiry(Boolean isReal) {
-        Date now = new Date();
-        Date expiry = isReal ? expiryTime : new Date(expiryTime.getTime() - TIME_OUT);
-        return now.after(expiry);
+        long now = System.currentTimeMillis();
+        return now > (isReal ? expiry : expiry - TIME_OUT);
     }
 
     /**
@@ -121,8 +157,27 @@ public class Keys {
      * @return Token是否失效
      */
     public Boolean isFailure() {
-        Date now = new Date();
-        return now.after(failureTime);
+        return System.currentTimeMillis() > failure;
+    }
+
+    /**
+     * 获取Token过期时间(含超时时长的毫秒数)
+     *
+     * @return 过期时间
+     */
+    @JsonIgnore
+    public long getExpiryMillis() {
+        return expiry;
+    }
+
+    /**
+     * 获取Token失效时间(含超时时长的毫秒数)
+     *
+     * @return 失效时间
+     */
+    @JsonIgnore
+    public long getFailureMillis() {
+        return failure;
     }
 
     public String getAppId() {
@@ -162,18 +217,18 @@ public class Keys {
     }
 
     public Date getExpiryTime() {
-        return new Date(expiryTime.getTime() - TIME_OUT);
+        return new Date(expiry - TIME_OUT);
     }
 
     public void setExpiryTime(Date expiryTime) {
-        this.expiryTime = expiryTime;
+        expiry = expiryTime == null ? 0 : expiryTime.getTime();
     }
 
     public Date getFailureTime() {
-        return new Date(failureTime.getTime() - TIME_OUT);
+        return new Date(failure - TIME_OUT);
     }
 
     public void setFailureTime(Date failureTime) {
-        this.failureTime = failureTime;
+        failure = failureTime == null ? 0 : failureTime.getTime();
     }
 }
@@ -0,0 +1,51 @@
+package com.insight.usercenter.common.entity;
+
+import java.io.Serializable;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/3/22
+ * @remark 角色授权记录类
+ */
+public class RoleAction implements Serializable {
+    private static final long serialVersionUID = -1L;
+
+    /**
+     * 角色ID
+     */
+    private String roleId;
+
+    /**
+     * 功能ID
+     */
+    private String functionId;
+
+    /**
+     * 是否授权(true:允许,false:拒绝)
+     */
+    private Boolean action;
+
+    public String getRoleId() {
+        return roleId;
+    }
+
+    public void setRoleId(String roleId) {
+        this.roleId = roleId;
+    }
+
+    public String getFunctionId() {
+        return functionId;
+    }
+
+    public void setFunctionId(String functionId) {
+        this.functionId = functionId;
+    }
+
+    public Boolean getAction() {
+        return action;
+    }
+
+    public void setAction(Boolean action) {
+        this.action = action;
+    }
+}
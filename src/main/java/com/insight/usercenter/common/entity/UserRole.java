@@ -0,0 +1,64 @@
+package com.insight.usercenter.common.entity;
+
+import java.io.Serializable;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/3/29
+ * @remark 用户-角色关系类
+ */
+public class UserRole implements Serializable {
+    private static final long serialVersionUID = -1L;
+
+    /**
+     * 用户ID
+     */
+    private String userId;
+
+    /**
+     * 租户ID
+     */
+    private String tenantId;
+
+    /**
+     * 部门ID(为空时在全部部门有效)
+     */
+    private String deptId;
+
+    /**
+     * 角色ID
+     */
+    private String roleId;
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    public void setTenantId(String tenantId) {
+        this.tenantId = tenantId;
+    }
+
+    public String getDeptId() {
+        return deptId;
+    }
+
+    public void setDeptId(String deptId) {
+        this.deptId = deptId;
+    }
+
+    public String getRoleId() {
+        return roleId;
+    }
+
+    public void setRoleId(String roleId) {
+        this.roleId = roleId;
+    }
+}
@@ -1,9 +1,11 @@
 package com.insight.usercenter.common.filter;
 
+import com.insight.usercenter.common.AccessTokenCache;
 import com.insight.util.Json;
 import com.insight.util.Util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import javax.servlet.*;
@@ -25,8 +27,19 @@ import java.util.Map;
 @WebFilter(urlPatterns = {"/*"})
 public class LogFilter implements Filter {
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private final AccessTokenCache accessTokenCache;
     private FilterConfig filterConfig;
 
+    /**
+     * 构造方法
+     *
+     * @param accessTokenCache 自动注入的AccessTokenCache
+     */
+    @Autowired
+    public LogFilter(AccessTokenCache accessTokenCache) {
+        this.accessTokenCache = accessTokenCache;
+    }
+
     /**
      * 初始化方法,传入过滤器配置
      *
@@ -66,11 +79,11 @@ public class LogFilter implements Filter {
         log.setUrl(path);
         logger.info("来源地址:" + ip + " -> 目标接口:[" + method + "]" + path);
 
-        // 读取并解析访问令牌
+        // 读取并解析访问令牌(解析结果缓存后供Verify使用)
         String token = request.getHeader("authorization");
         if (token != null && !token.isEmpty()) {
             try {
-                log.setToken(Json.toAccessToken(token));
+                log.setToken(accessTokenCache.get(token));
             } catch (Exception ex) {
                 log.setException(ex.getMessage());
             }
@@ -1,8 +1,10 @@
 package com.insight.usercenter.common.mapper;
 
+import com.insight.usercenter.app.dto.ManifestFunction;
 import com.insight.usercenter.common.entity.App;
 import com.insight.usercenter.common.entity.Function;
 import com.insight.usercenter.common.entity.Navigator;
+import com.insight.usercenter.common.entity.RoleAction;
 import org.apache.ibatis.annotations.*;
 
 import java.util.List;
@@ -140,4 +142,36 @@ public interface AppMapper extends Mapper {
             "`name`=#{name},alias=#{alias},icon=#{icon},url=#{url},interfaces=#{interfaces},remark=#{remark}," +
             "begin_group=#{beginGroup},hide_text=#{hideText},is_invisible=#{invisible} WHERE id=#{id};")
     Integer updateFunction(Function function);
+
+    /**
+     * 获取指定应用的鉴权功能表
+     *
+     * @param appId 应用ID
+     * @return 功能集合(按功能ID排序)
+     */
+    @Select("SELECT id,alias,IFNULL(interfaces,'') AS interfaces FROM ucs_function WHERE application_id=#{appId} ORDER BY id;")
+    List<ManifestFunction> getManifestFunctions(String appId);
+
+    /**
+     * 获取指定应用功能的全部授权记录
+     *
+     * @param appId 应用ID
+     * @return 授权记录集合
+     */
+    @Select("SELECT a.role_id,a.function_id,a.action FROM ucr_role_action a " +
+            "JOIN ucs_function f ON f.id=a.function_id AND f.application_id=#{appId};")
+    List<RoleAction> getManifestActions(String appId);
+
+    /**
+     * 获取指定角色对指定应用功能的授权记录
+     *
+     * @param appId   应用ID
+     * @param roleIds 角色ID集合
+     * @return 授权记录集合
+     */
+    @Select("<script>SELECT a.role_id,a.function_id,a.action FROM ucr_role_action a " +
+            "JOIN ucs_function f ON f.id=a.function_id AND f.application_id=#{appId} WHERE a.role_id IN " +
+            "<foreach collection = \"list\" item = \"item\" index = \"index\" open=\"(\" close=\")\" separator = \",\">" +
+            "#{item}</foreach>;</script>")
+    List<RoleAction> getManifestActionsByRoles(@Param("appId") String appId, @Param("list") List<String> roleIds);
 }
@@ -2,6 +2,7 @@ package com.insight.usercenter.common.mapper;
 
 import com.insight.usercenter.common.entity.Function;
 import com.insight.usercenter.common.entity.Navigator;
+import com.insight.usercenter.common.entity.RoleAction;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
@@ -34,7 +35,7 @@ public interface AuthMapper extends Mapper {
      * @return Function对象集合
      */
     @Select("SELECT f.id,f.alias,IFNULL(f.interfaces,'') AS interfaces FROM ucs_function f JOIN ucr_role_action a ON a.function_id=f.id " +
-            "JOIN (SELECT DISTINCT role_id FROM ucv_user_roles WHERE user_id=#{userId} AND tenant_id=#{tenantId} " +
+            "JOIN (SELECT DISTINCT role_id FROM ucr_user_role WHERE user_id=#{userId} AND tenant_id=#{tenantId} " +
             "AND (dept_id=#{deptId} OR dept_id IS NULL)) r ON r.role_id=a.role_id GROUP BY f.id HAVING min(a.action)> 0;")
     List<Function> getAllFunctions(@Param("tenantId") String tenantId, @Param("userId") String userId, @Param("deptId") String deptId);
 
@@ -49,11 +50,11 @@ public interface AuthMapper extends Mapper {
      */
     @Select("SELECT * FROM (SELECT DISTINCT g.id,g.parent_id,g.`index`,g.`name`,g.icon,g.url FROM ucs_navigator g " +
             "JOIN ucs_navigator m ON m.parent_id=g.id JOIN ucs_function f ON f.navigator_id=m.id AND f.is_invisible=0 " +
-            "JOIN (SELECT DISTINCT a.function_id FROM ucr_role_action a JOIN ucv_user_roles r ON r.role_id=a.role_id " +
+            "JOIN (SELECT DISTINCT a.function_id FROM ucr_role_action a JOIN ucr_user_role r ON r.role_id=a.role_id " +
             "WHERE user_id=#{userId} AND tenant_id=#{tenantId} AND (dept_id=#{deptId} OR dept_id IS NULL) " +
             "GROUP BY a.function_id HAVING min(a.action)> 0) a ON a.function_id=f.id WHERE g.application_id=#{appId} UNION " +
             "SELECT m.id,m.parent_id,m.`index`,m.`name`,m.icon,m.url FROM ucs_navigator m JOIN ucs_function f ON f.navigator_id=m.id AND f.is_invisible=0 " +
-            "JOIN (SELECT DISTINCT a.function_id FROM ucr_role_action a JOIN ucv_user_roles r ON r.role_id=a.role_id " +
+            "JOIN (SELECT DISTINCT a.function_id FROM ucr_role_action a JOIN ucr_user_role r ON r.role_id=a.role_id " +
             "WHERE user_id=#{userId} AND tenant_id=#{tenantId} AND (dept_id=#{deptId} OR dept_id IS NULL) GROUP BY a.function_id " +
             "HAVING min(a.action)> 0) a ON a.function_id=f.id WHERE m.application_id=#{appId}) l ORDER BY l.parent_id,l.`index`;")
     List<Navigator> getNavigators(@Param("tenantId") String tenantId, @Param("appId") String appId, @Param("userId") String userId, @Param("deptId") String deptId);
@@ -68,7 +69,7 @@ public interface AuthMapper extends Mapper {
      * @return Function对象集合
      */
     @Select("SELECT f.id,f.navigator_id AS parent_id,f.`index`,f.`name`,f.icon,f.url,a.permit FROM ucs_function f " +
-            "LEFT JOIN (SELECT a.function_id,min(a.action) AS permit FROM ucr_role_action a JOIN ucv_user_roles r " +
+            "LEFT JOIN (SELECT a.function_id,min(a.action) AS permit FROM ucr_role_action a JOIN ucr_user_role r " +
             "ON r.role_id=a.role_id AND r.user_id=#{userId} AND r.tenant_id=#{tenantId} AND (r.dept_id=#{deptId} OR r.dept_id IS NULL) " +
             "GROUP BY a.function_id) a ON a.function_id=f.id WHERE f.navigator_id=#{moduleId} AND f.is_invisible=0 ORDER BY f.`index`;")
     List<Function> getModuleFunctions(@Param("tenantId") String tenantId, @Param("moduleId") String moduleId, @Param("userId") String userId, @Param("deptId") String deptId);
@@ -83,6 +84,24 @@ public interface AuthMapper extends Mapper {
     @Select("SELECT COUNT(*) FROM ucb_tenant_app WHERE tenant_id=#{tenantId} AND app_id=#{appId};")
     Integer containsApp(@Param("tenantId") String tenantId, @Param("appId") String appId);
 
+    /**
+     * 查询指定租户绑定的应用ID集合
+     *
+     * @param tenantId 租户ID
+     * @return 应用ID集合
+     */
+    @Select("SELECT app_id FROM ucb_tenant_app WHERE tenant_id=#{tenantId};")
+    List<String> getTenantAppIds(String tenantId);
+
+    /**
+     * 查询指定模块所属的应用ID
+     *
+     * @param moduleId 模块ID
+     * @return 应用ID
+     */
+    @Select("SELECT application_id FROM ucs_navigator WHERE id=#{moduleId};")
+    String getModuleAppId(String moduleId);
+
     /**
      * 根据角色id查询功能集合
      *
@@ -103,4 +122,29 @@ public interface AuthMapper extends Mapper {
             "#{item} " +
             "</foreach>;</script>")
     List<Function> getFunctions(List<String> list);
+
+    /**
+     * 获取全部功能的鉴权数据(ID、别名及接口URL)
+     *
+     * @return Function对象集合
+     */
+    @Select("SELECT id,alias,IFNULL(interfaces,'') AS interfaces FROM ucs_function;")
+    List<Function> getFunctionCatalog();
+
+    /**
+     * 获取全部角色的授权记录
+     *
+     * @return 授权记录集合
+     */
+    @Select("SELECT role_id,function_id,action FROM ucr_role_action;")
+    List<RoleAction> getRoleActions();
+
+    /**
+     * 获取指定角色的授权记录
+     *
+     * @param roleId 角色ID
+     * @return 授权记录集合
+     */
+    @Select("SELECT role_id,function_id,action FROM ucr_role_action WHERE role_id=#{roleId};")
+    List<RoleAction> getRoleActionsByRoleId(String roleId);
 }
@@ -40,29 +40,6 @@ public interface RoleMapper extends Mapper {
     @Select("SELECT * FROM ucr_role WHERE id=#{id}")
     Role getRole(String id);
 
-    /**
-     * 获取角色功能
-     *
-     * @param appId  应用ID
-     * @param roleId 角色ID
-     * @return 功能集合
-     */
-    @Select("SELECT * FROM (SELECT g.id,g.parent_id,1 AS type,g.`index`,g.`name`,g.icon,g.url," +
-            "CASE WHEN m.max IS NULL THEN NULL WHEN m.max=m.count THEN 1 ELSE 0 END AS action " +
-            "FROM ucs_navigator g JOIN (SELECT m.parent_id,sum(a.action) AS max,count(*) AS count " +
-            "FROM ucs_navigator m JOIN ucs_function f ON f.navigator_id=m.id " +
-            "LEFT JOIN ucr_role_action a ON a.function_id=f.id AND role_id=#{roleId} " +
-            "WHERE m.application_id=#{appId} GROUP BY m.parent_id) m ON m.parent_id=g.id UNION " +
-            "SELECT m.id,m.parent_id,2 AS type,m.`index`,m.`name`,m.icon,m.url," +
-            "CASE WHEN f.max IS NULL THEN NULL WHEN f.max=f.count THEN 1 ELSE 0 END AS action " +
-            "FROM ucs_navigator m JOIN (SELECT navigator_id,sum(a.action) AS max,count(*) AS count " +
-            "FROM ucs_function f LEFT JOIN ucr_role_action a ON a.function_id=f.id AND role_id=#{roleId} " +
-            "GROUP BY f.navigator_id) f ON f.navigator_id=m.id WHERE m.application_id=#{appId} UNION " +
-            "SELECT f.id,f.navigator_id AS parent_id,3 AS type,f.`index`,f.`name`,f.icon,f.url,a.action " +
-            "FROM ucs_function f LEFT JOIN ucr_role_action a ON a.function_id=f.id AND a.role_id=#{roleId} " +
-            "WHERE f.application_id=#{appId}) l ORDER BY l.type,l.parent_id,l.`index`;")
-    List<Function> getRoleFunction(@Param("appId") String appId, @Param("roleId") String roleId);
-
     /**
      * 获取角色成员
      *
@@ -0,0 +1,106 @@
+package com.insight.usercenter.common.mapper;
+
+import com.insight.usercenter.common.entity.IdentifierConflict;
+import org.apache.ibatis.annotations.*;
+
+import java.util.List;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/4/9
+ * @remark 用户登录标识(ucb_user_identifier)相关DAL,标识由ucb_user的对应字段生成
+ */
+@Mapper
+public interface UserIdentifierMapper extends Mapper {
+    int ACCOUNT = 1;
+    int MOBILE = 2;
+    int EMAIL = 3;
+    int OPEN_ID = 4;
+
+    String INSERT = "INSERT IGNORE ucb_user_identifier (identifier,type,user_id) SELECT l.* FROM (";
+    String ACCOUNTS = "SELECT LOWER(TRIM(account)) AS identifier,1 AS type,id FROM ucb_user WHERE account!='' AND ";
+    String MOBILES = " UNION ALL SELECT LOWER(TRIM(mobile)),2,id FROM ucb_user WHERE mobile!='' AND ";
+    String EMAILS = " UNION ALL SELECT LOWER(TRIM(email)),3,id FROM ucb_user WHERE email!='' AND ";
+    String OPEN_IDS = " UNION ALL SELECT LOWER(TRIM(open_id)),4,id FROM ucb_user WHERE open_id!='' AND ";
+    String USER = "id=#{userId}";
+    String USERS = "id IN <foreach collection = \"list\" item = \"item\" index = \"index\" open=\"(\" close=\")\" separator = \",\">#{item}</foreach>";
+    String CONFLICTS = "SELECT l.identifier,l.type,l.id AS user_id,i.user_id AS owner_id FROM (";
+    String CONFLICT_JOIN = ") l JOIN ucb_user_identifier i ON i.identifier=l.identifier AND i.type=l.type WHERE i.user_id!=l.id;";
+
+    /**
+     * 生成指定用户的全部登录标识
+     *
+     * @param userId 用户ID
+     * @return 受影响行数
+     */
+    @Insert(INSERT + ACCOUNTS + USER + MOBILES + USER + EMAILS + USER + OPEN_IDS + USER + ") l;")
+    Integer addIdentifiers(String userId);
+
+    /**
+     * 生成一批用户的全部登录标识(回填使用)
+     *
+     * @param userIds 用户ID集合
+     * @return 受影响行数
+     */
+    @Insert("<script>" + INSERT + ACCOUNTS + USERS + MOBILES + USERS + EMAILS + USERS + OPEN_IDS + USERS + ") l;</script>")
+    Integer addIdentifiersByUsers(@Param("list") List<String> userIds);
+
+    /**
+     * 获取指定用户已被其他用户占用的登录标识
+     *
+     * @param userId 用户ID
+     * @return 登录标识冲突记录集合
+     */
+    @Select(CONFLICTS + ACCOUNTS + USER + MOBILES + USER + EMAILS + USER + OPEN_IDS + USER + CONFLICT_JOIN)
+    List<IdentifierConflict> getConflicts(String userId);
+
+    /**
+     * 获取一批用户已被其他用户占用的登录标识(回填使用)
+     *
+     * @param userIds 用户ID集合
+     * @return 登录标识冲突记录集合
+     */
+    @Select("<script>" + CONFLICTS + ACCOUNTS + USERS + MOBILES + USERS + EMAILS + USERS + OPEN_IDS + USERS + CONFLICT_JOIN + "</script>")
+    List<IdentifierConflict> getConflictsByUsers(@Param("list") List<String> userIds);
+
+    /**
+     * 按用户当前数据重新生成指定类型的登录标识
+     *
+     * @param userId 用户ID
+     * @param type   标识类型
+     * @return 受影响行数
+     */
+    @Insert("INSERT IGNORE ucb_user_identifier (identifier,type,user_id) SELECT LOWER(TRIM(CASE #{type} WHEN 1 THEN account " +
+            "WHEN 2 THEN mobile WHEN 3 THEN email ELSE open_id END)) AS identifier,#{type},id FROM ucb_user " +
+            "WHERE id=#{userId} HAVING identifier!='';")
+    Integer addIdentifier(@Param("userId") String userId, @Param("type") int type);
+
+    /**
+     * 删除用户指定类型的登录标识
+     *
+     * @param userId 用户ID
+     * @param type   标识类型
+     * @return 受影响行数
+     */
+    @Delete("DELETE FROM ucb_user_identifier WHERE user_id=#{userId} AND type=#{type};")
+    Integer removeIdentifier(@Param("userId") String userId, @Param("type") int type);
+
+    /**
+     * 删除用户的全部登录标识
+     *
+     * @param userId 用户ID
+     * @return 受影响行数
+     */
+    @Delete("DELETE FROM ucb_user_identifier WHERE user_id=#{userId};")
+    Integer removeIdentifiers(String userId);
+
+    /**
+     * 按ID顺序分批读取用户ID(回填使用)
+     *
+     * @param lastId 上一批的最后一个用户ID
+     * @param size   每批数量
+     * @return 用户ID集合
+     */
+    @Select("SELECT id FROM ucb_user WHERE id>#{lastId} ORDER BY id LIMIT #{size};")
+    List<String> getUserIds(@Param("lastId") String lastId, @Param("size") int size);
+}
@@ -50,6 +50,17 @@ public interface UserMapper extends Mapper {
             "FROM ucb_user WHERE id=#{userId};")
     User getUserById(String userId);
 
+    /**
+     * 根据ID查询用户数据(包含密码,用于重建已过期的Token)
+     *
+     * @param userId 用户ID
+     * @return 用户实体
+     */
+    @Results({@Result(property = "builtin", column = "is_builtin"),
+            @Result(property = "invalid", column = "is_invalid")})
+    @Select("SELECT * FROM ucb_user WHERE id=#{userId};")
+    User getUserWithPassword(String userId);
+
     /**
      * 根据ID查询用户数据
      *
@@ -65,16 +76,64 @@ public interface UserMapper extends Mapper {
     User getUserWithAppId(@Param("userId") String userId, @Param("appId") String appId);
 
     /**
-     * 根据登录账号查询用户数据
+     * 根据登录账号查询用户数据(通过登录标识表按主键查找)
      *
-     * @param account 登录账号(账号、手机号、E-mail)
+     * @param account 登录账号(账号、手机号、E-mail、openId)
      * @return 用户实体
      */
     @Results({@Result(property = "builtin", column = "is_builtin"),
             @Result(property = "invalid", column = "is_invalid")})
-    @Select("SELECT * FROM ucb_user WHERE account=#{account} OR mobile=#{account} OR email=#{account} OR open_id=#{account} LIMIT 1;")
+    @Select("SELECT u.* FROM ucb_user_identifier i JOIN ucb_user u ON u.id=i.user_id " +
+            "WHERE i.identifier=LOWER(TRIM(#{account})) ORDER BY i.type LIMIT 1;")
     User getUser(String account);
 
+    /**
+     * 根据登录账号查询用户数据(直接查询用户表,仅在登录标识回填完成前使用)
+     *
+     * @param account 登录账号(账号、手机号、E-mail、openId)
+     * @return 用户实体
+     */
+    @Results({@Result(property = "builtin", column = "is_builtin"),
+            @Result(property = "invalid", column = "is_invalid")})
+    @Select("SELECT * FROM ucb_user WHERE account=#{account} OR mobile=#{account} OR email=#{account} OR open_id=#{account} LIMIT 1;")
+    User getUserByColumns(String account);
+
+    /**
+     * 按ID顺序分批读取用户的登录标识(生成登录标识过滤器使用)
+     *
+     * @param lastId 上一批的最后一个用户ID
+     * @param size   每批数量
+     * @return 仅包含ID、账号、手机号、E-mail及微信OpenID的用户集合
+     */
+    @Select("SELECT id,account,mobile,email,open_id FROM ucb_user WHERE id>#{lastId} ORDER BY id LIMIT #{size};")
+    List<User> getUserIdentifiers(@Param("lastId") String lastId, @Param("size") int size);
+
+    /**
+     * 按ID顺序分批读取用户数据(包含密码,缓存预热使用)
+     *
+     * @param lastId 上一批的最后一个用户ID
+     * @param size   每批数量
+     * @return 用户集合
+     */
+    @Results({@Result(property = "builtin", column = "is_builtin"),
+            @Result(property = "invalid", column = "is_invalid")})
+    @Select("SELECT * FROM ucb_user WHERE id>#{lastId} ORDER BY id LIMIT #{size};")
+    List<User> getUsersAfter(@Param("lastId") String lastId, @Param("size") int size);
+
+    /**
+     * 读取指定ID的用户数据(包含密码,缓存预热使用)
+     *
+     * @param list 用户ID集合
+     * @return 用户集合
+     */
+    @Results({@Result(property = "builtin", column = "is_builtin"),
+            @Result(property = "invalid", column = "is_invalid")})
+    @Select("<script>SELECT * FROM ucb_user WHERE id IN " +
+            "<foreach collection = \"list\" item = \"item\" index = \"index\" open=\"(\" close=\")\" separator = \",\"> " +
+            "#{item} " +
+            "</foreach>;</script>")
+    List<User> getUsersByIds(List<String> list);
+
     /**
      * 获取指定ID的用户关联的租户ID集合
      *
@@ -93,9 +152,23 @@ public interface UserMapper extends Mapper {
      * @param email   E-mail
      * @return 用户数量
      */
-    @Select("SELECT COUNT(*) FROM ucb_user WHERE account=#{account} OR mobile=#{mobile} OR open_id=#{openId} OR email=#{email};")
+    @Select("SELECT COUNT(DISTINCT user_id) FROM ucb_user_identifier WHERE (identifier=LOWER(TRIM(#{account})) AND type=1) " +
+            "OR (identifier=LOWER(TRIM(#{mobile})) AND type=2) OR (identifier=LOWER(TRIM(#{email})) AND type=3) " +
+            "OR (identifier=LOWER(TRIM(#{openId})) AND type=4);")
     Integer getExistedUserCount(@Param("account") String account, @Param("mobile") String mobile, @Param("openId") String openId, @Param("email") String email);
 
+    /**
+     * 查询指定账号、手机号、E-mail的用户数量(直接查询用户表,仅在登录标识回填完成前使用)
+     *
+     * @param account 登录账号
+     * @param mobile  手机号
+     * @param openId  微信OpenID
+     * @param email   E-mail
+     * @return 用户数量
+     */
+    @Select("SELECT COUNT(*) FROM ucb_user WHERE account=#{account} OR mobile=#{mobile} OR open_id=#{openId} OR email=#{email};")
+    Integer getExistedUserCountByColumns(@Param("account") String account, @Param("mobile") String mobile, @Param("openId") String openId, @Param("email") String email);
+
     /**
      * 在用户表中新增一条记录
      *
@@ -273,7 +346,7 @@ public interface UserMapper extends Mapper {
      * @param deptId   登录部门ID
      * @return 角色集合
      */
-    @Select("SELECT DISTINCT role_id FROM ucv_user_roles WHERE user_id=#{userId} AND tenant_id=#{tenantId} AND (dept_id=#{deptId} OR dept_id IS NULL)")
+    @Select("SELECT DISTINCT role_id FROM ucr_user_role WHERE user_id=#{userId} AND tenant_id=#{tenantId} AND (dept_id=#{deptId} OR dept_id IS NULL)")
     List<String> getRoleIds(@Param("userId") String userId, @Param("tenantId") String tenantId, @Param("deptId") String deptId);
 
     /**
@@ -282,6 +355,6 @@ public interface UserMapper extends Mapper {
      * @param userId 用户ID
      * @return 角色ID集合
      */
-    @Select("SELECT DISTINCT role_id FROM ucv_user_roles WHERE user_id = #{userId}")
+    @Select("SELECT DISTINCT role_id FROM ucr_user_role WHERE user_id = #{userId}")
     List<String> getRoleIdByMemberId(String userId);
 }
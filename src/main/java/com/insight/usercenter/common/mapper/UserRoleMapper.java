@@ -0,0 +1,154 @@
+package com.insight.usercenter.common.mapper;
+
+import com.insight.usercenter.common.entity.Member;
+import com.insight.usercenter.common.entity.UserRole;
+import org.apache.ibatis.annotations.*;
+
+import java.util.List;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/3/26
+ * @remark 用户-角色关系(ucr_user_role)相关DAL
+ */
+@Mapper
+public interface UserRoleMapper extends Mapper {
+    String INSERT = "INSERT ucr_user_role (id,user_id,tenant_id,dept_id,role_id,member_type,member_id) " +
+            "SELECT REPLACE(uuid(),'-',''),l.* FROM (";
+    String USERS = "SELECT DISTINCT m.member_id AS user_id,r.tenant_id,NULL AS dept_id,r.id AS role_id,1 AS member_type,m.member_id " +
+            "FROM ucr_role_member m JOIN ucr_role r ON r.id=m.role_id WHERE m.type=1 ";
+    String GROUPS = "SELECT DISTINCT g.user_id,r.tenant_id,NULL AS dept_id,r.id AS role_id,2 AS member_type,m.member_id " +
+            "FROM ucr_role_member m JOIN ucr_role r ON r.id=m.role_id JOIN ucg_group_member g ON g.group_id=m.member_id WHERE m.type=2 ";
+    String POSTS = "SELECT DISTINCT p.user_id,r.tenant_id,o.parent_id AS dept_id,r.id AS role_id,3 AS member_type,m.member_id " +
+            "FROM ucr_role_member m JOIN ucr_role r ON r.id=m.role_id JOIN uco_post_member p ON p.post_id=m.member_id " +
+            "JOIN uco_organization o ON o.id=m.member_id WHERE m.type=3 ";
+    String MEMBERS = "AND (m.role_id,m.member_id) IN " +
+            "<foreach collection = \"list\" item = \"item\" index = \"index\" open=\"(\" close=\")\" separator = \",\">" +
+            "(#{item.parentId},#{item.memberId})</foreach> ";
+
+    /**
+     * 展开指定角色的全部成员
+     *
+     * @param roleId 角色ID
+     * @return 受影响行数
+     */
+    @Insert(INSERT + USERS + "AND m.role_id=#{roleId} UNION ALL " + GROUPS + "AND m.role_id=#{roleId} UNION ALL " +
+            POSTS + "AND m.role_id=#{roleId}) l;")
+    Integer addUserRolesByRole(@Param("roleId") String roleId);
+
+    /**
+     * 展开指定的角色成员
+     *
+     * @param members 成员集合(parentId为角色ID)
+     * @return 受影响行数
+     */
+    @Insert("<script>" + INSERT + USERS + MEMBERS + "UNION ALL " + GROUPS + MEMBERS + "UNION ALL " + POSTS + MEMBERS + ") l;</script>")
+    Integer addUserRolesByMembers(@Param("list") List<Member> members);
+
+    /**
+     * 展开指定职位的指定成员所获得的角色
+     *
+     * @param postId 职位ID
+     * @param userId 用户ID
+     * @return 受影响行数
+     */
+    @Insert(INSERT + POSTS + "AND m.member_id=#{postId} AND p.user_id=#{userId}) l;")
+    Integer addPostUserRoles(@Param("postId") String postId, @Param("userId") String userId);
+
+    /**
+     * 展开指定用户组的指定成员所获得的角色
+     *
+     * @param groupId 用户组ID
+     * @param userId  用户ID
+     * @return 受影响行数
+     */
+    @Insert(INSERT + GROUPS + "AND m.member_id=#{groupId} AND g.user_id=#{userId}) l;")
+    Integer addGroupUserRoles(@Param("groupId") String groupId, @Param("userId") String userId);
+
+    /**
+     * 展开全部角色成员
+     *
+     * @return 受影响行数
+     */
+    @Insert(INSERT + USERS + "UNION ALL " + GROUPS + "UNION ALL " + POSTS + ") l;")
+    Integer addAllUserRoles();
+
+    /**
+     * 删除指定角色的全部用户-角色关系
+     *
+     * @param roleId 角色ID
+     * @return 受影响行数
+     */
+    @Delete("DELETE FROM ucr_user_role WHERE role_id=#{roleId};")
+    Integer removeUserRolesByRole(String roleId);
+
+    /**
+     * 删除指定角色成员展开的用户-角色关系
+     *
+     * @param members 成员集合(parentId为角色ID)
+     * @return 受影响行数
+     */
+    @Delete("<script>DELETE FROM ucr_user_role WHERE (role_id,member_id) IN " +
+            "<foreach collection = \"list\" item = \"item\" index = \"index\" open=\"(\" close=\")\" separator = \",\">" +
+            "(#{item.parentId},#{item.memberId})</foreach>;</script>")
+    Integer removeUserRolesByMembers(@Param("list") List<Member> members);
+
+    /**
+     * 删除指定职位的指定成员所获得的角色
+     *
+     * @param postId 职位ID
+     * @param userId 用户ID
+     * @return 受影响行数
+     */
+    @Delete("DELETE FROM ucr_user_role WHERE member_type=3 AND member_id=#{postId} AND user_id=#{userId};")
+    Integer removePostUserRoles(@Param("postId") String postId, @Param("userId") String userId);
+
+    /**
+     * 删除指定用户组的指定成员所获得的角色
+     *
+     * @param groupId 用户组ID
+     * @param userId  用户ID
+     * @return 受影响行数
+     */
+    @Delete("DELETE FROM ucr_user_role WHERE member_type=2 AND member_id=#{groupId} AND user_id=#{userId};")
+    Integer removeGroupUserRoles(@Param("groupId") String groupId, @Param("userId") String userId);
+
+    /**
+     * 删除全部用户-角色关系
+     *
+     * @return 受影响行数
+     */
+    @Delete("DELETE FROM ucr_user_role;")
+    Integer removeAllUserRoles();
+
+    /**
+     * 查询拥有指定角色的用户ID
+     *
+     * @param roleId 角色ID
+     * @return 用户ID集合
+     */
+    @Select("SELECT DISTINCT user_id FROM ucr_user_role WHERE role_id=#{roleId};")
+    List<String> getUserIdsByRole(String roleId);
+
+    /**
+     * 查询由指定角色成员展开的用户ID
+     *
+     * @param members 成员集合(parentId为角色ID)
+     * @return 用户ID集合
+     */
+    @Select("<script>SELECT DISTINCT user_id FROM ucr_user_role WHERE (role_id,member_id) IN " +
+            "<foreach collection = \"list\" item = \"item\" index = \"index\" open=\"(\" close=\")\" separator = \",\">" +
+            "(#{item.parentId},#{item.memberId})</foreach>;</script>")
+    List<String> getUserIdsByMembers(@Param("list") List<Member> members);
+
+    /**
+     * 查询指定用户的全部用户-角色关系
+     *
+     * @param userIds 用户ID集合
+     * @return 用户-角色关系集合
+     */
+    @Select("<script>SELECT DISTINCT user_id,tenant_id,dept_id,role_id FROM ucr_user_role WHERE user_id IN " +
+            "<foreach collection = \"list\" item = \"item\" index = \"index\" open=\"(\" close=\")\" separator = \",\">" +
+            "#{item}</foreach>;</script>")
+    List<UserRole> getUserRoles(@Param("list") List<String> userIds);
+}
@@ -0,0 +1,29 @@
+package com.insight.usercenter.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+/**
+ * @author 宣炳刚
+ * @date 2018/3/20
+ * @remark Redis消息订阅配置
+ */
+@Configuration
+public class RedisListenerConfig {
+
+    /**
+     * 配置Redis消息监听容器,供各节点本地缓存接收失效通知
+     *
+     * @param factory 自动注入的RedisConnectionFactory
+     * @return RedisMessageListenerContainer
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory factory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(factory);
+
+        return container;
+    }
+}
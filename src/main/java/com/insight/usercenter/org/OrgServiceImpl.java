@@ -1,12 +1,16 @@
 package com.insight.usercenter.org;
 
+import com.insight.usercenter.common.RoleListSync;
 import com.insight.usercenter.common.entity.Organization;
 import com.insight.usercenter.common.mapper.OrgMapper;
+import com.insight.usercenter.common.mapper.UserRoleMapper;
 import com.insight.util.ReplyHelper;
 import com.insight.util.pojo.Reply;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -17,15 +21,21 @@ import java.util.List;
 @Service
 public class OrgServiceImpl implements OrgService {
     private final OrgMapper orgMapper;
+    private final UserRoleMapper userRoleMapper;
+    private final RoleListSync roleListSync;
 
     /**
      * 构造函数
      *
-     * @param orgMapper 自动注入的OrgMapper
+     * @param orgMapper      自动注入的OrgMapper
+     * @param userRoleMapper 自动注入的UserRoleMapper
+     * @param roleListSync   自动注入的RoleListSync
      */
     @Autowired
-    public OrgServiceImpl(OrgMapper orgMapper) {
+    public OrgServiceImpl(OrgMapper orgMapper, UserRoleMapper userRoleMapper, RoleListSync roleListSync) {
         this.orgMapper = orgMapper;
+        this.userRoleMapper = userRoleMapper;
+        this.roleListSync = roleListSync;
     }
 
     /**
@@ -48,10 +58,14 @@ public class OrgServiceImpl implements OrgService {
      * @return Reply
      */
     @Override
+    @Transactional
     public Reply addPostMember(String postId, String userId) {
 
-        // 添加成员
+        // 添加成员,并展开职位所获得的角色
         Integer count = orgMapper.addPostMember(postId, userId);
+        userRoleMapper.removePostUserRoles(postId, userId);
+        userRoleMapper.addPostUserRoles(postId, userId);
+        roleListSync.sync(Collections.singletonList(userId));
 
         return count > 0 ? ReplyHelper.success(count) : ReplyHelper.error();
     }
@@ -64,10 +78,13 @@ public class OrgServiceImpl implements OrgService {
      * @return Reply
      */
     @Override
+    @Transactional
     public Reply removePostMember(String postId, String userId) {
 
-        // 删除成员
+        // 删除成员及职位所获得的角色
         Integer count = orgMapper.removePostMember(postId, userId);
+        userRoleMapper.removePostUserRoles(postId, userId);
+        roleListSync.sync(Collections.singletonList(userId));
 
         return count > 0 ? ReplyHelper.success(count) : ReplyHelper.error();
     }
@@ -2,12 +2,17 @@ package com.insight.usercenter.role;
 
 import com.github.pagehelper.PageHelper;
 import com.github.pagehelper.PageInfo;
+import com.insight.usercenter.common.AppCatalog;
+import com.insight.usercenter.common.CatalogVersion;
+import com.insight.usercenter.common.PermitEngine;
+import com.insight.usercenter.common.RoleListSync;
 import com.insight.usercenter.common.Token;
 import com.insight.usercenter.common.dto.UserDTO;
 import com.insight.usercenter.common.entity.Member;
 import com.insight.usercenter.common.entity.Role;
 import com.insight.usercenter.common.mapper.RoleMapper;
 import com.insight.usercenter.common.mapper.TenantMapper;
+import com.insight.usercenter.common.mapper.UserRoleMapper;
 import com.insight.usercenter.role.dto.RoleDTO;
 import com.insight.util.Generator;
 import com.insight.util.ReplyHelper;
@@ -16,7 +21,10 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * @author 宣炳刚
@@ -27,17 +35,33 @@ import java.util.List;
 public class RoleServiceImpl implements RoleService {
     private final RoleMapper roleMapper;
     private final TenantMapper tenantMapper;
+    private final UserRoleMapper userRoleMapper;
+    private final PermitEngine permitEngine;
+    private final AppCatalog appCatalog;
+    private final CatalogVersion catalogVersion;
+    private final RoleListSync roleListSync;
 
     /**
      * 构造函数
      *
      * @param roleMapper   自动注入的RoleMapper
-     * @param tenantMapper 自动注入的TenantMapper
+     * @param tenantMapper   自动注入的TenantMapper
+     * @param userRoleMapper 自动注入的UserRoleMapper
+     * @param permitEngine   自动注入的PermitEngine
+     * @param appCatalog     自动注入的AppCatalog
+     * @param catalogVersion 自动注入的CatalogVersion
+     * @param roleListSync   自动注入的RoleListSync
      */
     @Autowired
-    public RoleServiceImpl(RoleMapper roleMapper, TenantMapper tenantMapper) {
+    public RoleServiceImpl(RoleMapper roleMapper, TenantMapper tenantMapper, UserRoleMapper userRoleMapper, PermitEngine permitEngine,
+                           AppCatalog appCatalog, CatalogVersion catalogVersion, RoleListSync roleListSync) {
         this.roleMapper = roleMapper;
         this.tenantMapper = tenantMapper;
+        this.userRoleMapper = userRoleMapper;
+        this.permitEngine = permitEngine;
+        this.appCatalog = appCatalog;
+        this.catalogVersion = catalogVersion;
+        this.roleListSync = roleListSync;
     }
 
     /**
@@ -77,7 +101,7 @@ public class RoleServiceImpl implements RoleService {
         }
 
         // 查询角色数据
-        role.setFunctions(roleMapper.getRoleFunction(role.getApplicationId(), roleId));
+        role.setFunctions(appCatalog.getRoleFunctions(role.getApplicationId(), roleId));
         role.setMembers(roleMapper.getRoleMember(roleId));
 
         return ReplyHelper.success(role);
@@ -116,8 +140,14 @@ public class RoleServiceImpl implements RoleService {
      * @return Reply
      */
     @Override
+    @Transactional
     public Reply deleteRole(String roleId) {
+        Set<String> users = roleListSync.getUsersByRole(roleId);
         Integer count = roleMapper.deleteRole(roleId);
+        userRoleMapper.removeUserRolesByRole(roleId);
+        roleListSync.sync(users);
+        permitEngine.onRoleChanged(roleId);
+        catalogVersion.onRoleChanged(roleId);
 
         return count > 0 ? ReplyHelper.success() : ReplyHelper.error();
     }
@@ -134,6 +164,8 @@ public class RoleServiceImpl implements RoleService {
         Integer count = roleMapper.updateRole(role);
         if (role.getFunctions() != null && !role.getFunctions().isEmpty()) {
             count += roleMapper.addRoleFunction(role.getId(), role.getFunctions());
+            permitEngine.onRoleChanged(role.getId());
+            catalogVersion.onRoleChanged(role.getId());
         }
 
         return count > 0 ? ReplyHelper.success() : ReplyHelper.error();
@@ -147,13 +179,19 @@ public class RoleServiceImpl implements RoleService {
      * @return Reply
      */
     @Override
+    @Transactional
     public Reply addRoleMembers(Token token, List<Member> members) {
         if (members == null || members.isEmpty()) {
             return ReplyHelper.invalidParam();
         }
 
-        // 持久化成员关系
+        // 持久化成员关系,并展开为用户-角色关系
         Integer count = roleMapper.addRoleMembers(members);
+        Set<String> users = new HashSet<>(userRoleMapper.getUserIdsByMembers(members));
+        userRoleMapper.removeUserRolesByMembers(members);
+        userRoleMapper.addUserRolesByMembers(members);
+        users.addAll(userRoleMapper.getUserIdsByMembers(members));
+        roleListSync.sync(users);
 
         // 为未绑定租户的用户自动绑定租户-用户关系
         List<String> list = tenantMapper.getUnbindingUser(token.getTenantId(), members);
@@ -172,9 +210,18 @@ public class RoleServiceImpl implements RoleService {
      * @return Reply
      */
     @Override
+    @Transactional
     public Reply removeRoleMember(String roleId, String userId) {
         Integer count = roleMapper.removeRoleMember(roleId, userId);
 
+        Member member = new Member();
+        member.setParentId(roleId);
+        member.setMemberId(userId);
+        List<Member> members = Collections.singletonList(member);
+        List<String> users = userRoleMapper.getUserIdsByMembers(members);
+        userRoleMapper.removeUserRolesByMembers(members);
+        roleListSync.sync(users);
+
         return count > 0 ? ReplyHelper.success() : ReplyHelper.error();
     }
 
@@ -185,8 +232,19 @@ public class RoleServiceImpl implements RoleService {
      * @return Reply
      */
     @Override
+    @Transactional
     public Reply removeRoleMembers(List<String> list) {
+        if (list == null || list.isEmpty()) {
+            return ReplyHelper.invalidParam();
+        }
+
+        List<Member> members = roleMapper.getRoleMemberByIds(list);
         Integer count = roleMapper.removeRoleMembers(list);
+        if (!members.isEmpty()) {
+            List<String> users = userRoleMapper.getUserIdsByMembers(members);
+            userRoleMapper.removeUserRolesByMembers(members);
+            roleListSync.sync(users);
+        }
 
         return count > 0 ? ReplyHelper.success() : ReplyHelper.error();
     }
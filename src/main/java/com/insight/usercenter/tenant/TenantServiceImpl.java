@@ -2,6 +2,10 @@ package com.insight.usercenter.tenant;
 
 import com.github.pagehelper.PageHelper;
 import com.github.pagehelper.PageInfo;
+import com.insight.usercenter.common.AppCatalog;
+import com.insight.usercenter.common.CatalogVersion;
+import com.insight.usercenter.common.PermitEngine;
+import com.insight.usercenter.common.RoleListSync;
 import com.insight.usercenter.common.Token;
 import com.insight.usercenter.common.entity.App;
 import com.insight.usercenter.common.entity.Function;
@@ -9,6 +13,7 @@ import com.insight.usercenter.common.entity.Role;
 import com.insight.usercenter.common.entity.Tenant;
 import com.insight.usercenter.common.mapper.RoleMapper;
 import com.insight.usercenter.common.mapper.TenantMapper;
+import com.insight.usercenter.common.mapper.UserRoleMapper;
 import com.insight.usercenter.tenant.dto.TenantDTO;
 import com.insight.util.Generator;
 import com.insight.util.ReplyHelper;
@@ -17,6 +22,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -28,17 +34,33 @@ import java.util.List;
 public class TenantServiceImpl implements TenantService {
     private final TenantMapper tenantMapper;
     private final RoleMapper roleMapper;
+    private final UserRoleMapper userRoleMapper;
+    private final PermitEngine permitEngine;
+    private final AppCatalog appCatalog;
+    private final CatalogVersion catalogVersion;
+    private final RoleListSync roleListSync;
 
     /**
      * 构造方法
      *
-     * @param tenantMapper 自动注入的TenantMapper
-     * @param roleMapper   自动注入的RoleMapper
+     * @param tenantMapper   自动注入的TenantMapper
+     * @param roleMapper     自动注入的RoleMapper
+     * @param userRoleMapper 自动注入的UserRoleMapper
+     * @param permitEngine   自动注入的PermitEngine
+     * @param appCatalog     自动注入的AppCatalog
+     * @param catalogVersion 自动注入的CatalogVersion
+     * @param roleListSync   自动注入的RoleListSync
      */
     @Autowired
-    public TenantServiceImpl(TenantMapper tenantMapper, RoleMapper roleMapper) {
+    public TenantServiceImpl(TenantMapper tenantMapper, RoleMapper roleMapper, UserRoleMapper userRoleMapper, PermitEngine permitEngine,
+                             AppCatalog appCatalog, CatalogVersion catalogVersion, RoleListSync roleListSync) {
         this.tenantMapper = tenantMapper;
         this.roleMapper = roleMapper;
+        this.userRoleMapper = userRoleMapper;
+        this.permitEngine = permitEngine;
+        this.appCatalog = appCatalog;
+        this.catalogVersion = catalogVersion;
+        this.roleListSync = roleListSync;
     }
 
     /**
@@ -215,10 +237,14 @@ public class TenantServiceImpl implements TenantService {
             List<Function> list = roleMapper.getTemplateFunctions(role.getId());
             if (!list.isEmpty()) {
                 count += roleMapper.addRoleFunction(role.getId(), list);
+                permitEngine.onRoleChanged(role.getId());
+                catalogVersion.onRoleChanged(role.getId());
             }
 
             if (role.getBuiltin()) {
                 count += roleMapper.addRoleMember(role.getId(), userId);
+                userRoleMapper.addUserRolesByRole(role.getId());
+                roleListSync.sync(Collections.singletonList(userId));
             }
         }
 
@@ -261,6 +287,7 @@ public class TenantServiceImpl implements TenantService {
     public Reply addAppsToTenant(String id, List<String> appIds) {
         Integer count = tenantMapper.removeAppsFromTenant(id);
         count += tenantMapper.addAppsToTenant(id, appIds);
+        appCatalog.onTenantChanged(id);
 
         return count > 0 ? ReplyHelper.success() : ReplyHelper.error();
     }
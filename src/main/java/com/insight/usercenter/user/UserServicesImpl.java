@@ -3,11 +3,14 @@ package com.insight.usercenter.user;
 import com.github.pagehelper.PageHelper;
 import com.github.pagehelper.PageInfo;
 import com.insight.usercenter.common.Core;
+import com.insight.usercenter.common.SessionIndex;
 import com.insight.usercenter.common.Token;
+import com.insight.usercenter.common.UserIdentifierJob;
 import com.insight.usercenter.common.dto.TokenPackage;
 import com.insight.usercenter.common.dto.UserDTO;
 import com.insight.usercenter.common.entity.User;
 import com.insight.usercenter.common.mapper.TenantMapper;
+import com.insight.usercenter.common.mapper.UserIdentifierMapper;
 import com.insight.usercenter.common.mapper.UserMapper;
 import com.insight.usercenter.user.dto.QueryUserDTO;
 import com.insight.util.Generator;
@@ -17,6 +20,7 @@ import com.insight.util.encrypt.Encryptor;
 import com.insight.util.pojo.Reply;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 
@@ -30,19 +34,29 @@ public class UserServicesImpl implements UserServices {
     private final Core core;
     private final UserMapper userMapper;
     private final TenantMapper tenantMapper;
+    private final UserIdentifierMapper identifierMapper;
+    private final UserIdentifierJob identifierJob;
+    private final SessionIndex sessionIndex;
 
     /**
      * 构造函数
      *
-     * @param core         自动注入的Core
-     * @param userMapper   自动注入的UserMapper
-     * @param tenantMapper 自动注入的TenantMapper
+     * @param core             自动注入的Core
+     * @param userMapper       自动注入的UserMapper
+     * @param tenantMapper     自动注入的TenantMapper
+     * @param identifierMapper 自动注入的UserIdentifierMapper
+     * @param identifierJob    自动注入的UserIdentifierJob
+     * @param sessionIndex     自动注入的SessionIndex
      */
     @Autowired
-    public UserServicesImpl(Core core, UserMapper userMapper, TenantMapper tenantMapper) {
+    public UserServicesImpl(Core core, UserMapper userMapper, TenantMapper tenantMapper, UserIdentifierMapper identifierMapper,
+                            UserIdentifierJob identifierJob, SessionIndex sessionIndex) {
         this.core = core;
         this.userMapper = userMapper;
         this.tenantMapper = tenantMapper;
+        this.identifierMapper = identifierMapper;
+        this.identifierJob = identifierJob;
+        this.sessionIndex = sessionIndex;
     }
 
     /**
@@ -114,6 +128,7 @@ public class UserServicesImpl implements UserServices {
      * @return Reply
      */
     @Override
+    @Transactional
     public Reply addUser(Token token, UserDTO user) {
 
         // 验证用户是否存在
@@ -127,6 +142,8 @@ public class UserServicesImpl implements UserServices {
         }
 
         Integer count = userMapper.addUser(user);
+        identifierJob.addIdentifiers(user.getId());
+        core.addIdentifiers(user.getAccount(), user.getMobile(), user.getEmail(), user.getOpenId());
         count += tenantMapper.addUserToTenant(token.getTenantId(), user.getId());
 
         return count > 0 ? ReplyHelper.success() : ReplyHelper.error();
@@ -139,6 +156,7 @@ public class UserServicesImpl implements UserServices {
      * @return Reply
      */
     @Override
+    @Transactional
     public Reply signUp(UserDTO user) {
         String appId = user.getAppId();
 
@@ -158,6 +176,8 @@ public class UserServicesImpl implements UserServices {
         }
 
         userMapper.addUser(user);
+        identifierJob.addIdentifiers(user.getId());
+        core.addIdentifiers(user.getAccount(), user.getMobile(), user.getEmail(), user.getOpenId());
         String userId = core.getUserId(user.getAccount());
         if (userId == null) {
             return ReplyHelper.error();
@@ -173,6 +193,7 @@ public class UserServicesImpl implements UserServices {
         core.setTenantIdAndDeptId(token);
 
         TokenPackage tokens = token.creatorKey(Generator.uuid(), appId, core.getTokenLife(appId));
+        core.signToken(token, tokens);
         core.setTokenCache(token);
 
         return ReplyHelper.success(tokens);
@@ -185,34 +206,39 @@ public class UserServicesImpl implements UserServices {
      * @return Reply
      */
     @Override
+    @Transactional
     public Reply deleteUser(String userId) {
         Integer count = userMapper.deleteUserById(userId);
         if (count <= 0) {
             return ReplyHelper.error();
         }
 
+        identifierMapper.removeIdentifiers(userId);
+
         // 获取Token缓存中被删除用户的Token
         Token token = core.getToken(userId);
         if (token != null) {
-            core.deleteFromRedis(userId);
-            core.deleteFromRedis(token.getAccount());
+            core.deleteToken(token);
+            core.deleteUserIdCache(token.getAccount());
 
             String mobile = token.getMobile();
             if (mobile != null && !mobile.isEmpty()) {
-                core.deleteFromRedis(mobile);
+                core.deleteUserIdCache(mobile);
             }
 
             String openId = token.getUnionId();
             if (openId != null && !openId.isEmpty()) {
-                core.deleteFromRedis(openId);
+                core.deleteUserIdCache(openId);
             }
 
             String email = token.getEmail();
             if (email != null && !email.isEmpty()) {
-                core.deleteFromRedis(email);
+                core.deleteUserIdCache(email);
             }
         }
 
+        core.invalidateToken(userId);
+
         return ReplyHelper.success();
     }
 
@@ -296,6 +322,7 @@ public class UserServicesImpl implements UserServices {
      * @return Reply
      */
     @Override
+    @Transactional
     public Reply updateUserMobile(UserDTO user) {
         String userId = user.getId();
         if (userId == null || userId.isEmpty()) {
@@ -337,15 +364,19 @@ public class UserServicesImpl implements UserServices {
             return ReplyHelper.error();
         }
 
+        identifierMapper.removeIdentifier(userId, UserIdentifierMapper.MOBILE);
+        identifierJob.addIdentifier(userId, UserIdentifierMapper.MOBILE);
+        core.addIdentifiers(mobile);
+
         // 更新用户ID缓存
         if (token != null) {
             String old = token.getMobile();
             if (mobile != null) {
-                core.setToRedis(mobile, userId);
+                core.setUserIdCache(mobile, userId);
             }
 
             if (old != null) {
-                core.deleteFromRedis(old);
+                core.deleteUserIdCache(old);
             }
 
             // 更新Token缓存
@@ -364,6 +395,7 @@ public class UserServicesImpl implements UserServices {
      * @return Reply
      */
     @Override
+    @Transactional
     public Reply updateUserEmail(UserDTO user) {
         String userId = user.getId();
         if (userId == null || userId.isEmpty()) {
@@ -391,15 +423,19 @@ public class UserServicesImpl implements UserServices {
             return ReplyHelper.error();
         }
 
+        identifierMapper.removeIdentifier(userId, UserIdentifierMapper.EMAIL);
+        identifierJob.addIdentifier(userId, UserIdentifierMapper.EMAIL);
+        core.addIdentifiers(email);
+
         // 更新用户ID缓存
         if (token != null) {
             String old = token.getEmail();
             if (old != null) {
-                core.deleteFromRedis(old);
+                core.deleteUserIdCache(old);
             }
 
             if (email != null) {
-                core.setToRedis(email, userId);
+                core.setUserIdCache(email, userId);
             }
 
             // 更新Token缓存
@@ -454,13 +490,14 @@ public class UserServicesImpl implements UserServices {
             return ReplyHelper.error();
         }
 
-        // 更新Token缓存
+        // 更新Token缓存,并吊销此前签发的签名访问令牌
         if (basis != null) {
             basis.setPassword(key);
             basis.setChanged();
             core.setTokenCache(basis);
         }
 
+        core.revokeUser(userId);
         return ReplyHelper.success();
     }
 
@@ -518,12 +555,14 @@ public class UserServicesImpl implements UserServices {
         // 绑定设备到用户,并更新设备激活信息
         core.setTenantIdAndDeptId(token);
 
-        // 更新Token缓存
+        // 更新Token缓存,并吊销此前签发的签名访问令牌
         token.setPassword(key);
         token.setChanged();
+        core.revokeUser(userId);
 
         // 生成令牌数据
         TokenPackage tokens = token.creatorKey(Generator.uuid(), appId, core.getTokenLife(appId));
+        core.signToken(token, tokens);
         core.setTokenCache(token);
 
         return ReplyHelper.success(tokens);
@@ -617,6 +656,12 @@ public class UserServicesImpl implements UserServices {
             core.setTokenCache(token);
         }
 
+        // 禁用用户时注销其全部在线会话
+        if (isInvalid) {
+            sessionIndex.revokeUser(userId);
+            core.revokeUser(userId);
+        }
+
         return ReplyHelper.success();
     }
 }
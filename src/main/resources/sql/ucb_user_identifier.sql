@@ -0,0 +1,8 @@
+-- 用户登录标识表,每个账号、手机号、E-mail、微信OpenID一行,替代ucb_user上四个字段的OR查询
+CREATE TABLE IF NOT EXISTS `ucb_user_identifier` (
+  `identifier` varchar(128) NOT NULL COMMENT '登录标识(去除首尾空格并转为小写)',
+  `type` int(11) NOT NULL COMMENT '标识类型(1:账号;2:手机号;3:E-mail;4:微信OpenID)',
+  `user_id` char(32) NOT NULL COMMENT '用户ID',
+  PRIMARY KEY (`identifier`,`type`),
+  KEY `idx_user_identifier_user` (`user_id`,`type`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='用户登录标识表';
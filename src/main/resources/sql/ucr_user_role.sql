@@ -0,0 +1,14 @@
+-- 用户-角色关系物化表,由角色成员、用户组成员及职位成员关系展开,替代视图ucv_user_roles
+CREATE TABLE IF NOT EXISTS `ucr_user_role` (
+  `id` char(32) NOT NULL COMMENT '主键',
+  `user_id` char(32) NOT NULL COMMENT '用户ID',
+  `tenant_id` char(32) DEFAULT NULL COMMENT '租户ID',
+  `dept_id` char(32) DEFAULT NULL COMMENT '登录部门ID(仅职位成员)',
+  `role_id` char(32) NOT NULL COMMENT '角色ID',
+  `member_type` int(11) NOT NULL COMMENT '成员类型(1:用户;2:用户组;3:职位)',
+  `member_id` char(32) NOT NULL COMMENT '成员ID(根据类型不同)',
+  PRIMARY KEY (`id`),
+  KEY `idx_user_role_user` (`user_id`,`tenant_id`,`dept_id`,`role_id`),
+  KEY `idx_user_role_role` (`role_id`,`member_id`),
+  KEY `idx_user_role_member` (`member_type`,`member_id`,`user_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='用户-角色关系表';
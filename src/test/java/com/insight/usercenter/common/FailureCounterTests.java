@@ -0,0 +1,109 @@
+package com.insight.usercenter.common;
+
+import com.insight.util.Generator;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 以并发的失败请求驱动FailureCounter的累加脚本,验证返回的计数即为原子累加后的计数。
+ * 需要可访问的Redis(系统属性test.redis.host/test.redis.port,默认localhost:6379),不可访问时跳过
+ */
+public class FailureCounterTests {
+    private static final int THREADS = 50;
+
+    private LettuceConnectionFactory factory;
+    private StringRedisTemplate redis;
+    private FailureCounter counter;
+    private String userId;
+
+    @Before
+    public void setUp() {
+        RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(System.getProperty("test.redis.host", "localhost"),
+                Integer.getInteger("test.redis.port", 6379));
+        factory = new LettuceConnectionFactory(config);
+        factory.afterPropertiesSet();
+        redis = new StringRedisTemplate(factory);
+
+        try {
+            redis.execute(connection -> connection.ping(), true);
+        } catch (Exception ex) {
+            factory.destroy();
+            factory = null;
+            Assume.assumeNoException("Redis不可访问,跳过测试", ex);
+        }
+
+        counter = new FailureCounter(redis);
+        userId = Generator.uuid();
+    }
+
+    @After
+    public void tearDown() {
+        if (factory == null) {
+            return;
+        }
+
+        redis.delete(FailureCounter.KEY_PREFIX + userId);
+        factory.destroy();
+    }
+
+    /**
+     * 并发累加时每个请求得到不同的计数,锁定后不再累加
+     */
+    @Test
+    public void concurrentFailures() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch latch = new CountDownLatch(1);
+        List<Future<Integer>> futures = new ArrayList<>(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(executor.submit(() -> {
+                latch.await();
+                return counter.addAll(Collections.singletonMap(userId, 1)).get(userId);
+            }));
+        }
+
+        latch.countDown();
+        int[] hits = new int[FailureCounter.MAX_FAILURES + 2];
+        for (Future<Integer> future : futures) {
+            hits[future.get(10, TimeUnit.SECONDS)]++;
+        }
+
+        executor.shutdown();
+
+        for (int i = 1; i <= FailureCounter.MAX_FAILURES; i++) {
+            assertEquals("计数" + i + "应只返回一次", 1, hits[i]);
+        }
+
+        int locked = FailureCounter.MAX_FAILURES + 1;
+        assertEquals(THREADS - FailureCounter.MAX_FAILURES, hits[locked]);
+        assertTrue(FailureCounter.isLocked(locked));
+        assertEquals(String.valueOf(locked), redis.opsForValue().get(FailureCounter.KEY_PREFIX + userId));
+        assertTrue(redis.getExpire(FailureCounter.KEY_PREFIX + userId, TimeUnit.MILLISECONDS) > 0);
+    }
+
+    /**
+     * 一次累加多次失败时计数不超过锁定阈值
+     */
+    @Test
+    public void batchIsCapped() {
+        assertEquals(Integer.valueOf(3), counter.addAll(Collections.singletonMap(userId, 3)).get(userId));
+        assertEquals(Integer.valueOf(FailureCounter.MAX_FAILURES + 1), counter.addAll(Collections.singletonMap(userId, 10)).get(userId));
+        assertEquals(Integer.valueOf(FailureCounter.MAX_FAILURES + 1), counter.addAll(Collections.singletonMap(userId, 1)).get(userId));
+    }
+}
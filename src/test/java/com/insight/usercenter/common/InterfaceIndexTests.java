@@ -0,0 +1,92 @@
+package com.insight.usercenter.common;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 功能接口URL索引的匹配规则:按完整路径段匹配,{var}匹配任意一个路径段,字面路径段优先
+ */
+public class InterfaceIndexTests {
+
+    /**
+     * 字面路径段与模板路径段均匹配时,字面路径段的功能在前
+     */
+    @Test
+    public void literalBeforeWildcard() {
+        InterfaceIndex index = new InterfaceIndex();
+        index.add("/api/users/{id}", 1);
+        index.add("/api/users/me", 2);
+
+        assertArrayEquals(new int[]{2, 1}, index.match("/api/users/me"));
+        assertArrayEquals(new int[]{1}, index.match("/api/users/123"));
+    }
+
+    /**
+     * 模板路径段只匹配一个路径段,路径段数量不同的URL不匹配
+     */
+    @Test
+    public void wildcardMatchesOneSegment() {
+        InterfaceIndex index = new InterfaceIndex();
+        index.add("/api/users/{id}", 1);
+        index.add("/api/users/{id}/roles", 2);
+
+        assertArrayEquals(new int[]{1}, index.match("/api/users/123"));
+        assertArrayEquals(new int[]{2}, index.match("/api/users/123/roles"));
+        assertArrayEquals(new int[0], index.match("/api/users"));
+        assertArrayEquals(new int[0], index.match("/api/users/123/roles/456"));
+    }
+
+    /**
+     * 忽略末尾斜杠、查询参数、片段及协议和主机
+     */
+    @Test
+    public void normalizesUrl() {
+        InterfaceIndex index = new InterfaceIndex();
+        index.add("/api/users/{id}/", 1);
+
+        assertArrayEquals(new int[]{1}, index.match("/api/users/123"));
+        assertArrayEquals(new int[]{1}, index.match("/api/users/123/"));
+        assertArrayEquals(new int[]{1}, index.match("/api/users/123?page=1&size=20"));
+        assertArrayEquals(new int[]{1}, index.match("/api/users/123#top"));
+        assertArrayEquals(new int[]{1}, index.match("https://example.com:8080/api/users/123?page=1"));
+        assertArrayEquals(new int[0], index.match("https://example.com"));
+    }
+
+    /**
+     * 原有按子串匹配时可命中的URL不再匹配
+     */
+    @Test
+    public void substringDoesNotMatch() {
+        InterfaceIndex index = new InterfaceIndex();
+        index.add("/api/users", 1);
+
+        assertArrayEquals(new int[0], index.match("/users"));
+        assertArrayEquals(new int[0], index.match("/api/users/123"));
+        assertArrayEquals(new int[0], index.match("/api/usersx"));
+        assertArrayEquals(new int[0], index.match("/v2/api/users"));
+        assertArrayEquals(new int[]{1}, index.match("/api/users"));
+    }
+
+    /**
+     * 以逗号分隔的多个接口URL归属同一功能时,匹配结果中功能序号不重复
+     */
+    @Test
+    public void duplicateOrdinals() {
+        InterfaceIndex index = new InterfaceIndex();
+        index.add("/api/users/{id}, /api/users/{userId}/,/api/users/me", 1);
+        index.add("/api/users/me,/api/users/me", 2);
+
+        assertArrayEquals(new int[]{1, 2}, index.match("/api/users/me"));
+        assertArrayEquals(new int[]{1}, index.match("/api/users/123"));
+    }
+
+    @Test
+    public void isUrl() {
+        assertTrue(InterfaceIndex.isUrl("/api/users"));
+        assertFalse(InterfaceIndex.isUrl("getUsers"));
+        assertFalse(InterfaceIndex.isUrl(null));
+    }
+}
@@ -0,0 +1,89 @@
+package com.insight.usercenter.common;
+
+import com.insight.util.Generator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一次性凭据签发及使用(JMH):OneTimeStore的SET+Lua读取并删除,与原有方式的SET+GET+DEL对比。
+ * 需要可访问的Redis(系统属性test.redis.host/test.redis.port,默认localhost:6379),不可访问时不运行。
+ * 运行:mvn test-compile 后以测试类路径执行本类的main方法
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class OneTimeStoreBenchmark {
+    private static final String LEGACY_PREFIX = "Benchmark:";
+    private static final String USER_ID = "4e2f1d6a9b3c4e5f8a7b6c5d4e3f2a1b";
+
+    private LettuceConnectionFactory factory;
+    private StringRedisTemplate redis;
+    private OneTimeStore store;
+    private String prefix;
+    private long index;
+
+    @Setup
+    public void setUp() {
+        factory = newFactory();
+        redis = new StringRedisTemplate(factory);
+        store = new OneTimeStore(redis);
+        prefix = Generator.uuid();
+    }
+
+    @TearDown
+    public void tearDown() {
+        factory.destroy();
+    }
+
+    @Benchmark
+    public String oneTimeStore() {
+        String key = prefix + index++;
+        store.issue(OneTimeStore.Purpose.CODE, key, USER_ID, 60, TimeUnit.SECONDS);
+        return store.consume(OneTimeStore.Purpose.CODE, key);
+    }
+
+    @Benchmark
+    public String getAndDelete() {
+        String key = LEGACY_PREFIX + prefix + index++;
+        redis.opsForValue().set(key, USER_ID, 60, TimeUnit.SECONDS);
+        String value = redis.opsForValue().get(key);
+        redis.delete(key);
+        return value;
+    }
+
+    private static LettuceConnectionFactory newFactory() {
+        RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(System.getProperty("test.redis.host", "localhost"),
+                Integer.getInteger("test.redis.port", 6379));
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(config);
+        factory.afterPropertiesSet();
+
+        return factory;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        LettuceConnectionFactory factory = newFactory();
+        try {
+            new StringRedisTemplate(factory).execute(connection -> connection.ping(), true);
+        } catch (Exception ex) {
+            System.out.println("Redis不可访问,跳过基准测试:" + ex.getMessage());
+            return;
+        } finally {
+            factory.destroy();
+        }
+
+        Options options = new OptionsBuilder().include(OneTimeStoreBenchmark.class.getSimpleName()).build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,117 @@
+package com.insight.usercenter.common;
+
+import com.insight.util.Generator;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 以并发的consume请求验证一次性凭据只能被使用一次。
+ * 需要可访问的Redis(系统属性test.redis.host/test.redis.port,默认localhost:6379),不可访问时跳过
+ */
+public class OneTimeStoreTests {
+    private static final int THREADS = 2;
+    private static final int ROUNDS = 200;
+
+    private LettuceConnectionFactory factory;
+    private StringRedisTemplate redis;
+    private OneTimeStore store;
+    private List<String> keys;
+
+    @Before
+    public void setUp() {
+        RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(System.getProperty("test.redis.host", "localhost"),
+                Integer.getInteger("test.redis.port", 6379));
+        factory = new LettuceConnectionFactory(config);
+        factory.afterPropertiesSet();
+        redis = new StringRedisTemplate(factory);
+
+        try {
+            redis.execute(connection -> connection.ping(), true);
+        } catch (Exception ex) {
+            factory.destroy();
+            factory = null;
+            Assume.assumeNoException("Redis不可访问,跳过测试", ex);
+        }
+
+        store = new OneTimeStore(redis);
+        keys = new ArrayList<>(ROUNDS);
+    }
+
+    @After
+    public void tearDown() {
+        if (factory == null) {
+            return;
+        }
+
+        keys.forEach(i -> store.remove(OneTimeStore.Purpose.CODE, i));
+        factory.destroy();
+    }
+
+    /**
+     * 两个请求同时使用同一凭据时,只有一方取得值
+     */
+    @Test
+    public void concurrentConsume() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                String key = Generator.uuid();
+                keys.add(key);
+                store.issue(OneTimeStore.Purpose.CODE, key, "user1", 60, TimeUnit.SECONDS);
+
+                CountDownLatch latch = new CountDownLatch(1);
+                List<Future<String>> futures = new ArrayList<>(THREADS);
+                for (int i = 0; i < THREADS; i++) {
+                    futures.add(executor.submit(() -> {
+                        latch.await();
+                        return store.consume(OneTimeStore.Purpose.CODE, key);
+                    }));
+                }
+
+                latch.countDown();
+                int hits = 0;
+                for (Future<String> future : futures) {
+                    String value = future.get(10, TimeUnit.SECONDS);
+                    if (value != null) {
+                        assertEquals("user1", value);
+                        hits++;
+                    }
+                }
+
+                assertEquals("第" + round + "轮应只有一个请求取得凭据", 1, hits);
+                assertNull(store.peek(OneTimeStore.Purpose.CODE, key));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * 已使用的凭据不能再次使用
+     */
+    @Test
+    public void consumeOnce() {
+        String key = Generator.uuid();
+        keys.add(key);
+        store.issue(OneTimeStore.Purpose.CODE, key, "user1", 60, TimeUnit.SECONDS);
+
+        assertEquals("user1", store.consume(OneTimeStore.Purpose.CODE, key));
+        assertNull(store.consume(OneTimeStore.Purpose.CODE, key));
+    }
+}
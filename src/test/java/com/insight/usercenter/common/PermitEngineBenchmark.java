@@ -0,0 +1,120 @@
+package com.insight.usercenter.common;
+
+import com.insight.usercenter.common.entity.Function;
+import com.insight.usercenter.common.entity.RoleAction;
+import com.insight.usercenter.common.mapper.AuthMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 鉴权引擎与原有鉴权方式的对比(JMH)。原有方式为每次查询getAllFunctions后线性扫描,
+ * 此处只计扫描部分(查询结果预先生成),未计入数据库往返,实际差距更大。
+ * 运行:mvn test-compile 后以测试类路径执行本类的main方法
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PermitEngineBenchmark {
+    private static final int FUNCTIONS = 2000;
+    private static final int ROLES = 50;
+    private static final int GRANTS_PER_ROLE = 200;
+
+    @Param({"1", "3", "8"})
+    private int userRoles;
+
+    private PermitEngine engine;
+    private List<String> roleIds;
+    private List<Function> granted;
+    private String[] functionIds;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        List<Function> functions = new ArrayList<>(FUNCTIONS);
+        for (int i = 0; i < FUNCTIONS; i++) {
+            Function function = new Function();
+            function.setId(String.format("%032x", i));
+            function.setAlias("function" + i);
+            function.setInterfaces("/api/v1.0/module" + i / 20 + "/resource" + i + "/{id}");
+            functions.add(function);
+        }
+
+        List<RoleAction> actions = new ArrayList<>(ROLES * GRANTS_PER_ROLE);
+        for (int r = 0; r < ROLES; r++) {
+            for (int i = 0; i < GRANTS_PER_ROLE; i++) {
+                RoleAction action = new RoleAction();
+                action.setRoleId("role" + r);
+                action.setFunctionId(functions.get(random.nextInt(FUNCTIONS)).getId());
+                action.setAction(random.nextInt(20) > 0);
+                actions.add(action);
+            }
+        }
+
+        AuthMapper mapper = (AuthMapper) Proxy.newProxyInstance(AuthMapper.class.getClassLoader(), new Class[]{AuthMapper.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getFunctionCatalog":
+                            return functions;
+                        case "getRoleActions":
+                            return actions;
+                        default:
+                            return null;
+                    }
+                });
+        engine = new PermitEngine(new StringRedisTemplate(), new RedisMessageListenerContainer(), mapper);
+
+        roleIds = new ArrayList<>(userRoles);
+        for (int i = 0; i < userRoles; i++) {
+            roleIds.add("role" + i);
+        }
+
+        // getAllFunctions的结果:用户角色允许且没有角色拒绝的功能
+        Set<String> roleSet = new HashSet<>(roleIds);
+        Map<String, Boolean> permits = new HashMap<>(FUNCTIONS * 2);
+        actions.stream().filter(i -> roleSet.contains(i.getRoleId()))
+                .forEach(i -> permits.merge(i.getFunctionId(), i.getAction(), Boolean::logicalAnd));
+        granted = functions.stream().filter(i -> Boolean.TRUE.equals(permits.get(i.getId()))).collect(Collectors.toList());
+
+        functionIds = new String[1024];
+        for (int i = 0; i < functionIds.length; i++) {
+            functionIds[i] = functions.get(random.nextInt(FUNCTIONS)).getId();
+        }
+
+        engine.isPermit(roleIds, functionIds[0]);
+    }
+
+    @Benchmark
+    public boolean engine() {
+        return engine.isPermit(roleIds, next());
+    }
+
+    @Benchmark
+    public boolean linearScan() {
+        String function = next();
+        return granted.stream().anyMatch(i -> function.equals(i.getId()) || function.equals(i.getAlias()) || i.getInterfaces().contains(function));
+    }
+
+    private String next() {
+        index = (index + 1) & (functionIds.length - 1);
+        return functionIds[index];
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder().include(PermitEngineBenchmark.class.getSimpleName()).build();
+        new Runner(options).run();
+    }
+}
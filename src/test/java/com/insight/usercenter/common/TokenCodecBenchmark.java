@@ -0,0 +1,128 @@
+package com.insight.usercenter.common;
+
+import com.insight.usercenter.common.entity.Keys;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token用户资料JSON与二进制格式的编解码对比,以及令牌验证时的过期/失效检查(毫秒数与原有Date方式)对比(JMH)。
+ * 用户资料按常见情况生成:完整的用户字段,3个应用共20个令牌。
+ * 运行:mvn test-compile 后以测试类路径执行本类的main方法
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenCodecBenchmark {
+    private static final int SESSIONS = 20;
+    private static final String[] APPS = {"9dd99dd9e6df467a8207d05ea5581125", "e46c0d4f85f24f759ad4d86b9505b1d4", null};
+
+    private TokenCodec jsonCodec;
+    private TokenCodec binaryCodec;
+    private Token token;
+    private String json;
+    private String binary;
+    private Keys keys;
+    private DateKeys dateKeys;
+
+    @Setup
+    public void setUp() {
+        jsonCodec = new TokenCodec("json");
+        binaryCodec = new TokenCodec("binary");
+
+        Map<String, String> sessions = new HashMap<>(SESSIONS * 2);
+        for (int i = 0; i < SESSIONS; i++) {
+            sessions.put(String.format("%032x", i), APPS[i % APPS.length]);
+        }
+
+        token = new Token();
+        token.setUserId("4e2f1d6a9b3c4e5f8a7b6c5d4e3f2a1b");
+        token.setUserType(1);
+        token.setUserName("张三");
+        token.setAccount("zhangsan");
+        token.setMobile("13800138000");
+        token.setUnionId("oWx1a2b3c4d5e6f7g8h9i0j1k2l3");
+        token.setEmail("zhangsan@example.com");
+        token.setPassword("e10adc3949ba59abbe56e057f20f883e");
+        token.setPayPassword("fcea920f7412b5da7be0cf42b8c93759");
+        token.setBuiltIn(false);
+        token.setSessions(sessions);
+
+        json = jsonCodec.encode(token);
+        binary = binaryCodec.encode(token);
+
+        keys = new Keys(APPS[0], 24);
+        dateKeys = new DateKeys(keys.getExpiryMillis(), keys.getFailureMillis());
+    }
+
+    @Benchmark
+    public String encodeJson() {
+        return jsonCodec.encode(token);
+    }
+
+    @Benchmark
+    public String encodeBinary() {
+        return binaryCodec.encode(token);
+    }
+
+    @Benchmark
+    public Token decodeJson() {
+        return jsonCodec.decode(json);
+    }
+
+    @Benchmark
+    public Token decodeBinary() {
+        return binaryCodec.decode(binary);
+    }
+
+    @Benchmark
+    public boolean verifyMillis() {
+        return keys.isExpiry(true) || keys.isExpiry(false) || keys.isFailure();
+    }
+
+    @Benchmark
+    public boolean verifyDate() {
+        return dateKeys.isExpiry(true) || dateKeys.isExpiry(false) || dateKeys.isFailure();
+    }
+
+    /**
+     * 原有以Date保存过期/失效时间的检查方式
+     */
+    private static class DateKeys {
+        private static final int TIME_OUT = 1000 * 300;
+
+        private final Date expiryTime;
+        private final Date failureTime;
+
+        private DateKeys(long expiry, long failure) {
+            expiryTime = new Date(expiry);
+            failureTime = new Date(failure);
+        }
+
+        private Boolean isExpiry(Boolean isReal) {
+            Date now = new Date();
+            Date expiry = isReal ? expiryTime : new Date(expiryTime.getTime() - TIME_OUT);
+            return now.after(expiry);
+        }
+
+        private Boolean isFailure() {
+            Date now = new Date();
+            return now.after(failureTime);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder().include(TokenCodecBenchmark.class.getSimpleName()).build();
+        new Runner(options).run();
+    }
+}
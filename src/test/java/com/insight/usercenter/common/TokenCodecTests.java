@@ -0,0 +1,106 @@
+package com.insight.usercenter.common;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 二进制格式Token用户资料的编解码,损坏的内容解码为null而不抛出异常
+ */
+public class TokenCodecTests {
+    private final TokenCodec codec = new TokenCodec("binary");
+
+    @Test
+    public void roundTrip() {
+        Map<String, String> sessions = new HashMap<>(16);
+        sessions.put("token1", "app1");
+        sessions.put("token2", "app1");
+        sessions.put("token3", null);
+
+        Token token = new Token();
+        token.setUserId("user1");
+        token.setUserType(1);
+        token.setUserName("用户");
+        token.setBuiltIn(false);
+        token.setSessions(sessions);
+
+        Token decoded = codec.decode(codec.encode(token));
+        assertEquals("user1", decoded.getUserId());
+        assertEquals(Integer.valueOf(1), decoded.getUserType());
+        assertEquals("用户", decoded.getUserName());
+        assertEquals(sessions, decoded.getSessions());
+    }
+
+    @Test
+    public void dictionaryIndexOutOfRange() throws IOException {
+        assertNull(codec.decode(encode(1, Collections.singletonMap("token1", 5))));
+    }
+
+    @Test
+    public void sessionCountTooLarge() throws IOException {
+        assertNull(codec.decode(encode(Integer.MAX_VALUE, Collections.emptyMap())));
+    }
+
+    @Test
+    public void stringLengthTooLarge() throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeByte(1);
+        out.writeInt(Integer.MAX_VALUE);
+        out.close();
+
+        assertNull(codec.decode(Base64.getEncoder().encodeToString(buffer.toByteArray())));
+    }
+
+    @Test
+    public void truncated() {
+        String value = codec.encode(new Token());
+        assertNull(codec.decode(value.substring(0, 8)));
+    }
+
+    /**
+     * 生成只有一个字典项(app1)的二进制用户资料
+     *
+     * @param sessionCount 写入的令牌索引数量
+     * @param sessions     令牌ID-字典序号
+     * @return Base64编码的用户资料
+     */
+    private static String encode(int sessionCount, Map<String, Integer> sessions) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeByte(1);
+        writeString(out, "user1");
+        out.writeBoolean(false);
+        for (int i = 0; i < 7; i++) {
+            out.writeInt(-1);
+        }
+
+        out.writeByte(-1);
+        out.writeInt(1);
+        writeString(out, "app1");
+        out.writeInt(sessionCount);
+        for (Map.Entry<String, Integer> entry : sessions.entrySet()) {
+            writeString(out, entry.getKey());
+            out.writeInt(entry.getValue());
+        }
+
+        out.close();
+        return Base64.getEncoder().encodeToString(buffer.toByteArray());
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}